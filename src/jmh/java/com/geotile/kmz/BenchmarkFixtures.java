@@ -0,0 +1,123 @@
+package com.geotile.kmz;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.gce.geotiff.GeoTiffWriter;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Synthetic rasters shared by the benchmarks; content mixes gradients and noise so encoders see realistic entropy
+final class BenchmarkFixtures {
+    static final ReferencedEnvelope EXTENT = new ReferencedEnvelope(77.0, 78.0, 28.0, 29.0, DefaultGeographicCRS.WGS84);
+
+    private BenchmarkFixtures() {
+    }
+
+    // Band layouts: GRAY8, GRAY16, RGB8, RGBA8 (RGBA has a transparent collar like a clipped orthophoto)
+    static BufferedImage createImage(int width, int height, String bands) {
+        int type;
+        switch (bands) {
+            case "GRAY8":
+                type = BufferedImage.TYPE_BYTE_GRAY;
+                break;
+            case "GRAY16":
+                type = BufferedImage.TYPE_USHORT_GRAY;
+                break;
+            case "RGB8":
+                type = BufferedImage.TYPE_3BYTE_BGR;
+                break;
+            case "RGBA8":
+                type = BufferedImage.TYPE_4BYTE_ABGR;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown band layout: " + bands);
+        }
+
+        BufferedImage image = new BufferedImage(width, height, type);
+        WritableRaster raster = image.getRaster();
+        int numBands = raster.getNumBands();
+        int maxValue = type == BufferedImage.TYPE_USHORT_GRAY ? 65535 : 255;
+        Random random = new Random(42);
+        int[] pixel = new int[numBands];
+        int collar = Math.min(width, height) / 8;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int b = 0; b < numBands; b++) {
+                    double gradient = ((double) (x + y * (b + 1)) / (width + height * (b + 1)));
+                    int value = (int) (gradient * maxValue) + random.nextInt(maxValue / 16 + 1);
+                    pixel[b] = Math.min(maxValue, value);
+                }
+                if (numBands == 4) {
+                    boolean outside = x < collar || y < collar || x >= width - collar || y >= height - collar;
+                    pixel[3] = outside ? 0 : 255;
+                }
+                raster.setPixel(x, y, pixel);
+            }
+        }
+        return image;
+    }
+
+    static File writeGeoTiff(BufferedImage image, File file) throws IOException {
+        GridCoverage2D coverage = new GridCoverageFactory().create("fixture", image, EXTENT);
+        GeoTiffWriter writer = new GeoTiffWriter(file);
+        try {
+            writer.write(coverage, null);
+        } finally {
+            writer.dispose();
+        }
+        return file;
+    }
+
+    static int[] parseGrid(String grid) {
+        String[] parts = grid.toLowerCase().split("x");
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    static List<TileInfo> createTiles(int count, int tileSize, String bands) {
+        BufferedImage source = toARGB(createImage(tileSize, tileSize, bands));
+        List<TileInfo> tiles = new ArrayList<>(count);
+        int side = (int) Math.ceil(Math.sqrt(count));
+        double step = EXTENT.getWidth() / side;
+        boolean opaque = TileClassifier.classify(source, null).isOpaque();
+        for (int i = 0; i < count; i++) {
+            int x = i % side;
+            int y = i / side;
+            double minX = EXTENT.getMinX() + x * step;
+            double maxY = EXTENT.getMaxY() - y * step;
+            TileInfo tile = new TileInfo(source, new double[]{minX, maxY - step, minX + step, maxY}, x, y);
+            tile.setOpaque(opaque);
+            tiles.add(tile);
+        }
+        return tiles;
+    }
+
+    static BufferedImage toARGB(BufferedImage image) {
+        BufferedImage argb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        argb.createGraphics().drawImage(image, 0, 0, null);
+        return argb;
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (path == null || !Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
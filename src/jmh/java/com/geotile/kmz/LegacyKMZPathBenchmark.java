@@ -0,0 +1,96 @@
+package com.geotile.kmz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+// The older KMZ re-tiling path: ImageSplitter over an extracted overlay image, then KMZTileBuilder
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class LegacyKMZPathBenchmark {
+    @Param({"1024", "4096"})
+    public int size;
+
+    @Param({"RGB8", "RGBA8"})
+    public String bands;
+
+    @Param({"256", "512"})
+    public int tileSize;
+
+    private Path extractedDir;
+    private File kmzFile;
+    private List<ImageTile> tiles;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        extractedDir = Files.createTempDirectory("jmh_legacy_");
+        ImageIO.write(BenchmarkFixtures.createImage(size, size, bands), "png", extractedDir.resolve("overlay.png").toFile());
+        // The same overlay packed as a KMZ, for splitting straight from the archive
+        kmzFile = Files.createTempFile("jmh_legacy_", ".kmz").toFile();
+        try (KMZWriter kmz = new KMZWriter(kmzFile, Deflater.DEFAULT_COMPRESSION)) {
+            kmz.writeEntry("doc.kml", "<kml/>".getBytes(StandardCharsets.UTF_8));
+            kmz.writeEntry("overlay.png", Files.readAllBytes(extractedDir.resolve("overlay.png")));
+        }
+        tiles = new ImageSplitter().splitImage(extractedDir.toFile(), tileSize, tileSize);
+
+        // KMZTileBuilder writes under ./output relative to the working directory, as the legacy tool did
+        new File("output/kmz").mkdirs();
+    }
+
+    @Benchmark
+    public List<ImageTile> splitImage() throws IOException {
+        return new ImageSplitter().splitImage(extractedDir.toFile(), tileSize, tileSize);
+    }
+
+    @Benchmark
+    public List<ImageTile> splitImageFromArchive() throws IOException {
+        try (KMZArchive archive = new KMZArchive(kmzFile)) {
+            return new ImageSplitter().splitImage(archive, tileSize, tileSize);
+        }
+    }
+
+    // Tiles handed over band by band and dropped, so only one band of decoded pixels is live at a time
+    @Benchmark
+    public long splitImageStreaming() throws IOException {
+        long[] pixels = new long[1];
+        new ImageSplitter().splitImage(extractedDir.toFile(), tileSize, tileSize,
+            tile -> pixels[0] += (long) tile.getWidth() * tile.getHeight());
+        return pixels[0];
+    }
+
+    @Benchmark
+    public int buildKMZFiles() throws IOException {
+        new KMZTileBuilder().buildKMZFiles(tiles);
+        return tiles.size();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteRecursively(extractedDir);
+        Files.deleteIfExists(kmzFile.toPath());
+    }
+}
@@ -0,0 +1,70 @@
+package com.geotile.kmz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Packaging cost of createMergedKMZ for in-memory tile sets
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MergedKMZBenchmark {
+    @Param({"16", "256"})
+    public int tileCount;
+
+    @Param({"256", "512"})
+    public int tileSize;
+
+    @Param({"RGB8", "RGBA8"})
+    public String bands;
+
+    private Path workDir;
+    private GeoTiffProcessor processor;
+    private List<TileInfo> tiles;
+    private File kmzFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("jmh_kmz_");
+        File input = BenchmarkFixtures.writeGeoTiff(
+            BenchmarkFixtures.createImage(64, 64, bands), workDir.resolve("fixture.tif").toFile());
+
+        processor = new GeoTiffProcessor(input);
+        processor.process();
+
+        tiles = BenchmarkFixtures.createTiles(tileCount, tileSize, bands);
+        kmzFile = workDir.resolve("overlay.kmz").toFile();
+    }
+
+    @Benchmark
+    public long createMergedKMZ() throws IOException {
+        processor.createMergedKMZ(new ArrayList<>(tiles), kmzFile.getPath(), "Benchmark");
+        return kmzFile.length();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteRecursively(workDir);
+    }
+}
@@ -0,0 +1,79 @@
+package com.geotile.kmz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Whole-job cost of splitIntoTiles: decode, opacity, encode and write for a synthetic GeoTIFF
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class SplitIntoTilesBenchmark {
+    @Param({"1024", "4096"})
+    public int size;
+
+    @Param({"GRAY8", "RGB8", "RGBA8"})
+    public String bands;
+
+    @Param({"2x2", "8x8"})
+    public String grid;
+
+    @Param({"PNG", "GeoTIFF"})
+    public String format;
+
+    @Param({"false", "true"})
+    public boolean windowed;
+
+    private Path workDir;
+    private File outputDir;
+    private GeoTiffProcessor processor;
+    private int tilesX;
+    private int tilesY;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("jmh_split_");
+        File input = BenchmarkFixtures.writeGeoTiff(
+            BenchmarkFixtures.createImage(size, size, bands), workDir.resolve("fixture.tif").toFile());
+        outputDir = workDir.resolve("output").toFile();
+
+        processor = new GeoTiffProcessor(input);
+        processor.setWindowedReadThreshold(windowed ? 0 : Long.MAX_VALUE);
+        processor.process();
+        processor.setTileOpacity(0.8f);
+
+        int[] counts = BenchmarkFixtures.parseGrid(grid);
+        tilesX = counts[0];
+        tilesY = counts[1];
+    }
+
+    @Benchmark
+    public List<TileInfo> splitIntoTiles() throws IOException {
+        return processor.splitIntoTiles(tilesX, tilesY, outputDir, format);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteRecursively(workDir);
+    }
+}
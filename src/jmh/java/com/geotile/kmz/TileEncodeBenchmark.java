@@ -0,0 +1,81 @@
+package com.geotile.kmz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Per-tile latency of the hot paths; SampleTime reports the percentile distribution alongside the mean
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class TileEncodeBenchmark {
+    @Param({"256", "512", "1024"})
+    public int tileSize;
+
+    @Param({"GRAY8", "RGB8", "RGBA8"})
+    public String bands;
+
+    private Path workDir;
+    private GeoTiffProcessor processor;
+    private BufferedImage tileImage;
+    private TileInfo tile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("jmh_tile_");
+        File input = BenchmarkFixtures.writeGeoTiff(
+            BenchmarkFixtures.createImage(64, 64, bands), workDir.resolve("fixture.tif").toFile());
+
+        processor = new GeoTiffProcessor(input);
+        processor.process();
+        processor.setTileOpacity(0.8f);
+
+        tileImage = BenchmarkFixtures.toARGB(BenchmarkFixtures.createImage(tileSize, tileSize, bands));
+        tile = BenchmarkFixtures.createTiles(1, tileSize, bands).get(0);
+    }
+
+    @Benchmark
+    public BufferedImage applyOpacity() {
+        return processor.applyOpacity(tileImage);
+    }
+
+    @Benchmark
+    public TileClassifier.Result classify() {
+        return TileClassifier.classify(tileImage, null);
+    }
+
+    @Benchmark
+    public byte[] encodePNG() throws IOException {
+        return processor.encodeTileAsPNG(tile);
+    }
+
+    @Benchmark
+    public byte[] encodeGeoTIFF() throws IOException {
+        return processor.encodeTileAsGeoTIFF(tile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteRecursively(workDir);
+    }
+}
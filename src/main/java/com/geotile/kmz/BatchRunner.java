@@ -0,0 +1,538 @@
+package com.geotile.kmz;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+// Headless entry point: runs the same GeoTiffProcessor flow as SplitterUI without touching JavaFX
+public class BatchRunner {
+    private static final String DEFAULT_CONFIG = "config.properties";
+
+    // Options that take no value on the command line; in a config file they are true or false
+    private static final Set<String> FLAGS = new HashSet<>(Arrays.asList(
+        "help", "kmz", "super-overlay", "trim", "incremental", "dither", "png-parallel", "pow2", "align-blocks"));
+    private static final Set<String> VALUE_OPTIONS = new HashSet<>(Arrays.asList(
+        "tiles-x", "tiles-y", "tile-size", "max-texture", "format", "zoom", "cog-tile-size", "crs", "opacity",
+        "opacity-mode", "resampling", "tolerance", "nodata-color", "palette", "png-level", "png-filter",
+        "jpeg-quality", "compression", "bounds", "name", "output", "jobs", "memory", "threads"));
+    private static final List<String> FORMATS = Arrays.asList(
+        "PNG", "AUTO", "GEOTIFF", "COG", "GPKG", WebMercatorTiles.XYZ, WebMercatorTiles.TMS, "MBTILES");
+
+    private final Properties options = new Properties();
+    private final List<String> inputs = new ArrayList<>();
+
+    public static void main(String[] args) {
+        System.exit(new BatchRunner().run(args));
+    }
+
+    public int run(String[] args) {
+        try {
+            loadConfig(new File(DEFAULT_CONFIG), false);
+            parseArguments(args);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            printUsage();
+            return 2;
+        }
+
+        if (flag("help")) {
+            printUsage();
+            return 0;
+        }
+
+        List<File> files;
+        try {
+            files = resolveInputs();
+        } catch (IOException e) {
+            System.err.println("Error resolving inputs: " + e.getMessage());
+            return 2;
+        }
+        if (files.isEmpty()) {
+            System.err.println("Error: no input files matched");
+            printUsage();
+            return 2;
+        }
+
+        // Everything that can be checked without reading the inputs fails here, before any file is decoded
+        GridPlanner gridPlanner;
+        List<File> outputDirs;
+        int jobs;
+        int threadsPerJob;
+        long memoryPerJob;
+        try {
+            validateFormat();
+            gridPlanner = gridPlanner();
+            outputDirs = outputDirs(files);
+
+            jobs = Math.max(1, intOption("jobs", 1));
+            threadsPerJob = Math.max(1, intOption("threads", Runtime.getRuntime().availableProcessors() / jobs));
+            // Concurrent jobs share the heap, so each one plans with its share of the budget
+            int memoryMegabytes = intOption("memory", 0);
+            memoryPerJob = (memoryMegabytes > 0 ? (long) memoryMegabytes << 20 : MemoryPlanner.defaultBudget()) / jobs;
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 2;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            File outputDir = outputDirs.get(i);
+            results.add(executor.submit(() -> processFile(file, outputDir, gridPlanner, threadsPerJob, memoryPerJob)));
+        }
+        executor.shutdown();
+
+        int failures = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                System.out.println(results.get(i).get());
+            } catch (Exception e) {
+                failures++;
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                System.err.println("Failed " + files.get(i).getPath() + ": " + cause.getMessage());
+            }
+        }
+
+        System.out.println(String.format("Processed %d of %d file(s)", files.size() - failures, files.size()));
+        return failures == 0 ? 0 : 1;
+    }
+
+    private String processFile(File inputFile, File outputDir, GridPlanner gridPlanner, int threads, long memoryBudget)
+        throws Exception {
+        String baseName = stripExtension(inputFile.getName());
+        outputDir.mkdirs();
+
+        GeoTiffProcessor processor = new GeoTiffProcessor(inputFile);
+        processor.setParallelism(threads);
+        processor.setMemoryBudget(memoryBudget);
+        processor.setCompressionOptions(options.getProperty("compression", "LZW").toUpperCase(), Deflater.BEST_COMPRESSION);
+
+        if (options.containsKey("bounds")) {
+            double[] bounds = parseBounds(options.getProperty("bounds"));
+            processor.setManualGeoreferencing(true, bounds[0], bounds[1], bounds[2], bounds[3]);
+        }
+
+        processor.process();
+
+        String targetCRS = options.getProperty("crs", "EPSG:4326");
+        if (!targetCRS.isEmpty()) {
+            processor.setTargetCRS(targetCRS);
+        }
+        processor.setTileOpacity(Float.parseFloat(options.getProperty("opacity", "1.0")));
+        processor.setOpacityMode(options.getProperty("opacity-mode", GeoTiffProcessor.OPACITY_PIXEL));
+        processor.setResampling(options.getProperty("resampling", TileWarper.NEAREST));
+        if (options.containsKey("nodata-color")) {
+            processor.setNoDataColor(parseColor(options.getProperty("nodata-color")));
+        }
+        processor.setTrimTiles(flag("trim"));
+        processor.setIncremental(flag("incremental"));
+        processor.setPaletteMode(options.getProperty("palette", PaletteQuantizer.NONE));
+        processor.setDithering(flag("dither"));
+        processor.setPngOptions(Integer.parseInt(options.getProperty("png-level", "6")),
+            options.getProperty("png-filter", PngEncoder.FILTER_ADAPTIVE), flag("png-parallel"));
+        processor.setJpegQuality(Float.parseFloat(options.getProperty("jpeg-quality", "0.85")));
+        if (options.containsKey("tolerance")) {
+            processor.setReprojectionTolerance(Double.parseDouble(options.getProperty("tolerance")));
+        }
+
+        String format = options.getProperty("format", "PNG").toUpperCase();
+        if (format.equals(WebMercatorTiles.XYZ) || format.equals(WebMercatorTiles.TMS)) {
+            return exportWebTiles(processor, inputFile, outputDir, format);
+        }
+        if (format.equals("MBTILES")) {
+            return exportMBTiles(processor, inputFile, outputDir, baseName);
+        }
+        if (format.equals("COG")) {
+            int tileSize = Integer.parseInt(options.getProperty("cog-tile-size", "512"));
+            outputDir.mkdirs();
+            File cogFile = new File(outputDir, baseName + "_cog.tif");
+            processor.writeCloudOptimizedGeoTIFF(cogFile, tileSize);
+            return String.format("%s: Cloud-Optimized GeoTIFF written to %s", inputFile.getName(), cogFile.getPath());
+        }
+
+        String outputFormat = format.equals("GEOTIFF") ? "GeoTIFF" : format;
+        if (outputFormat.equals("AUTO")) {
+            processor.setKmzImageFormat(GeoTiffProcessor.IMAGE_AUTO);
+        }
+        List<TileInfo> tiles = processor.splitIntoTiles(gridPlanner, outputDir, outputFormat);
+
+        StringBuilder message = new StringBuilder();
+        File tilesOutput = outputFormat.equals("GPKG") ? new File(outputDir, "tiles.gpkg") : new File(outputDir, "tiles");
+        int written = 0;
+        for (TileInfo tile : tiles) {
+            written += tile.isEmpty() ? 0 : 1;
+        }
+        message.append(String.format("%s: %d %s tiles written to %s", inputFile.getName(), written,
+            outputFormat, tilesOutput.getPath()));
+        if (written < tiles.size()) {
+            message.append(String.format(" (%d empty skipped)", tiles.size() - written));
+        }
+        MemoryPlanner.Plan memory = processor.getMemoryPlan();
+        if (memory != null && memory.isWindowed()) {
+            message.append(", memory plan: ").append(memory);
+            // Only windowed reads decode source blocks per tile
+            Dimension block = processor.getSourceBlockSize();
+            if (block != null) {
+                message.append(String.format(", source blocks %dx%d decoded %.2fx", block.width, block.height,
+                    processor.decodeAmplification(gridPlanner)));
+            }
+        }
+
+        if (flag("kmz") || flag("super-overlay")) {
+            File kmzFile = new File(outputDir, baseName + ".kmz");
+            String internalName = options.getProperty("name", "TheSpaceLab");
+            if (flag("super-overlay")) {
+                processor.createSuperOverlayKMZ(tiles, kmzFile.getPath(), internalName);
+                message.append(", KMZ super-overlay: ").append(kmzFile.getPath());
+            } else {
+                processor.createMergedKMZ(tiles, kmzFile.getPath(), internalName);
+                message.append(", KMZ overlay: ").append(kmzFile.getPath());
+            }
+        }
+        return message.toString();
+    }
+
+    private String exportWebTiles(GeoTiffProcessor processor, File inputFile, File outputDir, String scheme) throws IOException {
+        int[] zoom = parseZoomRange(options.getProperty("zoom", ""), processor.suggestWebMaxZoom());
+        File tilesDir = new File(outputDir, scheme.toLowerCase());
+        int written = processor.exportWebTiles(tilesDir, zoom[0], zoom[1], scheme);
+        return String.format("%s: %d %s tiles (zoom %d-%d) written to %s", inputFile.getName(), written,
+            scheme, zoom[0], zoom[1], tilesDir.getPath());
+    }
+
+    private String exportMBTiles(GeoTiffProcessor processor, File inputFile, File outputDir, String baseName) throws IOException {
+        int[] zoom = parseZoomRange(options.getProperty("zoom", ""), processor.suggestWebMaxZoom());
+        outputDir.mkdirs();
+        File mbtilesFile = new File(outputDir, baseName + ".mbtiles");
+        int written = processor.exportWebTilesToMBTiles(mbtilesFile, zoom[0], zoom[1], options.getProperty("name", baseName));
+        return String.format("%s: %d MBTiles tiles (zoom %d-%d) written to %s", inputFile.getName(), written,
+            zoom[0], zoom[1], mbtilesFile.getPath());
+    }
+
+    private void validateFormat() {
+        String format = options.getProperty("format", "PNG").toUpperCase();
+        if (!FORMATS.contains(format)) {
+            throw new IllegalArgumentException("Unknown --format " + options.getProperty("format")
+                + ", expected one of PNG, AUTO, GeoTIFF, COG, GPKG, XYZ, TMS, MBTILES");
+        }
+        // Only the tile grid formats keep the per-tile images a KMZ is built from
+        if ((flag("kmz") || flag("super-overlay"))
+            && !(format.equals("PNG") || format.equals("AUTO") || format.equals("GEOTIFF"))) {
+            throw new IllegalArgumentException("--kmz and --super-overlay cannot be combined with --format " + format);
+        }
+    }
+
+    // With several inputs each gets a folder named after it, so two inputs with the same base name would write
+    // into the same folder, concurrently under --jobs
+    private List<File> outputDirs(List<File> files) {
+        List<File> outputDirs = new ArrayList<>(files.size());
+        Map<File, File> owners = new HashMap<>();
+        for (File file : files) {
+            File outputDir = options.containsKey("output")
+                ? new File(options.getProperty("output"))
+                : new File(file.getAbsoluteFile().getParentFile(), "output");
+            if (files.size() > 1) {
+                outputDir = new File(outputDir, stripExtension(file.getName()));
+                File other = owners.putIfAbsent(outputDir.getAbsoluteFile(), file);
+                if (other != null) {
+                    throw new IllegalArgumentException(String.format("%s and %s would both write to %s; rename one "
+                        + "or process them separately", other.getPath(), file.getPath(), outputDir.getPath()));
+                }
+            }
+            outputDirs.add(outputDir);
+        }
+        return outputDirs;
+    }
+
+    // --tile-size wins over --max-texture, which wins over the tile counts
+    private GridPlanner gridPlanner() {
+        GridPlanner planner;
+        if (options.containsKey("tile-size")) {
+            String value = options.getProperty("tile-size");
+            String[] parts = value.toLowerCase().split("x");
+            try {
+                int width = Integer.parseInt(parts[0].trim());
+                int height = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : width;
+                if (parts.length > 2 || width <= 0 || height <= 0) {
+                    throw new NumberFormatException(value);
+                }
+                planner = GridPlanner.tileSize(width, height);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--tile-size expects <n> or <width>x<height>, got: " + value);
+            }
+        } else if (options.containsKey("max-texture")) {
+            int maxSize = intOption("max-texture", GridPlanner.DEFAULT_MAX_TEXTURE);
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("--max-texture must be positive");
+            }
+            planner = GridPlanner.maxTexture(maxSize);
+        } else {
+            int tilesX = intOption("tiles-x", 2);
+            int tilesY = intOption("tiles-y", 2);
+            if (tilesX <= 0 || tilesY <= 0) {
+                throw new IllegalArgumentException("Number of tiles must be positive");
+            }
+            planner = GridPlanner.tileCounts(tilesX, tilesY);
+        }
+        return planner.powerOfTwo(flag("pow2")).alignToBlocks(flag("align-blocks"));
+    }
+
+    // "min-max", or just "max"; the deepest zoom defaults to the source resolution
+    private static int[] parseZoomRange(String value, int nativeZoom) {
+        if (value.isEmpty()) {
+            return new int[]{0, nativeZoom};
+        }
+        String[] parts = value.split("-");
+        try {
+            if (parts.length == 1) {
+                return new int[]{0, Integer.parseInt(parts[0].trim())};
+            } else if (parts.length == 2) {
+                return new int[]{Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim())};
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the error below
+        }
+        throw new IllegalArgumentException("--zoom expects min-max, got: " + value);
+    }
+
+    private void parseArguments(String[] args) throws IOException {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                inputs.add(arg);
+                continue;
+            }
+
+            String key = arg.substring(2);
+            String value = null;
+            int equals = key.indexOf('=');
+            if (equals >= 0) {
+                value = key.substring(equals + 1);
+                key = key.substring(0, equals);
+            }
+
+            if (FLAGS.contains(key)) {
+                setFlag(key, value != null ? value : "true", "--" + key);
+            } else if (VALUE_OPTIONS.contains(key)) {
+                options.setProperty(key, value != null ? value : requireValue(args, ++i, key));
+            } else if (key.equals("config")) {
+                loadConfig(new File(value != null ? value : requireValue(args, ++i, key)), true);
+            } else if (key.equals("input")) {
+                inputs.add(value != null ? value : requireValue(args, ++i, key));
+            } else {
+                throw new IllegalArgumentException("Unknown option --" + key);
+            }
+        }
+    }
+
+    private void loadConfig(File configFile, boolean required) throws IOException {
+        if (!configFile.exists()) {
+            if (required) {
+                throw new IOException("Config file not found: " + configFile.getPath());
+            }
+            return;
+        }
+
+        try (FileInputStream fis = new FileInputStream(configFile)) {
+            Properties props = new Properties();
+            props.load(fis);
+            for (String key : props.stringPropertyNames()) {
+                String value = props.getProperty(key).trim();
+                if (key.equals("input")) {
+                    inputs.add(value);
+                } else if (FLAGS.contains(key)) {
+                    setFlag(key, value, key + " in " + configFile.getPath());
+                } else if (VALUE_OPTIONS.contains(key)) {
+                    options.setProperty(key, value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + key + " in " + configFile.getPath());
+                }
+            }
+        }
+    }
+
+    private List<File> resolveInputs() throws IOException {
+        List<File> files = new ArrayList<>();
+        for (String input : inputs) {
+            if (!containsGlob(input)) {
+                File file = new File(input);
+                if (!file.isFile()) {
+                    throw new IOException("Input file not found: " + input);
+                }
+                files.add(file);
+                continue;
+            }
+
+            // Walk from the longest literal prefix and match the rest of the pattern
+            Path pattern = Paths.get(input);
+            Path base = Paths.get("");
+            for (Path part : pattern) {
+                if (containsGlob(part.toString())) {
+                    break;
+                }
+                base = base.resolve(part);
+            }
+            if (pattern.isAbsolute()) {
+                base = pattern.getRoot().resolve(base);
+            }
+            Path walkRoot = base.toString().isEmpty() ? Paths.get(".") : base;
+            if (!Files.isDirectory(walkRoot)) {
+                throw new IOException("Input directory not found: " + walkRoot);
+            }
+
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+            try (Stream<Path> paths = Files.walk(walkRoot)) {
+                files.addAll(paths
+                    .map(path -> walkRoot.toString().equals(".") ? walkRoot.relativize(path) : path)
+                    .filter(path -> matcher.matches(path) && Files.isRegularFile(path))
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList()));
+            }
+        }
+        return files;
+    }
+
+    private static boolean containsGlob(String value) {
+        return value.indexOf('*') >= 0 || value.indexOf('?') >= 0 || value.indexOf('[') >= 0 || value.indexOf('{') >= 0;
+    }
+
+    private static String requireValue(String[] args, int index, String key) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for --" + key);
+        }
+        return args[index];
+    }
+
+    // A flag written out as false must stay off, and anything else is a typo rather than true
+    private void setFlag(String key, String value, String source) {
+        if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+            throw new IllegalArgumentException(source + " must be true or false, got: " + value);
+        }
+        options.setProperty(key, value);
+    }
+
+    private boolean flag(String key) {
+        return Boolean.parseBoolean(options.getProperty(key, "false"));
+    }
+
+    private int intOption(String key, int defaultValue) {
+        String value = options.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for --" + key + ": " + value);
+        }
+    }
+
+    private static double[] parseBounds(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("--bounds expects minX,minY,maxX,maxY");
+        }
+        double[] bounds = new double[4];
+        for (int i = 0; i < 4; i++) {
+            bounds[i] = Double.parseDouble(parts[i].trim());
+        }
+        if (bounds[2] <= bounds[0] || bounds[3] <= bounds[1]) {
+            throw new IllegalArgumentException("Invalid coordinates: max values must be greater than min values");
+        }
+        return bounds;
+    }
+
+    // RRGGBB (opaque) or AARRGGBB, with or without a leading #
+    private static int parseColor(String value) {
+        String hex = value.trim().startsWith("#") ? value.trim().substring(1) : value.trim();
+        try {
+            if (hex.length() == 6) {
+                return 0xFF000000 | Integer.parseInt(hex, 16);
+            } else if (hex.length() == 8) {
+                return (int) Long.parseLong(hex, 16);
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the error below
+        }
+        throw new IllegalArgumentException("--nodata-color expects RRGGBB or AARRGGBB, got: " + value);
+    }
+
+    private static String stripExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static void printUsage() {
+        System.out.println(
+            "Usage: java -jar kmz-splitter.jar [options] <input file or glob>...\n" +
+            "\n" +
+            "Options:\n" +
+            "  --input <glob>          Input file or glob (may be repeated, e.g. \"data/*.tif\")\n" +
+            "  --tiles-x <n>           Number of tiles across (default 2)\n" +
+            "  --tiles-y <n>           Number of tiles down (default 2)\n" +
+            "  --tile-size <n|WxH>     Fixed tile size in pixels instead of tile counts\n" +
+            "  --max-texture <n>       Fewest tiles no larger than n px per side (Google Earth: 2048)\n" +
+            "  --pow2                  Power-of-two tile sizes, edge tiles padded, for resample-free GPU upload\n" +
+            "  --align-blocks          Snap tile edges to the source TIFF's internal tiles/strips so windowed\n" +
+            "                          reads decode each block once\n" +
+            "  --format <PNG|AUTO|GeoTIFF|COG|GPKG|XYZ|TMS|MBTILES>  Tile format (default PNG); AUTO writes\n" +
+            "                          opaque tiles (also in the KMZ) as JPEG and the rest as PNG; COG writes one\n" +
+            "                          Cloud-Optimized GeoTIFF, GPKG stores the grid in one GeoPackage,\n" +
+            "                          XYZ/TMS/MBTILES write an EPSG:3857 web pyramid\n" +
+            "  --cog-tile-size <n>     COG internal tile size, 256 or 512 (default 512)\n" +
+            "  --zoom <min-max>        Web pyramid zoom range (default 0 to the source resolution)\n" +
+            "  --crs <code>            Target CRS, e.g. EPSG:4326 (default)\n" +
+            "  --opacity <0..1>        Tile opacity (default 1.0)\n" +
+            "  --opacity-mode <pixel|kml>  Apply opacity in the pixels (default) or via KML <color>;\n" +
+            "                          kml only affects KMZ output, other formats keep full opacity\n" +
+            "  --resampling <nearest|bilinear>  Resampling when reprojecting (default nearest)\n" +
+            "  --tolerance <pixels>    Max reprojection interpolation error (default 0.125)\n" +
+            "  --compression <type>    LZW, DEFLATE or NONE (default LZW)\n" +
+            "  --nodata-color <RRGGBB> Also skip tiles that are entirely this colour (transparent tiles always are)\n" +
+            "  --trim                  Crop tiles to their non-transparent pixels (not for GPKG)\n" +
+            "  --incremental           Reuse tiles from an earlier run whose source pixels are unchanged,\n" +
+            "                          and resume interrupted runs (tile formats other than GPKG)\n" +
+            "  --palette <tile|job>    Write PNG tiles as 8-bit indexed PNGs, with a palette per tile or one\n" +
+            "                          sampled from the whole source (default: full-colour RGBA)\n" +
+            "  --dither                Dither colours missing from the --palette palette\n" +
+            "  --png-level <0-9>       PNG zlib level (default 6); lower is faster, 9 is smallest\n" +
+            "  --png-filter <none|sub|up|adaptive>  PNG row filter (default adaptive, the smallest)\n" +
+            "  --png-parallel          Compress each large PNG tile on several cores\n" +
+            "  --jpeg-quality <0..1>   JPEG quality of --format AUTO (default 0.85)\n" +
+            "  --bounds <minX,minY,maxX,maxY>  Manual georeferencing (required for JPEG/JP2)\n" +
+            "  --kmz                   Also create a merged KMZ overlay\n" +
+            "  --super-overlay         Create the KMZ as a Region/Lod pyramid (use with small tiles)\n" +
+            "  --name <name>           Internal KMZ name (default TheSpaceLab; MBTiles default: file name)\n" +
+            "  --output <dir>          Output directory (default: 'output' next to each input)\n" +
+            "  --jobs <n>              Files processed concurrently (default 1)\n" +
+            "  --memory <MB>           Pixel memory budget shared by all jobs (default: 3/4 of the free heap);\n" +
+            "                          larger inputs are read in windows and spill tiles to disk\n" +
+            "  --threads <n>           Worker threads per file (default: cores / jobs)\n" +
+            "  --config <file>         Properties file with defaults for any option above (flags as true/false)\n" +
+            "  --help                  Show this message\n" +
+            "\n" +
+            "config.properties in the working directory is loaded first when present.");
+    }
+}
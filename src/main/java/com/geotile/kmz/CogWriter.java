@@ -0,0 +1,284 @@
+package com.geotile.kmz;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+// Writes one Cloud-Optimized GeoTIFF: RGBA, tiled, with internal overviews down to a single tile.
+// Full-resolution tiles may arrive from any thread in any order. Each one is compressed on the calling thread,
+// and an overview tile is built as soon as its children are in, so only a couple of tile rows per level are
+// ever held in memory. Compressed tiles are appended to a spill file and copied into COG order on close:
+// all directories first, then tile data from the smallest overview down to full resolution.
+public class CogWriter implements Closeable {
+    private static final int SAMPLES_PER_PIXEL = 4;
+    private static final long CLASSIC_TIFF_LIMIT = 0xFFFFFFFFL - (16L << 20); // leave room for the directories
+
+    private static class PendingParent {
+        final BufferedImage[] quarters = new BufferedImage[4];
+        int arrived;
+    }
+
+    private final File file;
+    private final File spillFile;
+    private final FileChannel spill;
+    private final int tileSize;
+    private final TiffCompressor compressor;
+    private final int[] levelWidth;
+    private final int[] levelHeight;
+    private final long[][] tileOffset;
+    private final long[][] tileLength;
+    private final double[] bounds;
+    private final Integer epsgCode;
+    private final boolean geographic;
+    private final String crsName;
+    private final Map<Long, PendingParent> pendingParents = new HashMap<>();
+    private long spillLength;
+    private boolean closed;
+
+    // bounds is {minX, minY, maxX, maxY} in the CRS given by epsgCode (or described by crsName when it has none)
+    public CogWriter(File file, int width, int height, int tileSize, TiffCompressor compressor,
+                     double[] bounds, Integer epsgCode, boolean geographic, String crsName) throws IOException {
+        if (tileSize % 16 != 0) {
+            throw new IllegalArgumentException("COG tile size must be a multiple of 16: " + tileSize);
+        }
+        this.file = file;
+        this.tileSize = tileSize;
+        this.compressor = compressor;
+        this.bounds = bounds;
+        this.epsgCode = epsgCode;
+        this.geographic = geographic;
+        this.crsName = crsName;
+
+        // Overviews halve each level until the whole image fits in one tile
+        int levels = 1;
+        for (int w = width, h = height; w > tileSize || h > tileSize; w = (w + 1) / 2, h = (h + 1) / 2) {
+            levels++;
+        }
+        levelWidth = new int[levels];
+        levelHeight = new int[levels];
+        tileOffset = new long[levels][];
+        tileLength = new long[levels][];
+        for (int level = 0, w = width, h = height; level < levels; level++, w = (w + 1) / 2, h = (h + 1) / 2) {
+            levelWidth[level] = w;
+            levelHeight[level] = h;
+            tileOffset[level] = new long[tilesAcross(level) * tilesDown(level)];
+            tileLength[level] = new long[tilesAcross(level) * tilesDown(level)];
+        }
+
+        spillFile = new File(file.getPath() + ".tiles");
+        try {
+            spill = FileChannel.open(spillFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new IOException("Failed to create " + spillFile.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    public int getTilesAcross() {
+        return tilesAcross(0);
+    }
+
+    public int getTilesDown() {
+        return tilesDown(0);
+    }
+
+    public int getOverviewCount() {
+        return levelWidth.length - 1;
+    }
+
+    // Full-resolution tile (x, y) of the tileSize grid; edge tiles are the leftover size, not padded
+    public void writeTile(int x, int y, BufferedImage image) throws IOException {
+        int level = 0;
+        BufferedImage tile = image;
+        while (tile != null) {
+            // TIFF tiles are always full size, so edge tiles are padded with transparent pixels
+            byte[] samples = GeoTiffTileEncoder.rgbaSamples(tile, 0, tile.getHeight(), tileSize, tileSize);
+            storeTile(level, x, y, compressor.compress(samples, tileSize, tileSize, SAMPLES_PER_PIXEL));
+            if (level == levelWidth.length - 1) {
+                return;
+            }
+            tile = addToParent(level + 1, x, y, TileDownsampler.halve(tile));
+            level++;
+            x /= 2;
+            y /= 2;
+        }
+    }
+
+    // Returns the parent once all of its children have been halved into it
+    private BufferedImage addToParent(int level, int childX, int childY, BufferedImage halved) {
+        int x = childX / 2;
+        int y = childY / 2;
+        int childrenAcross = Math.min(2, tilesAcross(level - 1) - x * 2);
+        int childrenDown = Math.min(2, tilesDown(level - 1) - y * 2);
+        long key = ((long) level << 48) | ((long) y * tilesAcross(level) + x);
+
+        PendingParent parent;
+        synchronized (pendingParents) {
+            parent = pendingParents.computeIfAbsent(key, k -> new PendingParent());
+            parent.quarters[(childY % 2) * 2 + childX % 2] = halved;
+            if (++parent.arrived < childrenAcross * childrenDown) {
+                return null;
+            }
+            pendingParents.remove(key);
+        }
+        BufferedImage[] quarters = parent.quarters;
+        return TileDownsampler.mosaic(quarters[0], quarters[1], quarters[2], quarters[3]);
+    }
+
+    private void storeTile(int level, int x, int y, byte[] data) throws IOException {
+        int index = y * tilesAcross(level) + x;
+        synchronized (spill) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            long position = spillLength;
+            while (buffer.hasRemaining()) {
+                position += spill.write(buffer, position);
+            }
+            tileOffset[level][index] = spillLength;
+            tileLength[level][index] = data.length;
+            spillLength = position;
+        }
+    }
+
+    // Drops everything written so far, for when the tiles cannot all be produced
+    public void abort() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        spill.close();
+        Files.deleteIfExists(spillFile.toPath());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            for (int level = 0; level < levelWidth.length; level++) {
+                for (long length : tileLength[level]) {
+                    if (length == 0) {
+                        throw new IOException("COG is missing tiles at level " + level);
+                    }
+                }
+            }
+            assemble();
+        } finally {
+            spill.close();
+            Files.deleteIfExists(spillFile.toPath());
+        }
+    }
+
+    private void assemble() throws IOException {
+        boolean bigTiff = false;
+        TiffDirectory[] directories = createDirectories();
+        long headerSize = layoutSize(directories, false);
+        if (headerSize + spillLength > CLASSIC_TIFF_LIMIT) {
+            bigTiff = true;
+            headerSize = layoutSize(directories, true);
+        }
+
+        // Smallest overview first, so a reader gets a usable preview from the first bytes of the file
+        long position = headerSize;
+        for (int level = levelWidth.length - 1; level >= 0; level--) {
+            long[] offsets = new long[tileLength[level].length];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = position;
+                position += tileLength[level][i];
+            }
+            directories[level].setValues(TiffDirectory.TILE_OFFSETS, offsets);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate((int) headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        TiffDirectory.writeHeader(header, TiffDirectory.headerSize(bigTiff), bigTiff);
+        long directoryOffset = TiffDirectory.headerSize(bigTiff);
+        for (int level = 0; level < directories.length; level++) {
+            long next = level + 1 < directories.length ? directoryOffset + directories[level].size(bigTiff) : 0;
+            directories[level].write(header, directoryOffset, next, bigTiff);
+            directoryOffset = next;
+        }
+        header.flip();
+
+        // Written next to the target and moved into place, so a failed run never leaves a truncated COG behind
+        File tempFile = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (RandomAccessFile output = new RandomAccessFile(tempFile, "rw")) {
+                FileChannel channel = output.getChannel();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                for (int level = levelWidth.length - 1; level >= 0; level--) {
+                    for (int i = 0; i < tileLength[level].length; i++) {
+                        long offset = tileOffset[level][i];
+                        long remaining = tileLength[level][i];
+                        while (remaining > 0) {
+                            long copied = spill.transferTo(offset, remaining, channel);
+                            offset += copied;
+                            remaining -= copied;
+                        }
+                    }
+                }
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IOException("Failed to write " + file.getName() + ": " + e.getMessage(), e);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    private TiffDirectory[] createDirectories() {
+        TiffDirectory[] directories = new TiffDirectory[levelWidth.length];
+        for (int level = 0; level < directories.length; level++) {
+            TiffDirectory directory = new TiffDirectory();
+            directory.addLongs(TiffDirectory.NEW_SUBFILE_TYPE, level == 0 ? 0 : 1); // 1 = reduced resolution
+            directory.addLongs(TiffDirectory.IMAGE_WIDTH, levelWidth[level]);
+            directory.addLongs(TiffDirectory.IMAGE_LENGTH, levelHeight[level]);
+            directory.addShorts(TiffDirectory.BITS_PER_SAMPLE, 8, 8, 8, 8);
+            directory.addShorts(TiffDirectory.COMPRESSION, compressor.getCompression());
+            directory.addShorts(TiffDirectory.PHOTOMETRIC, 2); // RGB
+            directory.addShorts(TiffDirectory.SAMPLES_PER_PIXEL, SAMPLES_PER_PIXEL);
+            directory.addShorts(TiffDirectory.PLANAR_CONFIGURATION, 1);
+            directory.addShorts(TiffDirectory.PREDICTOR, compressor.getPredictor());
+            directory.addShorts(TiffDirectory.TILE_WIDTH, tileSize);
+            directory.addShorts(TiffDirectory.TILE_LENGTH, tileSize);
+            directory.addOffsets(TiffDirectory.TILE_OFFSETS, new long[tileLength[level].length]);
+            directory.addLongs(TiffDirectory.TILE_BYTE_COUNTS, tileLength[level]);
+            directory.addShorts(TiffDirectory.EXTRA_SAMPLES, 2); // unassociated alpha
+            directory.addShorts(TiffDirectory.SAMPLE_FORMAT, 1, 1, 1, 1);
+            if (level == 0) {
+                directory.addGeoKeys(epsgCode, geographic, crsName);
+                directory.addGeoTransform(bounds, levelWidth[0], levelHeight[0]);
+            }
+            directories[level] = directory;
+        }
+        return directories;
+    }
+
+    private static long layoutSize(TiffDirectory[] directories, boolean bigTiff) {
+        long size = TiffDirectory.headerSize(bigTiff);
+        for (TiffDirectory directory : directories) {
+            size += directory.size(bigTiff);
+        }
+        return size;
+    }
+
+    private int tilesAcross(int level) {
+        return (levelWidth[level] + tileSize - 1) / tileSize;
+    }
+
+    private int tilesDown(int level) {
+        return (levelHeight[level] + tileSize - 1) / tileSize;
+    }
+}
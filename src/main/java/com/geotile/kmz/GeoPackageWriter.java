@@ -0,0 +1,145 @@
+package com.geotile.kmz;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// OGC GeoPackage 1.2 tile pyramid user data table holding one tile matrix (zoom level 0) for a TileGrid.
+// Every tile in a matrix has the same size, so edge tiles must be padded by the caller.
+public class GeoPackageWriter extends SQLiteTileWriter {
+    private static final int GPKG_APPLICATION_ID = 0x47504B47; // "GPKG"
+    private static final int GPKG_USER_VERSION = 10200;
+    private static final int CUSTOM_SRS_ID = 100000;
+
+    private static final String WGS84_WKT = "GEOGCS[\"WGS 84\",DATUM[\"WGS_1984\",SPHEROID[\"WGS 84\",6378137,298.257223563,"
+        + "AUTHORITY[\"EPSG\",\"7030\"]],AUTHORITY[\"EPSG\",\"6326\"]],PRIMEM[\"Greenwich\",0,AUTHORITY[\"EPSG\",\"8901\"]],"
+        + "UNIT[\"degree\",0.0174532925199433,AUTHORITY[\"EPSG\",\"9122\"]],AUTHORITY[\"EPSG\",\"4326\"]]";
+
+    private final String tableName;
+    private final String description;
+    private final Integer epsgCode;
+    private final String srsWKT;
+    private final double[] dataBounds;
+    private final TileGrid grid;
+
+    // dataBounds is {minX, minY, maxX, maxY} of the grid's image in the CRS given by epsgCode/srsWKT
+    public GeoPackageWriter(File file, String tableName, String description, Integer epsgCode, String srsWKT,
+                            double[] dataBounds, TileGrid grid) throws IOException {
+        super(file);
+        this.tableName = tableName;
+        this.description = description;
+        this.epsgCode = epsgCode;
+        this.srsWKT = srsWKT;
+        this.dataBounds = dataBounds;
+        this.grid = grid;
+        start();
+    }
+
+    @Override
+    protected String tableName() {
+        return "\"" + tableName + "\"";
+    }
+
+    @Override
+    protected void createSchema(Statement statement) throws SQLException {
+        statement.execute("PRAGMA application_id = " + GPKG_APPLICATION_ID);
+        statement.execute("PRAGMA user_version = " + GPKG_USER_VERSION);
+
+        statement.execute("CREATE TABLE IF NOT EXISTS gpkg_spatial_ref_sys (" +
+            "srs_name TEXT NOT NULL, srs_id INTEGER NOT NULL PRIMARY KEY, organization TEXT NOT NULL, " +
+            "organization_coordsys_id INTEGER NOT NULL, definition TEXT NOT NULL, description TEXT)");
+        statement.execute("CREATE TABLE IF NOT EXISTS gpkg_contents (" +
+            "table_name TEXT NOT NULL PRIMARY KEY, data_type TEXT NOT NULL, identifier TEXT UNIQUE, " +
+            "description TEXT DEFAULT '', " +
+            "last_change DATETIME NOT NULL DEFAULT (strftime('%Y-%m-%dT%H:%M:%fZ','now')), " +
+            "min_x DOUBLE, min_y DOUBLE, max_x DOUBLE, max_y DOUBLE, srs_id INTEGER, " +
+            "CONSTRAINT fk_gc_r_srs_id FOREIGN KEY (srs_id) REFERENCES gpkg_spatial_ref_sys(srs_id))");
+        statement.execute("CREATE TABLE IF NOT EXISTS gpkg_tile_matrix_set (" +
+            "table_name TEXT NOT NULL PRIMARY KEY, srs_id INTEGER NOT NULL, " +
+            "min_x DOUBLE NOT NULL, min_y DOUBLE NOT NULL, max_x DOUBLE NOT NULL, max_y DOUBLE NOT NULL, " +
+            "CONSTRAINT fk_gtms_table_name FOREIGN KEY (table_name) REFERENCES gpkg_contents(table_name), " +
+            "CONSTRAINT fk_gtms_srs FOREIGN KEY (srs_id) REFERENCES gpkg_spatial_ref_sys (srs_id))");
+        statement.execute("CREATE TABLE IF NOT EXISTS gpkg_tile_matrix (" +
+            "table_name TEXT NOT NULL, zoom_level INTEGER NOT NULL, " +
+            "matrix_width INTEGER NOT NULL, matrix_height INTEGER NOT NULL, " +
+            "tile_width INTEGER NOT NULL, tile_height INTEGER NOT NULL, " +
+            "pixel_x_size DOUBLE NOT NULL, pixel_y_size DOUBLE NOT NULL, " +
+            "CONSTRAINT pk_ttm PRIMARY KEY (table_name, zoom_level), " +
+            "CONSTRAINT fk_tmm_table_name FOREIGN KEY (table_name) REFERENCES gpkg_contents(table_name))");
+        statement.execute("CREATE TABLE IF NOT EXISTS " + tableName() + " (" +
+            "id INTEGER PRIMARY KEY AUTOINCREMENT, zoom_level INTEGER NOT NULL, " +
+            "tile_column INTEGER NOT NULL, tile_row INTEGER NOT NULL, tile_data BLOB NOT NULL, " +
+            "UNIQUE (zoom_level, tile_column, tile_row))");
+
+        Connection connection = statement.getConnection();
+
+        // The three definitions every GeoPackage must carry, then the tiles' own CRS
+        insertSpatialRef(connection, "Undefined cartesian SRS", -1, "NONE", -1, "undefined");
+        insertSpatialRef(connection, "Undefined geographic SRS", 0, "NONE", 0, "undefined");
+        insertSpatialRef(connection, "WGS 84 geodetic", 4326, "EPSG", 4326, WGS84_WKT);
+        int srsId = epsgCode != null ? epsgCode : CUSTOM_SRS_ID;
+        insertSpatialRef(connection, epsgCode != null ? "EPSG:" + epsgCode : "Custom",
+            srsId, epsgCode != null ? "EPSG" : "NONE", srsId, srsWKT);
+
+        try (PreparedStatement contents = connection.prepareStatement(
+                "INSERT OR REPLACE INTO gpkg_contents (table_name, data_type, identifier, description, " +
+                "min_x, min_y, max_x, max_y, srs_id) VALUES (?, 'tiles', ?, ?, ?, ?, ?, ?, ?)")) {
+            contents.setString(1, tableName);
+            contents.setString(2, tableName);
+            contents.setString(3, description);
+            for (int i = 0; i < 4; i++) {
+                contents.setDouble(4 + i, dataBounds[i]);
+            }
+            contents.setInt(8, srsId);
+            contents.executeUpdate();
+        }
+
+        // The matrix covers whole tiles, so it reaches past the data on the right and bottom edges
+        double pixelX = (dataBounds[2] - dataBounds[0]) / grid.getImageWidth();
+        double pixelY = (dataBounds[3] - dataBounds[1]) / grid.getImageHeight();
+        double matrixMaxX = dataBounds[0] + (double) grid.getTileWidth() * grid.getNumTilesX() * pixelX;
+        double matrixMinY = dataBounds[3] - (double) grid.getTileHeight() * grid.getNumTilesY() * pixelY;
+
+        try (PreparedStatement matrixSet = connection.prepareStatement(
+                "INSERT OR REPLACE INTO gpkg_tile_matrix_set (table_name, srs_id, min_x, min_y, max_x, max_y) " +
+                "VALUES (?, ?, ?, ?, ?, ?)")) {
+            matrixSet.setString(1, tableName);
+            matrixSet.setInt(2, srsId);
+            matrixSet.setDouble(3, dataBounds[0]);
+            matrixSet.setDouble(4, matrixMinY);
+            matrixSet.setDouble(5, matrixMaxX);
+            matrixSet.setDouble(6, dataBounds[3]);
+            matrixSet.executeUpdate();
+        }
+
+        try (PreparedStatement matrix = connection.prepareStatement(
+                "INSERT OR REPLACE INTO gpkg_tile_matrix (table_name, zoom_level, matrix_width, matrix_height, " +
+                "tile_width, tile_height, pixel_x_size, pixel_y_size) VALUES (?, 0, ?, ?, ?, ?, ?, ?)")) {
+            matrix.setString(1, tableName);
+            matrix.setInt(2, grid.getNumTilesX());
+            matrix.setInt(3, grid.getNumTilesY());
+            matrix.setInt(4, grid.getTileWidth());
+            matrix.setInt(5, grid.getTileHeight());
+            matrix.setDouble(6, pixelX);
+            matrix.setDouble(7, pixelY);
+            matrix.executeUpdate();
+        }
+    }
+
+    private static void insertSpatialRef(Connection connection, String name, int srsId, String organization,
+                                         int organizationId, String definition) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT OR IGNORE INTO gpkg_spatial_ref_sys " +
+                "(srs_name, srs_id, organization, organization_coordsys_id, definition) VALUES (?, ?, ?, ?, ?)")) {
+            insert.setString(1, name);
+            insert.setInt(2, srsId);
+            insert.setString(3, organization);
+            insert.setInt(4, organizationId);
+            insert.setString(5, definition);
+            insert.executeUpdate();
+        }
+    }
+}
@@ -3,14 +3,13 @@ package com.geotile.kmz;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.gce.geotiff.GeoTiffReader;
-import org.geotools.gce.geotiff.GeoTiffWriter;
 import org.geotools.geometry.Envelope2D;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
-import org.geotools.referencing.operation.transform.AffineTransform2D;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.crs.GeographicCRS;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
 import org.opengis.parameter.GeneralParameterValue;
@@ -22,34 +21,115 @@ import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
 import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import javax.media.jai.PlanarImage;
 import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.Deflater;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 public class GeoTiffProcessor {
+    // PIXEL bakes opacity into the tile images; KML leaves pixels untouched and sets each overlay's <color>
+    public static final String OPACITY_PIXEL = "PIXEL";
+    public static final String OPACITY_KML = "KML";
+
+    // KMZ tile images: always PNG, or JPEG for fully opaque tiles and PNG for those that need alpha
+    public static final String IMAGE_PNG = "PNG";
+    public static final String IMAGE_AUTO = "AUTO";
+
+    // Written next to the zoom folders of an XYZ/TMS export
+    private static final String PYRAMID_SETTINGS_FILE = "pyramid.settings";
+
+    // Job palettes are built from this many windows per axis, each at most this many pixels square
+    private static final int PALETTE_SAMPLE_GRID = 8;
+    private static final int PALETTE_SAMPLE_SIZE = 64;
+
+    // Stand-in for children missing at the data edge when building the web tile zoom levels
+    private static final BufferedImage BLANK_WEB_TILE = new BufferedImage(
+        WebMercatorTiles.TILE_SIZE, WebMercatorTiles.TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+
+    private static boolean referencingInitialized;
+
     private final File inputFile;
     private GridCoverage2D coverage;
     private ReferencedEnvelope bounds;
     private CoordinateReferenceSystem sourceCRS;
     private CoordinateReferenceSystem targetCRS;
     private float tileOpacity = 1.0f;
+    private String opacityMode = OPACITY_PIXEL;
     private boolean isManualGeoreferencing = false;
     private double manualMinX, manualMinY, manualMaxX, manualMaxY;
     private int compressionLevel = Deflater.BEST_COMPRESSION;
     private String compressionType = "LZW"; // Options: LZW, DEFLATE, NONE
+    private long windowedReadThreshold = 64L * 1024 * 1024; // pixels; larger inputs are read per tile window
+    private int decodeThreads;
+    private int pixelThreads;
+    private int encodeThreads;
+    private int writeThreads;
+    private int maxTilesInFlight = 0; // 0 = derived from the stage thread counts
+    private long memoryBudget = 0; // bytes; 0 = most of the heap that is still free
+    private volatile MemoryPlanner.Plan memoryPlan;
+    private String resampling = TileWarper.NEAREST; // Options: NEAREST, BILINEAR
+    private double reprojectionTolerance = 0.125; // max interpolation error in source pixels
+    private volatile GeoTiffTileEncoder geoTiffEncoder; // rebuilt when the codec or target CRS changes
+    private int pngLevel = 6; // zlib level 0-9
+    private String pngFilter = PngEncoder.FILTER_ADAPTIVE; // Options: NONE, SUB, UP, ADAPTIVE
+    private boolean pngParallel = false; // compress large tiles' IDAT in parallel pieces
+    private volatile PngEncoder pngEncoder;
+    private String kmzImageFormat = IMAGE_PNG;
+    private float jpegQuality = 0.85f;
+    private Integer noDataColor; // ARGB treated like transparency when deciding a tile is empty
+    private boolean trimTiles = false; // crop tiles to their non-transparent extent
+    private boolean incremental = false; // reuse tiles recorded in the output's tile manifest
+    private String paletteMode = PaletteQuantizer.NONE; // Options: NONE, TILE, JOB
+    private boolean dither = false;
+    private volatile PaletteQuantizer.Palette jobPalette; // shared palette of the last tiling run in JOB mode
 
     public GeoTiffProcessor(File inputFile) {
         this.inputFile = inputFile;
+        setParallelism(Runtime.getRuntime().availableProcessors());
+    }
+
+    public void setParallelism(int threads) {
+        // Encoding dominates, so it gets every core; the other stages only need to keep it fed
+        int cores = Math.max(1, threads);
+        setStageThreads(Math.min(4, cores), Math.max(1, cores / 4), cores, Math.min(2, cores));
+    }
+
+    public void setStageThreads(int decode, int pixel, int encode, int write) {
+        this.decodeThreads = Math.max(1, decode);
+        this.pixelThreads = Math.max(1, pixel);
+        this.encodeThreads = Math.max(1, encode);
+        this.writeThreads = Math.max(1, write);
+    }
+
+    public void setMaxTilesInFlight(int maxTiles) {
+        this.maxTilesInFlight = Math.max(0, maxTiles);
+    }
+
+    // Caps the pixel memory a job plans for; larger jobs fall back to windowed reads and spilling tiles to disk
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = Math.max(0, bytes);
+    }
+
+    // The strategy chosen for the most recent tiling job, or null before the first one
+    public MemoryPlanner.Plan getMemoryPlan() {
+        return memoryPlan;
     }
 
     public void setManualGeoreferencing(boolean enabled, double minX, double minY, double maxX, double maxY) {
@@ -63,14 +143,50 @@ public class GeoTiffProcessor {
     public void setCompressionOptions(String type, int level) {
         this.compressionType = type;
         this.compressionLevel = level;
+        this.geoTiffEncoder = null;
     }
 
-    public void process() throws IOException {
+    // Trades PNG size for speed: a lower zlib level and a fixed filter encode faster, adaptive filtering at level 9
+    // gives the smallest tiles. parallel splits the compression of large tiles across cores.
+    public void setPngOptions(int level, String filter, boolean parallel) {
+        this.pngLevel = level;
+        this.pngFilter = filter;
+        this.pngParallel = parallel;
+        this.pngEncoder = null;
+    }
+
+    // IMAGE_AUTO stores opaque tiles as JPEG in the KMZ, which is far smaller for imagery; tiles with any
+    // transparency (edges, nodata) stay PNG. splitIntoTiles takes the same choice as the "AUTO" format.
+    public void setKmzImageFormat(String format) {
+        this.kmzImageFormat = IMAGE_AUTO.equalsIgnoreCase(format) ? IMAGE_AUTO : IMAGE_PNG;
+    }
+
+    public void setJpegQuality(float quality) {
+        this.jpegQuality = Math.max(0.0f, Math.min(1.0f, quality));
+    }
+
+    public void setWindowedReadThreshold(long pixels) {
+        this.windowedReadThreshold = Math.max(0, pixels);
+    }
+
+    // Runs once per JVM, on the first process(): forceXY is only read when the CRS factories are built, and
+    // resetting them clears GeoTools' global caches, which must not happen again while other jobs use them.
+    // Concurrent first calls wait here, so no job touches a CRS before the reset is done.
+    private static synchronized void initReferencing() {
+        if (referencingInitialized) {
+            return;
+        }
         // Initialize EPSG database
         System.setProperty("org.geotools.referencing.forceXY", "true");
-        
+
         // Reset CRS factory
         CRS.reset("all");
+        referencingInitialized = true;
+    }
+
+    public void process() throws IOException {
+        initReferencing();
+        geoTiffEncoder = null;
 
         String fileName = inputFile.getName().toLowerCase();
         if (fileName.endsWith(".jp2") || fileName.endsWith(".j2k")) {
@@ -178,189 +294,1025 @@ public class GeoTiffProcessor {
             throw new IllegalStateException("Must call process() first");
         }
         this.targetCRS = crs;
+        this.geoTiffEncoder = null;
+    }
+
+    public void setResampling(String resampling) {
+        this.resampling = TileWarper.BILINEAR.equalsIgnoreCase(resampling) ? TileWarper.BILINEAR : TileWarper.NEAREST;
+    }
+
+    public void setReprojectionTolerance(double pixels) {
+        this.reprojectionTolerance = pixels;
+    }
+
+    // Tiles entirely of this ARGB colour (or transparent) are left out; null to only drop transparent tiles
+    public void setNoDataColor(Integer argb) {
+        this.noDataColor = argb;
+    }
+
+    // Crops each tile (and its bounds) to the box around its non-transparent pixels. Not applied to GeoPackage
+    // output, whose tile matrix needs full-size tiles.
+    public void setTrimTiles(boolean trim) {
+        this.trimTiles = trim;
+    }
+
+    // Keeps a manifest next to the tiles so a re-run only redoes tiles whose source pixels changed, and an
+    // interrupted run picks up where it stopped. Not used for GeoPackage output.
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    // PNG tiles are written as 8-bit indexed images with a palette (with alpha) built per tile or once per job
+    // instead of as full-colour RGBA
+    public void setPaletteMode(String mode) {
+        if (PaletteQuantizer.TILE.equalsIgnoreCase(mode)) {
+            this.paletteMode = PaletteQuantizer.TILE;
+        } else if (PaletteQuantizer.JOB.equalsIgnoreCase(mode)) {
+            this.paletteMode = PaletteQuantizer.JOB;
+        } else {
+            this.paletteMode = PaletteQuantizer.NONE;
+        }
+    }
+
+    // Floyd-Steinberg dithering for colours that are not in the palette
+    public void setDithering(boolean dither) {
+        this.dither = dither;
     }
 
     public void setTileOpacity(float opacity) {
         this.tileOpacity = Math.max(0.0f, Math.min(1.0f, opacity));
     }
 
+    public void setOpacityMode(String mode) {
+        this.opacityMode = OPACITY_KML.equalsIgnoreCase(mode) ? OPACITY_KML : OPACITY_PIXEL;
+    }
+
     public List<TileInfo> splitIntoTiles(int numTilesX, int numTilesY, File outputDir, String outputFormat) throws IOException {
+        return splitIntoTiles(GridPlanner.tileCounts(numTilesX, numTilesY), outputDir, outputFormat);
+    }
+
+    // The grid is planned against the output raster, which differs from the source when reprojecting
+    public List<TileInfo> splitIntoTiles(GridPlanner gridPlanner, File outputDir, String outputFormat) throws IOException {
         if (coverage == null) {
             throw new IllegalStateException("Must call process() first");
         }
 
-        // Create output directories
+        // Create output directories; a GeoPackage keeps every tile in one file instead
+        boolean isGPKG = outputFormat.equalsIgnoreCase("GPKG");
         File tilesDir = new File(outputDir, "tiles");
-        tilesDir.mkdirs();
+        if (isGPKG) {
+            outputDir.mkdirs();
+        } else {
+            tilesDir.mkdirs();
+        }
 
         try {
-            // Get transform between source and target CRS if they're different
-            MathTransform transform = null;
-            if (!CRS.equalsIgnoreMetadata(sourceCRS, targetCRS)) {
-                transform = CRS.findMathTransform(sourceCRS, targetCRS, true);
-            }
-
             RenderedImage sourceImage = coverage.getRenderedImage();
             
             // Calculate dimensions ensuring no pixels are lost
             int fullWidth = sourceImage.getWidth();
             int fullHeight = sourceImage.getHeight();
-            int tileWidth = (int) Math.ceil((double) fullWidth / numTilesX);
-            int tileHeight = (int) Math.ceil((double) fullHeight / numTilesY);
-
-            // Calculate geographic dimensions
-            double fullGeoWidth = bounds.getMaxX() - bounds.getMinX();
-            double fullGeoHeight = bounds.getMaxY() - bounds.getMinY();
-            double tileGeoWidth = fullGeoWidth / numTilesX;
-            double tileGeoHeight = fullGeoHeight / numTilesY;
-
-            List<TileInfo> tiles = new ArrayList<>();
-            GridCoverageFactory gcf = new GridCoverageFactory();
-
-            // Create a buffered image from the source rendered image first
-            BufferedImage sourceBuffered = new BufferedImage(fullWidth, fullHeight, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D sourceG2d = sourceBuffered.createGraphics();
-            sourceG2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            sourceG2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-            sourceG2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            sourceG2d.drawRenderedImage(sourceImage, new AffineTransform());
-            sourceG2d.dispose();
-
-            int tileNumber = 0;
+
+            OutputRaster output = outputRaster(fullWidth, fullHeight);
+            TileWarper warper = output.warper;
+            ReferencedEnvelope outputBounds = output.bounds;
+            TileGrid grid = planGrid(gridPlanner, output);
+
+            // Tiles on the source's own block grid, in the source's codec, are copied block by block undecoded
+            List<TileInfo> copied = copyRawTiles(grid, output, tilesDir, outputFormat);
+            if (copied != null) {
+                return copied;
+            }
+
+            // Inputs that do not fit the memory budget are read one tile window at a time instead of being
+            // materialized in full, and if need be finished tiles are dropped and reloaded from disk
+            MemoryPlanner.Plan memory = planMemory(sourceImage, output.width, output.height,
+                grid.getTileWidth(), grid.getTileHeight(), true);
+            boolean release = memory.releasesTiles();
+            SourceWindows source = new SourceWindows(sourceImage, memory.isWindowed());
+            if (outputFormat.equalsIgnoreCase("PNG") || outputFormat.equalsIgnoreCase("AUTO") || isGPKG) {
+                prepareJobPalette(source, fullWidth, fullHeight);
+            }
+
             // Start from top-left, going right and down
-            for (int y = 0; y < numTilesY; y++) {
-                for (int x = 0; x < numTilesX; x++) {
-                    // Calculate actual tile dimensions for this tile
-                    int currentTileWidth = (x == numTilesX - 1) ? 
-                        fullWidth - (x * tileWidth) : tileWidth;
-                    int currentTileHeight = (y == numTilesY - 1) ? 
-                        fullHeight - (y * tileHeight) : tileHeight;
-
-                    // Calculate pixel coordinates
-                    int startX = x * tileWidth;
-                    int startY = y * tileHeight;
-
-                    // Create tile image with transparency support
-                    BufferedImage tileImage = sourceBuffered.getSubimage(startX, startY, currentTileWidth, currentTileHeight);
-                    
-                    // Apply opacity to the tile
-                    tileImage = applyOpacity(tileImage);
-
-                    // Calculate geographic bounds for this tile
-                    double minX = bounds.getMinX() + (x * tileGeoWidth);
-                    double maxX = (x == numTilesX - 1) ? bounds.getMaxX() : minX + tileGeoWidth;
-                    double maxY = bounds.getMaxY() - (y * tileGeoHeight);
-                    double minY = (y == numTilesY - 1) ? bounds.getMinY() : maxY - tileGeoHeight;
-
-                    // Create tile info
-                    TileInfo tile = new TileInfo(tileImage, new double[]{minX, minY, maxX, maxY}, x, y);
-                    tiles.add(tile);
-
-                    // Save tile based on output format
-                    String extension = outputFormat.equalsIgnoreCase("PNG") ? "png" : "tif";
-                    File tileFile = new File(tilesDir, String.format("tile_%d_%d.%s", x, y, extension));
-                    
-                    if (outputFormat.equalsIgnoreCase("PNG")) {
-                        saveTileAsPNG(tile, tileFile);
+            List<TileJob> jobs = new ArrayList<>();
+            for (int y = 0; y < grid.getNumTilesY(); y++) {
+                for (int x = 0; x < grid.getNumTilesX(); x++) {
+                    double[] geoBounds = grid.getGeoBounds(x, y, outputBounds);
+                    jobs.add(new TileJob(x, y, grid.getPixelBounds(x, y), geoBounds));
+                }
+            }
+
+            TileWarper tileWarper = warper;
+            boolean isPNG = outputFormat.equalsIgnoreCase("PNG");
+            // AUTO writes each opaque tile as JPEG and the rest as PNG
+            boolean isAuto = outputFormat.equalsIgnoreCase("AUTO");
+            boolean bakesOpacity = tileOpacity < 1.0f && !OPACITY_KML.equals(opacityMode);
+            GeoPackageWriter store = isGPKG ? openGeoPackage(new File(outputDir, "tiles.gpkg"), outputBounds, grid) : null;
+            TileManifest manifest = incremental && !isGPKG
+                ? new TileManifest(new File(outputDir, "tiles.manifest"), manifestSettings(outputFormat, grid, outputBounds))
+                : null;
+            // Single-colour tiles encode to the same PNG, so each colour and size is encoded once
+            Map<String, byte[]> uniformTiles = new ConcurrentHashMap<>();
+            TilePipeline<TileJob> pipeline = new TilePipeline<TileJob>()
+                .setMaxInFlight(memory.getMaxTilesInFlight())
+                .addStage("decode", decodeThreads, job -> {
+                    readTile(job, tileWarper, source);
+                    if (manifest != null) {
+                        // Unchanged source pixels under unchanged settings give the tile already on disk
+                        job.sourceHash = TileClassifier.classify(job.image, null).getContentHash();
+                        double[] cellBounds = grid.hasPaddedEdges()
+                            ? grid.getCellGeoBounds(job.x, job.y, outputBounds) : job.geoBounds;
+                        job.tile = manifest.reuse(job.x, job.y, job.sourceHash, tilesDir, cellBounds);
+                        if (job.tile != null) {
+                            job.reused = true;
+                            job.image = null;
+                            job.plan = null;
+                        }
+                    }
+                })
+                // Resampling dominates when reprojecting, so the stage gets as many threads as encoding
+                .addStage("composite", warper != null ? Math.max(pixelThreads, encodeThreads) : pixelThreads, job -> {
+                    if (job.reused) {
+                        return;
+                    }
+                    BufferedImage image = resampleTile(job, tileWarper);
+                    double[] cellBounds = job.geoBounds;
+                    if (grid.hasPaddedEdges()) {
+                        // Power-of-two grids keep every texture the same size, edge tiles included
+                        image = padTile(image, grid.getTileWidth(), grid.getTileHeight());
+                        cellBounds = grid.getCellGeoBounds(job.x, job.y, outputBounds);
+                    }
+                    int cellWidth = image.getWidth();
+                    int cellHeight = image.getHeight();
+
+                    job.content = TileClassifier.classify(image, noDataColor);
+                    if (job.content.isEmpty()) {
+                        // Nothing to encode, write or overlay
+                        job.tile = TileInfo.empty(cellBounds, job.x, job.y, cellWidth, cellHeight);
+                        if (manifest != null) {
+                            manifest.recordEmpty(job.tile, job.sourceHash, cellWidth, cellHeight);
+                        }
+                        return;
+                    }
+
+                    // Edge tiles of irregular footprints are mostly transparent; encode only the part with data
+                    Rectangle data = job.content.getDataBounds();
+                    boolean trim = trimTiles && !isGPKG && (data.width < cellWidth || data.height < cellHeight);
+                    double[] bounds = cellBounds;
+                    if (trim) {
+                        image = cropTile(image, data);
+                        bounds = trimBounds(cellBounds, data, cellWidth, cellHeight);
+                    }
+
+                    // Apply opacity and attach the bounds for this tile
+                    job.tile = new TileInfo(applyOpacity(image), bounds, job.x, job.y);
+                    job.tile.setContentHash(job.content.getContentHash());
+                    job.tile.setOpaque(job.content.isOpaque() && !bakesOpacity);
+                    if (trim) {
+                        job.tile.setTrim(data, cellWidth, cellHeight, cellBounds);
+                    }
+                })
+                .addStage("encode", encodeThreads, job -> {
+                    if (job.reused || job.tile.isEmpty()) {
+                        return;
+                    }
+                    BufferedImage tileImage = job.tile.getImage();
+                    String uniformKey = (isPNG || isAuto || isGPKG) && TileClassifier.UNIFORM.equals(job.content.getKind())
+                        ? tileImage.getWidth() + "x" + tileImage.getHeight() + ":" + job.content.getColor()
+                        : null;
+                    if (uniformKey != null && uniformTiles.containsKey(uniformKey)) {
+                        job.encoded = uniformTiles.get(uniformKey);
+                    } else if (isGPKG) {
+                        // Every tile in a GeoPackage matrix has the grid's tile size, so edge tiles are padded
+                        BufferedImage padded = padTile(tileImage, grid.getTileWidth(), grid.getTileHeight());
+                        job.encoded = encodeTileAsPNG(new TileInfo(padded, null, job.x, job.y));
+                    } else if (isAuto) {
+                        job.encoded = job.tile.isOpaque() ? encodeTileAsJPEG(job.tile) : encodeTileAsPNG(job.tile);
                     } else {
-                        saveTileAsGeoTIFF(tile, tileFile);
+                        job.encoded = isPNG ? encodeTileAsPNG(job.tile) : encodeTileAsGeoTIFF(job.tile);
+                    }
+                    if (uniformKey != null) {
+                        uniformTiles.putIfAbsent(uniformKey, job.encoded);
+                    }
+                })
+                .addStage("write", writeThreads, job -> {
+                    if (job.reused || job.tile.isEmpty()) {
+                        return;
+                    }
+                    if (isGPKG) {
+                        store.put(0, job.x, job.y, job.encoded);
+                        job.encoded = null;
+                        if (release) {
+                            job.tile = new TileInfo(null, job.geoBounds, job.x, job.y);
+                        }
+                        return;
+                    }
+
+                    String extension = isAuto ? (job.tile.isOpaque() ? "jpg" : "png") : isPNG ? "png" : "tif";
+                    File tileFile = new File(tilesDir, String.format("tile_%d_%d.%s", job.x, job.y, extension));
+                    Files.write(tileFile.toPath(), job.encoded);
+                    job.tile.setFile(tileFile);
+                    // Recorded only once the file is complete, so a crash never leaves a half-written tile marked done
+                    if (manifest != null) {
+                        manifest.recordTile(job.tile, job.sourceHash, job.encoded);
+                    }
+                    job.encoded = null;
+
+                    // Spilled tiles keep only the file reference so memory stays bounded
+                    if (release) {
+                        job.tile.releaseImage();
                     }
+                });
 
-                    tileNumber++;
+            boolean completed = false;
+            try {
+                pipeline.run(jobs);
+                completed = true;
+            } finally {
+                source.close();
+                if (store != null) {
+                    // A GeoPackage missing tiles would look complete to any reader, so a failed run leaves none
+                    if (!completed) {
+                        store.abort();
+                    }
+                    store.close();
+                    if (!completed) {
+                        deleteGeoPackage(new File(outputDir, "tiles.gpkg"));
+                    }
+                }
+                if (manifest != null) {
+                    manifest.close();
                 }
             }
 
+            // Jobs were queued in (y, x) order, so the result order matches the grid
+            List<TileInfo> tiles = new ArrayList<>(jobs.size());
+            for (TileJob job : jobs) {
+                tiles.add(job.tile);
+            }
             return tiles;
         } catch (Exception e) {
             throw new IOException("Error processing tiles", e);
         }
     }
 
-    private void saveTileAsGeoTIFF(TileInfo tile, File outputFile) throws IOException {
+    // Null when the tiles cannot come straight from the source's compressed blocks: pixels would change
+    // (reprojection, baked opacity, trimming, padded edges), the codec differs or the grid splits source blocks.
+    // Copied tiles keep the source's bands and sample format, and empty tiles are not detected.
+    private List<TileInfo> copyRawTiles(TileGrid grid, OutputRaster output, File tilesDir, String outputFormat)
+            throws IOException {
+        boolean pixelsUnchanged = tileOpacity >= 1.0f || OPACITY_KML.equals(opacityMode);
+        if (outputFormat.equalsIgnoreCase("PNG") || outputFormat.equalsIgnoreCase("AUTO")
+            || outputFormat.equalsIgnoreCase("GPKG") || output.warper != null || !isGeoTiffInput()
+            || !pixelsUnchanged || trimTiles || grid.hasPaddedEdges()) {
+            return null;
+        }
+        RawTileCopier copier = RawTileCopier.open(inputFile);
+        if (copier == null) {
+            return null;
+        }
+        try (RawTileCopier source = copier) {
+            int compression = new TiffCompressor(compressionType, compressionLevel).getCompression();
+            if (!source.usesCompression(compression) || !source.fits(grid)) {
+                return null;
+            }
+            Integer epsgCode = targetEpsgCode();
+            boolean geographic = targetCRS instanceof GeographicCRS;
+            String crsName = CRS.toSRS(targetCRS);
+            boolean opaque = !source.hasExtraSamples();
+
+            List<TileJob> jobs = new ArrayList<>();
+            for (int y = 0; y < grid.getNumTilesY(); y++) {
+                for (int x = 0; x < grid.getNumTilesX(); x++) {
+                    jobs.add(new TileJob(x, y, grid.getPixelBounds(x, y), grid.getGeoBounds(x, y, output.bounds)));
+                }
+            }
+            // Nothing but file transfers, so the write threads do all the work
+            new TilePipeline<TileJob>()
+                .addStage("copy", writeThreads, job -> {
+                    File tileFile = new File(tilesDir, String.format("tile_%d_%d.tif", job.x, job.y));
+                    source.copyTile(job.window, tileFile, job.geoBounds, epsgCode, geographic, crsName);
+                    job.tile = new TileInfo(null, job.geoBounds, job.x, job.y);
+                    job.tile.setFile(tileFile);
+                    // No content hash: copied tiles are never decoded, so they are not candidates for sharing
+                    job.tile.setOpaque(opaque);
+                })
+                .run(jobs);
+
+            List<TileInfo> tiles = new ArrayList<>(jobs.size());
+            for (TileJob job : jobs) {
+                tiles.add(job.tile);
+            }
+            return tiles;
+        }
+    }
+
+    // Internal tile size of the source file, or for striped files its width by the rows per strip; null when the
+    // input is not a TIFF
+    public Dimension getSourceBlockSize() throws IOException {
+        if (!isGeoTiffInput()) {
+            return null;
+        }
+        try (WindowedRasterReader reader = new WindowedRasterReader(inputFile)) {
+            return new Dimension(reader.getBlockWidth(), reader.getBlockHeight());
+        }
+    }
+
+    // Source blocks decoded per block in the file when the planned grid is read in tile windows: 1.0 means every
+    // block is decompressed once, 2.0 twice on average. Reads from a fully rendered source decode once regardless.
+    public double decodeAmplification(GridPlanner gridPlanner) throws IOException {
+        if (coverage == null) {
+            throw new IllegalStateException("Must call process() first");
+        }
+        Dimension block = getSourceBlockSize();
+        if (block == null) {
+            return 1.0;
+        }
         try {
-            // Create a new GridCoverage for the tile
-            GridCoverageFactory gcf = new GridCoverageFactory();
-            
-            // Calculate the world-to-grid transform for this tile
-            double[] bounds = tile.getBounds();
-            double scaleX = (bounds[2] - bounds[0]) / tile.getImage().getWidth();
-            double scaleY = (bounds[3] - bounds[1]) / tile.getImage().getHeight();
-            
-            AffineTransform2D worldToGrid = new AffineTransform2D(
-                scaleX, 0.0,
-                0.0, -scaleY,
-                bounds[0], bounds[3]
-            );
+            RenderedImage sourceImage = coverage.getRenderedImage();
+            int fullWidth = sourceImage.getWidth();
+            int fullHeight = sourceImage.getHeight();
+            OutputRaster output = outputRaster(fullWidth, fullHeight);
+            TileGrid grid = planGrid(gridPlanner, output);
 
-            // Create the grid coverage
-            GridCoverage2D tileCoverage = gcf.create(
-                "Tile_" + tile.getX() + "_" + tile.getY(),
-                tile.getImage(),
-                new ReferencedEnvelope(
-                    bounds[0], bounds[2],
-                    bounds[1], bounds[3],
-                    targetCRS
-                )
-            );
+            long decoded = 0;
+            for (int y = 0; y < grid.getNumTilesY(); y++) {
+                for (int x = 0; x < grid.getNumTilesX(); x++) {
+                    Rectangle window = grid.getPixelBounds(x, y);
+                    if (output.warper != null) {
+                        window = output.warper.plan(grid.getGeoBounds(x, y, output.bounds), window.width, window.height)
+                            .getSourceWindow();
+                    }
+                    if (window != null) {
+                        decoded += blocksTouched(window, block);
+                    }
+                }
+            }
+            long blocks = (long) ((fullWidth + block.width - 1) / block.width) * ((fullHeight + block.height - 1) / block.height);
+            return (double) decoded / blocks;
+        } catch (FactoryException | TransformException e) {
+            throw new IOException("Failed to plan the tile grid: " + e.getMessage(), e);
+        }
+    }
+
+    // Block alignment only applies when output pixels are source pixels; a reprojected grid has no common edges
+    private TileGrid planGrid(GridPlanner gridPlanner, OutputRaster output) throws IOException {
+        Dimension block = gridPlanner.isAlignedToBlocks() && output.warper == null ? getSourceBlockSize() : null;
+        return gridPlanner.plan(output.width, output.height, block);
+    }
+
+    private static long blocksTouched(Rectangle window, Dimension block) {
+        long across = (window.x + window.width - 1) / block.width - window.x / block.width + 1;
+        long down = (window.y + window.height - 1) / block.height - window.y / block.height + 1;
+        return across * down;
+    }
+
+    // Writes the whole (reprojected) raster as one Cloud-Optimized GeoTIFF: tileSize internal tiles compressed
+    // with the configured codec, plus internal overviews, laid out so viewers can range-read any window
+    public void writeCloudOptimizedGeoTIFF(File outputFile, int tileSize) throws IOException {
+        if (coverage == null) {
+            throw new IllegalStateException("Must call process() first");
+        }
+
+        try {
+            RenderedImage sourceImage = coverage.getRenderedImage();
+            int fullWidth = sourceImage.getWidth();
+            int fullHeight = sourceImage.getHeight();
 
-            // Create GeoTIFF writer
-            GeoTiffWriter writer = new GeoTiffWriter(outputFile);
+            OutputRaster output = outputRaster(fullWidth, fullHeight);
+            TileWarper warper = output.warper;
+            TileGrid grid = TileGrid.fromTileSize(output.width, output.height, tileSize, tileSize);
 
-            // Write with default parameters (this will still use system-level compression)
-            writer.write(tileCoverage, null);
-            writer.dispose();
+            List<TileJob> jobs = new ArrayList<>();
+            for (int y = 0; y < grid.getNumTilesY(); y++) {
+                for (int x = 0; x < grid.getNumTilesX(); x++) {
+                    jobs.add(new TileJob(x, y, grid.getPixelBounds(x, y), grid.getGeoBounds(x, y, output.bounds)));
+                }
+            }
+
+            if (outputFile.getParentFile() != null) {
+                outputFile.getParentFile().mkdirs();
+            }
+            CogWriter cog = new CogWriter(outputFile, output.width, output.height, tileSize,
+                new TiffCompressor(compressionType, compressionLevel), envelopeArray(output.bounds),
+                targetEpsgCode(), targetCRS instanceof GeographicCRS, CRS.toSRS(targetCRS));
 
+            MemoryPlanner.Plan memory = planMemory(sourceImage, output.width, output.height, tileSize, tileSize, false);
+            try (SourceWindows source = new SourceWindows(sourceImage, memory.isWindowed())) {
+                new TilePipeline<TileJob>()
+                    .setMaxInFlight(memory.getMaxTilesInFlight())
+                    .addStage("decode", decodeThreads, job -> readTile(job, warper, source))
+                    .addStage("composite", warper != null ? Math.max(pixelThreads, encodeThreads) : pixelThreads,
+                        job -> job.image = applyOpacity(resampleTile(job, warper)))
+                    // Compression and the overview tiles that become complete happen on the encode threads
+                    .addStage("encode", encodeThreads, job -> {
+                        cog.writeTile(job.x, job.y, job.image);
+                        job.image = null;
+                    })
+                    .run(jobs);
+            } catch (Exception e) {
+                cog.abort();
+                throw e;
+            }
+            cog.close();
         } catch (Exception e) {
-            throw new IOException("Failed to save tile as GeoTIFF: " + e.getMessage(), e);
+            throw new IOException("Error writing Cloud-Optimized GeoTIFF", e);
+        }
+    }
+
+    // The output pixel grid: the source grid itself, or a grid over the reprojected extent that tiles are
+    // warped into
+    private OutputRaster outputRaster(int fullWidth, int fullHeight) throws FactoryException, TransformException {
+        if (CRS.equalsIgnoreMetadata(sourceCRS, targetCRS)) {
+            return new OutputRaster(null, bounds, fullWidth, fullHeight);
+        }
+
+        MathTransform targetToSource = CRS.findMathTransform(targetCRS, sourceCRS, true);
+        TileWarper warper = new TileWarper(targetToSource, envelopeArray(bounds), fullWidth, fullHeight,
+            reprojectionTolerance, resampling);
+
+        // Keep roughly the source pixel count, laid out over the reprojected extent
+        ReferencedEnvelope target = bounds.transform(targetCRS, true, 20);
+        double pixelSize = Math.sqrt(target.getWidth() * target.getHeight() / ((double) fullWidth * fullHeight));
+        int outputWidth = Math.max(1, (int) Math.ceil(target.getWidth() / pixelSize));
+        int outputHeight = Math.max(1, (int) Math.ceil(target.getHeight() / pixelSize));
+        ReferencedEnvelope outputBounds = new ReferencedEnvelope(
+            target.getMinX(), target.getMinX() + outputWidth * pixelSize,
+            target.getMaxY() - outputHeight * pixelSize, target.getMaxY(),
+            targetCRS
+        );
+        return new OutputRaster(warper, outputBounds, outputWidth, outputHeight);
+    }
+
+    private void readTile(TileJob job, TileWarper warper, SourceWindows source) throws Exception {
+        Rectangle window = job.window;
+        if (warper != null) {
+            // Only the source pixels that the warped tile actually samples are read
+            job.plan = warper.plan(job.geoBounds, window.width, window.height);
+            window = job.plan.getSourceWindow();
+            if (window == null) {
+                return;
+            }
         }
+        job.image = source.read(window);
+    }
+
+    // The tile's pixels in the output grid, before opacity is applied
+    private BufferedImage resampleTile(TileJob job, TileWarper warper) {
+        BufferedImage image = job.plan != null ? warper.resample(job.plan, job.image) : job.image;
+        job.image = null;
+        job.plan = null;
+        return image;
     }
 
-    private void saveTileAsPNG(TileInfo tile, File outputFile) throws IOException {
+    private Integer targetEpsgCode() {
         try {
-            // Create a new BufferedImage with alpha support
-            BufferedImage pngImage = new BufferedImage(
-                tile.getImage().getWidth(),
-                tile.getImage().getHeight(),
-                BufferedImage.TYPE_INT_ARGB
-            );
-            
-            // Set up graphics context with high quality rendering
-            Graphics2D g = pngImage.createGraphics();
-            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            
-            // Draw the tile image
-            g.drawImage(tile.getImage(), 0, 0, null);
-            g.dispose();
+            return CRS.lookupEpsgCode(targetCRS, true);
+        } catch (FactoryException e) {
+            return null;
+        }
+    }
+
+    private GeoPackageWriter openGeoPackage(File file, ReferencedEnvelope outputBounds, TileGrid grid) throws IOException {
+        // Each run writes the whole grid from scratch; rows left by a run with another grid or settings would mix in
+        deleteGeoPackage(file);
+        String name = inputFile.getName().replaceFirst("\\.[^.]*$", "");
+        return new GeoPackageWriter(file, "tiles", name, targetEpsgCode(), targetCRS.toWKT(),
+            envelopeArray(outputBounds), grid);
+    }
+
+    private static void deleteGeoPackage(File file) throws IOException {
+        for (String suffix : new String[] {"", "-wal", "-shm", "-journal"}) {
+            Files.deleteIfExists(new File(file.getPath() + suffix).toPath());
+        }
+    }
+
+    private static BufferedImage padTile(BufferedImage image, int width, int height) {
+        if (image.getWidth() == width && image.getHeight() == height) {
+            return image;
+        }
+        BufferedImage padded = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = padded.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return padded;
+    }
+
+    // Everything besides the source pixels that shapes a tile; a manifest written under other settings is discarded
+    private String manifestSettings(String outputFormat, TileGrid grid, ReferencedEnvelope outputBounds) {
+        double[] extent = envelopeArray(outputBounds);
+        return String.join(" ",
+            outputFormat.toUpperCase(),
+            grid.getNumTilesX() + "x" + grid.getNumTilesY(),
+            grid.getTileWidth() + "x" + grid.getTileHeight() + (grid.hasPaddedEdges() ? ":padded" : ""),
+            grid.getImageWidth() + "x" + grid.getImageHeight(),
+            extent[0] + "," + extent[1] + "," + extent[2] + "," + extent[3],
+            CRS.toSRS(targetCRS),
+            compressionType + ":" + compressionLevel,
+            opacityMode + ":" + tileOpacity,
+            resampling + ":" + reprojectionTolerance,
+            "trim=" + trimTiles,
+            "palette=" + paletteMode + (dither ? ":dither" : ""),
+            "png=" + pngLevel + ":" + pngFilter,
+            "jpeg=" + jpegQuality,
+            "nodata=" + (noDataColor != null ? Integer.toHexString(noDataColor) : "-")
+        ).replaceAll("\\s+", " ");
+    }
+
+    // Copies the region out so the full-size tile buffer can be dropped
+    private static BufferedImage cropTile(BufferedImage image, Rectangle region) {
+        BufferedImage cropped = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = cropped.createGraphics();
+        g.drawImage(image, -region.x, -region.y, null);
+        g.dispose();
+        return cropped;
+    }
 
-            // Get PNG writer and configure for best compression
-            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
-            if (!writers.hasNext()) {
-                throw new IOException("No PNG writer found");
+    // Bounds of a pixel region within a cellWidth x cellHeight tile covering bounds {minX, minY, maxX, maxY}
+    private static double[] trimBounds(double[] bounds, Rectangle region, int cellWidth, int cellHeight) {
+        double resX = (bounds[2] - bounds[0]) / cellWidth;
+        double resY = (bounds[3] - bounds[1]) / cellHeight;
+        double minX = bounds[0] + region.x * resX;
+        double maxY = bounds[3] - region.y * resY;
+        return new double[]{minX, maxY - region.height * resY, minX + region.width * resX, maxY};
+    }
+
+    // The deepest zoom whose pixels are no coarser than the source pixels
+    public int suggestWebMaxZoom() throws IOException {
+        if (coverage == null) {
+            throw new IllegalStateException("Must call process() first");
+        }
+        double[] extent = webMercatorExtent(webMercatorCRS());
+        return WebMercatorTiles.nativeZoom((extent[2] - extent[0]) / coverage.getRenderedImage().getWidth());
+    }
+
+    // Writes a z/x/y EPSG:3857 PNG pyramid. The deepest zoom is warped from the source; every zoom above is
+    // downsampled from the tiles already written. Existing tiles are kept, so an interrupted run can be resumed.
+    public int exportWebTiles(File outputDir, int minZoom, int maxZoom, String scheme) throws IOException {
+        checkWebExport(minZoom, maxZoom);
+        outputDir.mkdirs();
+        checkPyramidSettings(outputDir, webTileSettings());
+        return exportWebTiles(new DirectoryTileSink(outputDir, scheme), minZoom, maxZoom);
+    }
+
+    // Same pyramid as exportWebTiles, stored as BLOBs in a single MBTiles file
+    public int exportWebTilesToMBTiles(File mbtilesFile, int minZoom, int maxZoom, String name) throws IOException {
+        checkWebExport(minZoom, maxZoom);
+        double[] lonLatBounds = WebMercatorTiles.toLonLat(webMercatorExtent(webMercatorCRS()));
+        try (MBTilesWriter store = new MBTilesWriter(mbtilesFile, name, lonLatBounds, minZoom, maxZoom,
+                webTileSettings())) {
+            return exportWebTiles(new WebTileSink() {
+                @Override
+                public boolean contains(int zoom, int x, int y) throws IOException {
+                    return store.contains(zoom, x, y);
+                }
+
+                @Override
+                public byte[] read(int zoom, int x, int y) throws IOException {
+                    return store.read(zoom, x, y);
+                }
+
+                @Override
+                public void write(int zoom, int x, int y, byte[] data) throws IOException {
+                    store.put(zoom, x, y, data);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    store.flush();
+                }
+            }, minZoom, maxZoom);
+        }
+    }
+
+    // What the pyramid's pixels depend on. Zoom range and PNG encoder settings are left out: tiles from another
+    // range or encoder level still show the same pixels, so a resumed run may keep them.
+    private String webTileSettings() {
+        RenderedImage sourceImage = coverage.getRenderedImage();
+        double[] extent = envelopeArray(bounds);
+        return String.join(" ",
+            inputFile.getName() + ":" + inputFile.length() + ":" + inputFile.lastModified(),
+            sourceImage.getWidth() + "x" + sourceImage.getHeight(),
+            extent[0] + "," + extent[1] + "," + extent[2] + "," + extent[3],
+            CRS.toSRS(sourceCRS),
+            opacityMode + ":" + tileOpacity,
+            resampling + ":" + reprojectionTolerance,
+            "palette=" + paletteMode + (dither ? ":dither" : ""),
+            "nodata=" + (noDataColor != null ? Integer.toHexString(noDataColor) : "-")
+        ).replaceAll("\\s+", " ");
+    }
+
+    // The directory counterpart of the MBTiles settings row: a resumed export keeps every tile already on disk,
+    // so it refuses a pyramid made from another source or with other settings, or one with no record at all
+    private static void checkPyramidSettings(File pyramidDir, String settings) throws IOException {
+        File settingsFile = new File(pyramidDir, PYRAMID_SETTINGS_FILE);
+        if (settingsFile.isFile()) {
+            String recorded = new String(Files.readAllBytes(settingsFile.toPath()), StandardCharsets.UTF_8).trim();
+            if (!recorded.equals(settings)) {
+                throw new IOException(pyramidDir.getPath() + " holds tiles made from a different source or settings; "
+                    + "delete it or choose another output to start over");
             }
-            
-            ImageWriter writer = writers.next();
-            ImageWriteParam writeParam = writer.getDefaultWriteParam();
-            
-            // PNG uses its own internal compression
-            try (ImageOutputStream output = ImageIO.createImageOutputStream(outputFile)) {
-                writer.setOutput(output);
-                // Use Adam7 interlacing for progressive loading
-                if (writeParam.canWriteProgressive()) {
-                    writeParam.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            return;
+        }
+        String[] existing = pyramidDir.list();
+        if (existing != null && existing.length > 0) {
+            throw new IOException(pyramidDir.getPath() + " already holds files with no record of how they were made; "
+                + "delete it or choose another output");
+        }
+        Files.write(settingsFile.toPath(), (settings + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void checkWebExport(int minZoom, int maxZoom) {
+        if (coverage == null) {
+            throw new IllegalStateException("Must call process() first");
+        }
+        if (minZoom < 0 || maxZoom > WebMercatorTiles.MAX_ZOOM || minZoom > maxZoom) {
+            throw new IllegalArgumentException("Invalid zoom range " + minZoom + "-" + maxZoom);
+        }
+    }
+
+    private int exportWebTiles(WebTileSink sink, int minZoom, int maxZoom) throws IOException {
+        try {
+            RenderedImage sourceImage = coverage.getRenderedImage();
+            int fullWidth = sourceImage.getWidth();
+            int fullHeight = sourceImage.getHeight();
+
+            CoordinateReferenceSystem webMercator = webMercatorCRS();
+            TileWarper warper = new TileWarper(CRS.findMathTransform(webMercator, sourceCRS, true),
+                envelopeArray(bounds), fullWidth, fullHeight, reprojectionTolerance, resampling);
+            double[] extent = webMercatorExtent(webMercator);
+            AtomicInteger written = new AtomicInteger();
+
+            // Pyramid levels above the deepest hold five tiles per job (four children and their parent)
+            MemoryPlanner.Plan memory = planMemory(sourceImage, 0, 0,
+                WebMercatorTiles.TILE_SIZE, WebMercatorTiles.TILE_SIZE, false);
+            int pyramidInFlight = Math.max(1, memory.getMaxTilesInFlight() / 2);
+            try (SourceWindows source = new SourceWindows(sourceImage, memory.isWindowed())) {
+                prepareJobPalette(source, fullWidth, fullHeight);
+                new TilePipeline<WebTileJob>()
+                    .setMaxInFlight(memory.getMaxTilesInFlight())
+                    .addStage("decode", decodeThreads, job -> {
+                        if (sink.contains(job.zoom, job.x, job.y)) {
+                            job.skip = true;
+                            return;
+                        }
+                        job.plan = warper.plan(WebMercatorTiles.tileBounds(job.zoom, job.x, job.y),
+                            WebMercatorTiles.TILE_SIZE, WebMercatorTiles.TILE_SIZE);
+                        Rectangle window = job.plan.getSourceWindow();
+                        if (window != null) {
+                            job.image = source.read(window);
+                        }
+                    })
+                    .addStage("composite", Math.max(pixelThreads, encodeThreads), job -> {
+                        if (!job.skip) {
+                            job.image = applyOpacity(warper.resample(job.plan, job.image));
+                            job.plan = null;
+                        }
+                    })
+                    .addStage("encode", encodeThreads, job -> encodeWebTile(job))
+                    .addStage("write", writeThreads, job -> writeWebTile(sink, job, written))
+                    .run(webTileJobs(maxZoom, extent));
+            }
+
+            for (int zoom = maxZoom - 1; zoom >= minZoom; zoom--) {
+                // The level below must be readable before it is downsampled
+                sink.flush();
+
+                int childZoom = zoom + 1;
+                new TilePipeline<WebTileJob>()
+                    .setMaxInFlight(pyramidInFlight)
+                    .addStage("decode", decodeThreads, job -> {
+                        if (sink.contains(job.zoom, job.x, job.y)) {
+                            job.skip = true;
+                            return;
+                        }
+                        job.children = new BufferedImage[4];
+                        for (int i = 0; i < 4; i++) {
+                            byte[] child = sink.read(childZoom, job.x * 2 + (i & 1), job.y * 2 + (i >> 1));
+                            job.children[i] = child != null ? ImageIO.read(new ByteArrayInputStream(child)) : BLANK_WEB_TILE;
+                        }
+                    })
+                    .addStage("composite", pixelThreads, job -> {
+                        if (!job.skip) {
+                            job.image = TileDownsampler.downsample(job.children[0], job.children[1],
+                                job.children[2], job.children[3]);
+                            job.children = null;
+                        }
+                    })
+                    .addStage("encode", encodeThreads, job -> encodeWebTile(job))
+                    .addStage("write", writeThreads, job -> writeWebTile(sink, job, written))
+                    .run(webTileJobs(zoom, extent));
+            }
+            sink.flush();
+            return written.get();
+        } catch (Exception e) {
+            throw new IOException("Error exporting web tiles", e);
+        }
+    }
+
+    private static CoordinateReferenceSystem webMercatorCRS() throws IOException {
+        try {
+            return CRS.decode("EPSG:3857");
+        } catch (FactoryException e) {
+            throw new IOException("Failed to create EPSG:3857: " + e.getMessage(), e);
+        }
+    }
+
+    private double[] webMercatorExtent(CoordinateReferenceSystem webMercator) throws IOException {
+        try {
+            return WebMercatorTiles.clampExtent(envelopeArray(bounds.transform(webMercator, true, 20)));
+        } catch (FactoryException | TransformException e) {
+            throw new IOException("Failed to transform bounds to EPSG:3857: " + e.getMessage(), e);
+        }
+    }
+
+    // Jobs are generated row by row as the pipeline pulls them, so huge zoom levels never become a list
+    private static Iterator<WebTileJob> webTileJobs(int zoom, double[] extent) {
+        int[] range = WebMercatorTiles.tileRange(zoom, extent);
+        return new Iterator<WebTileJob>() {
+            private int x = range[0];
+            private int y = range[1];
+
+            @Override
+            public boolean hasNext() {
+                return y <= range[3];
+            }
+
+            @Override
+            public WebTileJob next() {
+                WebTileJob job = new WebTileJob(zoom, x, y);
+                if (++x > range[2]) {
+                    x = range[0];
+                    y++;
                 }
-                writer.write(null, new IIOImage(pngImage, null, null), writeParam);
-            } finally {
+                return job;
+            }
+        };
+    }
+
+    private void encodeWebTile(WebTileJob job) throws IOException {
+        if (job.skip || TileClassifier.classify(job.image, noDataColor).isEmpty()) {
+            // Tiles outside the data are left out, as web map clients expect
+            job.skip = true;
+            job.image = null;
+            return;
+        }
+        job.encoded = encodeTileAsPNG(new TileInfo(job.image, null, job.x, job.y));
+        job.image = null;
+    }
+
+    private static void writeWebTile(WebTileSink sink, WebTileJob job, AtomicInteger written) throws IOException {
+        if (job.skip) {
+            return;
+        }
+        sink.write(job.zoom, job.x, job.y, job.encoded);
+        job.encoded = null;
+        written.incrementAndGet();
+    }
+
+    // Where pyramid tiles go: a z/x/y directory tree or a single-file tile store
+    private interface WebTileSink {
+        boolean contains(int zoom, int x, int y) throws IOException;
+
+        byte[] read(int zoom, int x, int y) throws IOException;
+
+        void write(int zoom, int x, int y, byte[] data) throws IOException;
+
+        default void flush() throws IOException {
+        }
+    }
+
+    private static class DirectoryTileSink implements WebTileSink {
+        private final File rootDir;
+        private final String scheme;
+
+        DirectoryTileSink(File rootDir, String scheme) {
+            this.rootDir = rootDir;
+            this.scheme = scheme;
+        }
+
+        @Override
+        public boolean contains(int zoom, int x, int y) {
+            return WebMercatorTiles.tileFile(rootDir, zoom, x, y, scheme, "png").exists();
+        }
+
+        @Override
+        public byte[] read(int zoom, int x, int y) throws IOException {
+            File file = WebMercatorTiles.tileFile(rootDir, zoom, x, y, scheme, "png");
+            return file.exists() ? Files.readAllBytes(file.toPath()) : null;
+        }
+
+        @Override
+        public void write(int zoom, int x, int y, byte[] data) throws IOException {
+            // Written under a temporary name and renamed, so a resumed run never trusts a half-written tile
+            File file = WebMercatorTiles.tileFile(rootDir, zoom, x, y, scheme, "png");
+            file.getParentFile().mkdirs();
+            File partial = new File(file.getPath() + ".part");
+            Files.write(partial.toPath(), data);
+            Files.move(partial.toPath(), file.toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Source pixels as ARGB windows: cut from one full render for small inputs, otherwise read per window
+    private class SourceWindows implements Closeable {
+        private final RenderedImage sourceImage;
+        private final BufferedImage sourceBuffered;
+        private final Map<Thread, WindowedRasterReader> windowReaders = new ConcurrentHashMap<>();
+
+        SourceWindows(RenderedImage sourceImage, boolean windowed) {
+            this.sourceImage = sourceImage;
+            this.sourceBuffered = windowed ? null
+                : renderToARGB(sourceImage, 0, 0, sourceImage.getWidth(), sourceImage.getHeight());
+        }
+
+        BufferedImage read(Rectangle window) throws IOException {
+            if (sourceBuffered != null) {
+                return sourceBuffered.getSubimage(window.x, window.y, window.width, window.height);
+            } else if (isGeoTiffInput()) {
+                // Image readers are not thread-safe, so each decode thread keeps its own
+                WindowedRasterReader reader = windowReaders.get(Thread.currentThread());
+                if (reader == null) {
+                    reader = new WindowedRasterReader(inputFile);
+                    windowReaders.put(Thread.currentThread(), reader);
+                }
+                return renderToARGB(reader.readWindow(window), 0, 0, window.width, window.height);
+            } else {
+                return renderToARGB(sourceImage, window.x, window.y, window.width, window.height);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (WindowedRasterReader reader : windowReaders.values()) {
+                reader.close();
+            }
+        }
+    }
+
+    private MemoryPlanner.Plan planMemory(RenderedImage sourceImage, int outputWidth, int outputHeight,
+                                          int tileWidth, int tileHeight, boolean keepsTiles) {
+        SampleModel layout = sourceImage.getSampleModel();
+        int bytesPerPixel = layout.getNumBands() * Math.max(1, DataBuffer.getDataTypeSize(layout.getDataType()) / 8);
+        MemoryPlanner planner = new MemoryPlanner(memoryBudget > 0 ? memoryBudget : MemoryPlanner.defaultBudget());
+        memoryPlan = planner.plan(sourceImage.getWidth(), sourceImage.getHeight(), bytesPerPixel,
+            outputWidth, outputHeight, tileWidth, tileHeight, keepsTiles, maxTilesInFlight(), windowedReadThreshold);
+        return memoryPlan;
+    }
+
+    private int maxTilesInFlight() {
+        return maxTilesInFlight > 0 ? maxTilesInFlight : decodeThreads + pixelThreads + 2 * encodeThreads + writeThreads;
+    }
+
+    private static BufferedImage renderToARGB(RenderedImage source, int offsetX, int offsetY, int width, int height) {
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = result.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.drawRenderedImage(source, AffineTransform.getTranslateInstance(-offsetX, -offsetY));
+        g2d.dispose();
+        return result;
+    }
+
+    private static double[] envelopeArray(ReferencedEnvelope envelope) {
+        return new double[]{envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY()};
+    }
+
+    private boolean isGeoTiffInput() {
+        String fileName = inputFile.getName().toLowerCase();
+        return !(fileName.endsWith(".jp2") || fileName.endsWith(".j2k")
+            || fileName.endsWith(".jpg") || fileName.endsWith(".jpeg"));
+    }
+
+    byte[] encodeTileAsGeoTIFF(TileInfo tile) throws IOException {
+        try {
+            return geoTiffEncoder().encode(tile.getImage(), tile.getBounds());
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to save tile as GeoTIFF: " + e.getMessage(), e);
+        }
+    }
+
+    // Built once per codec/CRS combination; the EPSG lookup behind it is far too slow to repeat per tile
+    private GeoTiffTileEncoder geoTiffEncoder() {
+        GeoTiffTileEncoder encoder = geoTiffEncoder;
+        if (encoder == null) {
+            encoder = new GeoTiffTileEncoder(new TiffCompressor(compressionType, compressionLevel),
+                targetEpsgCode(), targetCRS instanceof GeographicCRS, CRS.toSRS(targetCRS));
+            geoTiffEncoder = encoder;
+        }
+        return encoder;
+    }
+
+    // Indexed copy for palette output, or the image itself for full-colour PNGs
+    private BufferedImage quantize(BufferedImage image) {
+        if (PaletteQuantizer.NONE.equals(paletteMode)) {
+            return image;
+        }
+        PaletteQuantizer.Palette palette = PaletteQuantizer.JOB.equals(paletteMode) ? jobPalette : null;
+        if (palette == null) {
+            palette = PaletteQuantizer.build(image);
+            return PaletteQuantizer.apply(image, palette, dither && !palette.isExact());
+        }
+        return PaletteQuantizer.apply(image, palette, dither);
+    }
+
+    // One palette for the whole job, from an even grid of small source windows so every region's colours are
+    // seen without decoding the whole source. Tiles are then quantized in parallel against the same palette.
+    private void prepareJobPalette(SourceWindows source, int width, int height) throws IOException {
+        if (!PaletteQuantizer.JOB.equals(paletteMode)) {
+            return;
+        }
+        int[] samples = new int[PALETTE_SAMPLE_GRID * PALETTE_SAMPLE_GRID * PALETTE_SAMPLE_SIZE * PALETTE_SAMPLE_SIZE];
+        int count = 0;
+        for (int row = 0; row < PALETTE_SAMPLE_GRID; row++) {
+            for (int column = 0; column < PALETTE_SAMPLE_GRID; column++) {
+                int cellX = (int) ((long) width * column / PALETTE_SAMPLE_GRID);
+                int cellY = (int) ((long) height * row / PALETTE_SAMPLE_GRID);
+                int cellWidth = (int) ((long) width * (column + 1) / PALETTE_SAMPLE_GRID) - cellX;
+                int cellHeight = (int) ((long) height * (row + 1) / PALETTE_SAMPLE_GRID) - cellY;
+                int sampleWidth = Math.min(PALETTE_SAMPLE_SIZE, cellWidth);
+                int sampleHeight = Math.min(PALETTE_SAMPLE_SIZE, cellHeight);
+                if (sampleWidth <= 0 || sampleHeight <= 0) {
+                    continue;
+                }
+                Rectangle window = new Rectangle(cellX + (cellWidth - sampleWidth) / 2,
+                    cellY + (cellHeight - sampleHeight) / 2, sampleWidth, sampleHeight);
+                // Opacity baked into the pixels changes their alpha, so the palette must see it too
+                BufferedImage sample = applyOpacity(source.read(window));
+                sample.getRGB(0, 0, sampleWidth, sampleHeight, samples, count, sampleWidth);
+                count += sampleWidth * sampleHeight;
+            }
+        }
+        jobPalette = PaletteQuantizer.build(Arrays.copyOf(samples, count), PaletteQuantizer.MAX_COLORS, true);
+    }
+
+    byte[] encodeTileAsJPEG(TileInfo tile) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeTileAsJPEG(tile, buffer);
+        return buffer.toByteArray();
+    }
+
+    // Only for opaque tiles: JPEG has no alpha, so the pixels go into an RGB image first
+    private void writeTileAsJPEG(TileInfo tile, OutputStream destination) throws IOException {
+        ImageWriter writer = null;
+        try {
+            BufferedImage image = tile.getImage();
+            int width = image.getWidth();
+            int height = image.getHeight();
+            BufferedImage rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                rgb.setRGB(0, y, width, 1, row, 0, width);
+            }
+
+            writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            JPEGImageWriteParam param = new JPEGImageWriteParam(null);
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            param.setOptimizeHuffmanTables(true);
+            try (ImageOutputStream output = new MemoryCacheImageOutputStream(destination)) {
+                writer.setOutput(output);
+                writer.write(null, new IIOImage(rgb, null, null), param);
+            }
+        } catch (Exception e) {
+            throw new IOException("Failed to save tile as JPEG: " + e.getMessage(), e);
+        } finally {
+            if (writer != null) {
                 writer.dispose();
             }
+        }
+    }
+
+    byte[] encodeTileAsPNG(TileInfo tile) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeTileAsPNG(tile, buffer);
+        return buffer.toByteArray();
+    }
+
+    private void writeTileAsPNG(TileInfo tile, OutputStream destination) throws IOException {
+        try {
+            // Encoded straight from the tile's raster; no intermediate ARGB copy or per-tile writer lookup
+            pngEncoder().encode(quantize(tile.getImage()), destination);
         } catch (Exception e) {
             throw new IOException("Failed to save tile as PNG: " + e.getMessage(), e);
         }
     }
 
-    private BufferedImage applyOpacity(BufferedImage source) {
-        if (tileOpacity >= 1.0f) {
+    // Built once per setting, so each encode thread keeps its Deflater and row buffers across tiles
+    private PngEncoder pngEncoder() {
+        PngEncoder encoder = pngEncoder;
+        if (encoder == null) {
+            encoder = new PngEncoder(pngLevel, pngFilter, pngParallel);
+            pngEncoder = encoder;
+        }
+        return encoder;
+    }
+
+    BufferedImage applyOpacity(BufferedImage source) {
+        if (tileOpacity >= 1.0f || OPACITY_KML.equals(opacityMode)) {
             return source;
         }
 
@@ -385,78 +1337,217 @@ public class GeoTiffProcessor {
         return result;
     }
 
-    public void createMergedKMZ(List<TileInfo> tiles, String outputPath, String internalName) throws IOException {
-        File tempDir = new File("temp_kmz");
-        tempDir.mkdirs();
+    public void createMergedKMZ(List<TileInfo> allTiles, String outputPath, String internalName) throws IOException {
+        sortTiles(allTiles);
 
-        // Create ZIP output stream with maximum compression
-        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(outputPath))) {
-            zos.setLevel(compressionLevel); // Set ZIP compression level
-            
-            StringBuilder kml = new StringBuilder();
-            kml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
-               .append("<kml xmlns=\"http://www.opengis.net/kml/2.2\">\n")
-               .append("  <Document>\n")
-               .append("    <name>TheSpaceLab</name>\n")
-               .append("    <Style id=\"defaultStyle\">\n")
-               .append("      <IconStyle>\n")
-               .append("        <scale>1.1</scale>\n")
-               .append("      </IconStyle>\n")
-               .append("      <LineStyle>\n")
-               .append("        <width>1.5</width>\n")
-               .append("      </LineStyle>\n")
-               .append("    </Style>\n")
-               .append("    <Folder>\n")
-               .append("      <name>").append(internalName).append("</name>\n")
-               .append("      <description>Generated from ").append(inputFile.getName()).append("</description>\n");
-
-            // Sort tiles by row (Y) and column (X) for proper arrangement
-            tiles.sort((a, b) -> {
-                if (a.getY() != b.getY()) {
-                    return Integer.compare(a.getY(), b.getY());
+        // Empty tiles get no overlay at all
+        List<TileInfo> tiles = new ArrayList<>(allTiles.size());
+        for (TileInfo tile : allTiles) {
+            if (!tile.isEmpty()) {
+                tiles.add(tile);
+            }
+        }
+
+        // LatLonBox is always WGS84, so tiles split in another CRS are warped once more while packaging
+        MathTransform wgs84ToTarget = wgs84ToTargetTransform();
+        List<double[]> latLonBoxes = new ArrayList<>(tiles.size());
+        for (TileInfo tile : tiles) {
+            latLonBoxes.add(wgs84ToTarget == null ? tile.getBounds() : toWGS84Bounds(tile.getBounds(), targetCRS));
+        }
+
+        // Identical tiles share the first one's image entry. Re-warped tiles differ per LatLonBox, so only
+        // tiles packaged as they are can be shared.
+        // In AUTO mode opaque tiles become JPEGs; re-warped tiles gain transparent corners, so they stay PNG.
+        String[] entryPaths = new String[tiles.size()];
+        boolean[] ownsEntry = new boolean[tiles.size()];
+        boolean[] jpeg = new boolean[tiles.size()];
+        Map<Long, List<Integer>> ownersByContent = new HashMap<>();
+        for (int tileNumber = 0; tileNumber < tiles.size(); tileNumber++) {
+            TileInfo tile = tiles.get(tileNumber);
+            jpeg[tileNumber] = IMAGE_AUTO.equals(kmzImageFormat) && wgs84ToTarget == null && tile.isOpaque();
+            String entryPath = tileEntryPath(tileNumber, jpeg[tileNumber]);
+            String shared = null;
+            if (wgs84ToTarget == null && tile.hasContentHash()) {
+                // The hash only finds candidates; an entry is shared only with a tile whose pixels really match.
+                // Spilled tiles are decoded from disk for the comparison and dropped again right after.
+                List<Integer> owners = ownersByContent.computeIfAbsent(tile.getContentHash(), hash -> new ArrayList<>(1));
+                BufferedImage image = owners.isEmpty() ? null : tile.getImage();
+                for (int owner : owners) {
+                    if (jpeg[owner] == jpeg[tileNumber]
+                            && TileClassifier.samePixels(tiles.get(owner).getImage(), image)) {
+                        shared = entryPaths[owner];
+                        break;
+                    }
+                }
+                if (shared == null) {
+                    owners.add(tileNumber);
                 }
-                return Integer.compare(a.getX(), b.getX());
-            });
+            }
+            entryPaths[tileNumber] = shared != null ? shared : entryPath;
+            ownsEntry[tileNumber] = shared == null;
+        }
+
+        // Tiles are encoded straight into their zip entries on the writer threads, no temporary directory is involved
+        try (KMZWriter kmz = new KMZWriter(new File(outputPath), compressionLevel, encodeThreads)) {
+            try {
+                kmz.writeEntry("doc.kml", out -> {
+                    Writer kml = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                    kml.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                        "<kml xmlns=\"http://www.opengis.net/kml/2.2\">\n" +
+                        "  <Document>\n" +
+                        "    <name>TheSpaceLab</name>\n" +
+                        "    <Style id=\"defaultStyle\">\n" +
+                        "      <IconStyle>\n" +
+                        "        <scale>1.1</scale>\n" +
+                        "      </IconStyle>\n" +
+                        "      <LineStyle>\n" +
+                        "        <width>1.5</width>\n" +
+                        "      </LineStyle>\n" +
+                        "    </Style>\n" +
+                        "    <Folder>\n" +
+                        "      <name>" + internalName + "</name>\n" +
+                        "      <description>Generated from " + inputFile.getName() + "</description>\n");
 
-            int tileNumber = 0;
-            for (TileInfo tile : tiles) {
-                String imagePath = String.format("tiles/%d.png", tileNumber);
-                File pngFile = new File(tempDir, imagePath);
-                pngFile.getParentFile().mkdirs();
+                    for (int tileNumber = 0; tileNumber < tiles.size(); tileNumber++) {
+                        kml.write(createGroundOverlayKML(latLonBoxes.get(tileNumber), entryPaths[tileNumber], tileNumber));
+                    }
 
-                // Save tile as PNG with transparency
-                saveTileAsPNG(tile, pngFile);
+                    kml.write("    </Folder>\n" +
+                        "  </Document>\n" +
+                        "</kml>");
+                    kml.flush();
+                });
 
-                // Add to KML
-                kml.append(createGroundOverlayKML(tile, imagePath, tileNumber++));
+                for (int tileNumber = 0; tileNumber < tiles.size(); tileNumber++) {
+                    if (!ownsEntry[tileNumber]) {
+                        continue;
+                    }
+                    TileInfo tile = tiles.get(tileNumber);
+                    double[] latLonBox = latLonBoxes.get(tileNumber);
+                    File tileFile = tile.getFile();
+                    if (jpeg[tileNumber] && tileFile != null && tileFile.getName().endsWith(".jpg")) {
+                        // Already a JPEG from an AUTO split; encoding it again would compound the loss
+                        kmz.writeEntry(entryPaths[tileNumber], out -> Files.copy(tileFile.toPath(), out));
+                    } else if (jpeg[tileNumber]) {
+                        kmz.writeEntry(entryPaths[tileNumber], out -> writeTileAsJPEG(tile, out));
+                    } else {
+                        kmz.writeEntry(entryPaths[tileNumber], out ->
+                            writeTileAsPNG(wgs84ToTarget == null ? tile : warpTile(tile, wgs84ToTarget, latLonBox), out));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // A KMZ missing tiles must not replace an existing one
+                kmz.abort();
+                throw e;
             }
+        }
+    }
+
+    // Null when the target CRS already is WGS84 and tile bounds can go into LatLonBox as they are
+    private MathTransform wgs84ToTargetTransform() throws IOException {
+        try {
+            MathTransform transform = CRS.findMathTransform(DefaultGeographicCRS.WGS84, targetCRS, true);
+            return transform.isIdentity() ? null : transform;
+        } catch (FactoryException e) {
+            throw new IOException("Failed to reproject tiles to WGS84: " + e.getMessage(), e);
+        }
+    }
+
+    private static double[] toWGS84Bounds(double[] tileBounds, CoordinateReferenceSystem crs) throws IOException {
+        try {
+            return envelopeArray(new ReferencedEnvelope(
+                tileBounds[0], tileBounds[2], tileBounds[1], tileBounds[3], crs
+            ).transform(DefaultGeographicCRS.WGS84, true, 10));
+        } catch (FactoryException | TransformException e) {
+            throw new IOException("Failed to reproject tile bounds to WGS84: " + e.getMessage(), e);
+        }
+    }
+
+    private TileInfo warpTile(TileInfo tile, MathTransform wgs84ToTarget, double[] wgs84Bounds) throws IOException {
+        BufferedImage image = tile.getImage();
+        try {
+            TileWarper warper = new TileWarper(wgs84ToTarget, tile.getBounds(),
+                image.getWidth(), image.getHeight(), reprojectionTolerance, resampling);
+            TileWarper.WarpPlan plan = warper.plan(wgs84Bounds, image.getWidth(), image.getHeight());
+            Rectangle window = plan.getSourceWindow();
+            BufferedImage warped = warper.resample(plan, window == null ? null
+                : image.getSubimage(window.x, window.y, window.width, window.height));
+            return new TileInfo(warped, wgs84Bounds, tile.getX(), tile.getY());
+        } catch (TransformException e) {
+            throw new IOException("Failed to reproject tile: " + e.getMessage(), e);
+        }
+    }
 
-            kml.append("    </Folder>\n")
-               .append("  </Document>\n")
-               .append("</kml>");
+    // Same tiles as createMergedKMZ, but packaged as a Region/Lod quadtree that Google Earth loads by view
+    public void createSuperOverlayKMZ(List<TileInfo> tiles, String outputPath, String internalName) throws IOException {
+        sortTiles(tiles);
+        int numTilesX = tiles.get(tiles.size() - 1).getX() + 1;
+        int numTilesY = tiles.get(tiles.size() - 1).getY() + 1;
+        if (numTilesX * numTilesY != tiles.size()) {
+            throw new IOException("Super-overlay needs a complete tile grid, got " + tiles.size() + " tiles");
+        }
 
-            // Add KML to ZIP
-            addToZip(zos, kml.toString().getBytes(), "doc.kml");
+        MathTransform wgs84ToTarget = wgs84ToTargetTransform();
+        double[][] latLonBoxes = new double[tiles.size()][];
+        for (int i = 0; i < tiles.size(); i++) {
+            // The quadtree needs a regular grid, so trimmed tiles are placed back in their full cells
+            double[] tileBounds = tiles.get(i).getCellBounds();
+            latLonBoxes[i] = wgs84ToTarget == null ? tileBounds : toWGS84Bounds(tileBounds, targetCRS);
+        }
 
-            // Add all tiles to ZIP
-            File tilesDir = new File(tempDir, "tiles");
-            if (tilesDir.exists()) {
-                File[] files = tilesDir.listFiles();
-                if (files != null) {
-                    for (File file : files) {
-                        addFileToZip(zos, file, "tiles/" + file.getName());
+        try (KMZWriter kmz = new KMZWriter(new File(outputPath), compressionLevel, encodeThreads)) {
+            try {
+                SuperOverlayWriter writer = new SuperOverlayWriter(kmz,
+                    (image, out) -> writeTileAsPNG(new TileInfo(image, null, 0, 0), out),
+                    overlayColor(), encodeThreads);
+                writer.write(numTilesX, numTilesY, latLonBoxes, (x, y) -> {
+                    int index = y * numTilesX + x;
+                    TileInfo tile = tiles.get(index);
+                    if (wgs84ToTarget == null) {
+                        return tile.getCellImage();
                     }
-                }
+                    TileInfo cell = new TileInfo(tile.getCellImage(), tile.getCellBounds(), x, y);
+                    return warpTile(cell, wgs84ToTarget, latLonBoxes[index]).getImage();
+                }, internalName, "Generated from " + inputFile.getName());
+            } catch (IOException | RuntimeException e) {
+                // A partial tree must not replace an existing KMZ
+                kmz.abort();
+                throw e;
             }
-        } finally {
-            deleteDirectory(tempDir);
         }
     }
 
-    private String createGroundOverlayKML(TileInfo tile, String imagePath, int tileNumber) {
+    private static void sortTiles(List<TileInfo> tiles) {
+        // Sort tiles by row (Y) and column (X) for proper arrangement
+        tiles.sort((a, b) -> {
+            if (a.getY() != b.getY()) {
+                return Integer.compare(a.getY(), b.getY());
+            }
+            return Integer.compare(a.getX(), b.getX());
+        });
+    }
+
+    private static String tileEntryPath(int tileNumber, boolean jpeg) {
+        return String.format("tiles/%d.%s", tileNumber, jpeg ? "jpg" : "png");
+    }
+
+    private String overlayColor() {
+        if (!OPACITY_KML.equals(opacityMode) || tileOpacity >= 1.0f) {
+            return null;
+        }
+        return KMLHelper.opacityToColor(tileOpacity);
+    }
+
+    private String overlayColorKML() {
+        String color = overlayColor();
+        return color == null ? "" : "          <color>" + color + "</color>\n";
+    }
+
+    private String createGroundOverlayKML(double[] latLonBox, String imagePath, int tileNumber) {
         return String.format(
             "        <GroundOverlay>\n" +
             "          <name>Tile %d</name>\n" +
+            "%s" +
             "          <Icon>\n" +
             "            <href>%s</href>\n" +
             "          </Icon>\n" +
@@ -468,46 +1559,15 @@ public class GeoTiffProcessor {
             "          </LatLonBox>\n" +
             "        </GroundOverlay>\n",
             tileNumber,
+            overlayColorKML(),
             imagePath,
-            tile.getBounds()[3],
-            tile.getBounds()[1],
-            tile.getBounds()[2],
-            tile.getBounds()[0]
+            latLonBox[3],
+            latLonBox[1],
+            latLonBox[2],
+            latLonBox[0]
         );
     }
 
-    private void addToZip(ZipOutputStream zos, byte[] data, String entryPath) throws IOException {
-        zos.putNextEntry(new ZipEntry(entryPath));
-        zos.write(data);
-        zos.closeEntry();
-    }
-
-    private void addFileToZip(ZipOutputStream zos, File file, String entryPath) throws IOException {
-        byte[] buffer = new byte[1024];
-        zos.putNextEntry(new ZipEntry(entryPath));
-        try (FileInputStream fis = new FileInputStream(file)) {
-            int length;
-            while ((length = fis.read(buffer)) > 0) {
-                zos.write(buffer, 0, length);
-            }
-        }
-        zos.closeEntry();
-    }
-
-    private void deleteDirectory(File dir) {
-        File[] files = dir.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    deleteDirectory(file);
-                } else {
-                    file.delete();
-                }
-            }
-        }
-        dir.delete();
-    }
-
     public CoordinateReferenceSystem getSourceCRS() {
         return sourceCRS;
     }
@@ -519,4 +1579,56 @@ public class GeoTiffProcessor {
     public ReferencedEnvelope getBounds() {
         return bounds;
     }
-} 
\ No newline at end of file
+
+    private static class WebTileJob {
+        final int zoom;
+        final int x;
+        final int y;
+        boolean skip;
+        TileWarper.WarpPlan plan;
+        BufferedImage[] children;
+        BufferedImage image;
+        byte[] encoded;
+
+        WebTileJob(int zoom, int x, int y) {
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private static class OutputRaster {
+        final TileWarper warper; // null when the output is the source grid
+        final ReferencedEnvelope bounds;
+        final int width;
+        final int height;
+
+        OutputRaster(TileWarper warper, ReferencedEnvelope bounds, int width, int height) {
+            this.warper = warper;
+            this.bounds = bounds;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private static class TileJob {
+        final int x;
+        final int y;
+        final Rectangle window;
+        final double[] geoBounds;
+        TileWarper.WarpPlan plan;
+        BufferedImage image;
+        TileClassifier.Result content;
+        long sourceHash;
+        boolean reused; // taken from the tile manifest, nothing left to do
+        TileInfo tile;
+        byte[] encoded;
+
+        TileJob(int x, int y, Rectangle window, double[] geoBounds) {
+            this.x = x;
+            this.y = y;
+            this.window = window;
+            this.geoBounds = geoBounds;
+        }
+    }
+}
\ No newline at end of file
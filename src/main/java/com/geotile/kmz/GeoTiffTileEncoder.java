@@ -0,0 +1,92 @@
+package com.geotile.kmz;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Encodes tiles as stand-alone RGBA GeoTIFFs without a GridCoverage2D/GeoTiffWriter round trip per tile.
+// Everything shared by the tiles of one job (codec, sample layout, GeoKeys) is set up once in a template
+// directory; per tile only the size, pixel scale, origin and strip table are filled in.
+public class GeoTiffTileEncoder {
+    static final int SAMPLES_PER_PIXEL = 4;
+    private static final int STRIP_BYTES = 64 * 1024; // uncompressed bytes per strip
+
+    private final TiffCompressor compressor;
+    private final TiffDirectory template;
+
+    public GeoTiffTileEncoder(TiffCompressor compressor, Integer epsgCode, boolean geographic, String crsName) {
+        this.compressor = compressor;
+        template = new TiffDirectory();
+        template.addShorts(TiffDirectory.BITS_PER_SAMPLE, 8, 8, 8, 8);
+        template.addShorts(TiffDirectory.COMPRESSION, compressor.getCompression());
+        template.addShorts(TiffDirectory.PHOTOMETRIC, 2); // RGB
+        template.addShorts(TiffDirectory.SAMPLES_PER_PIXEL, SAMPLES_PER_PIXEL);
+        template.addShorts(TiffDirectory.PLANAR_CONFIGURATION, 1);
+        template.addShorts(TiffDirectory.PREDICTOR, compressor.getPredictor());
+        template.addShorts(TiffDirectory.EXTRA_SAMPLES, 2); // unassociated alpha
+        template.addShorts(TiffDirectory.SAMPLE_FORMAT, 1, 1, 1, 1);
+        template.addGeoKeys(epsgCode, geographic, crsName);
+    }
+
+    // bounds is {minX, minY, maxX, maxY} of the image in the encoder's CRS
+    public byte[] encode(BufferedImage image, double[] bounds) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int rowsPerStrip = Math.max(1, Math.min(height, STRIP_BYTES / (width * SAMPLES_PER_PIXEL)));
+        int stripCount = (height + rowsPerStrip - 1) / rowsPerStrip;
+
+        byte[][] strips = new byte[stripCount][];
+        long[] byteCounts = new long[stripCount];
+        for (int i = 0; i < stripCount; i++) {
+            int rows = Math.min(rowsPerStrip, height - i * rowsPerStrip);
+            byte[] samples = rgbaSamples(image, i * rowsPerStrip, rows, width, rows);
+            strips[i] = compressor.compress(samples, width, rows, SAMPLES_PER_PIXEL);
+            byteCounts[i] = strips[i].length;
+        }
+
+        TiffDirectory directory = template.copy();
+        directory.addLongs(TiffDirectory.IMAGE_WIDTH, width);
+        directory.addLongs(TiffDirectory.IMAGE_LENGTH, height);
+        directory.addLongs(TiffDirectory.ROWS_PER_STRIP, rowsPerStrip);
+        directory.addLongs(TiffDirectory.STRIP_OFFSETS, new long[stripCount]);
+        directory.addLongs(TiffDirectory.STRIP_BYTE_COUNTS, byteCounts);
+        directory.addGeoTransform(bounds, width, height);
+
+        // Header, directory, then the strips back to back
+        long position = TiffDirectory.headerSize(false) + directory.size(false);
+        long[] offsets = new long[stripCount];
+        for (int i = 0; i < stripCount; i++) {
+            offsets[i] = position;
+            position += byteCounts[i];
+        }
+        directory.setValues(TiffDirectory.STRIP_OFFSETS, offsets);
+
+        ByteBuffer out = ByteBuffer.allocate((int) position).order(ByteOrder.LITTLE_ENDIAN);
+        TiffDirectory.writeHeader(out, TiffDirectory.headerSize(false), false);
+        directory.write(out, TiffDirectory.headerSize(false), 0, false);
+        for (byte[] strip : strips) {
+            out.put(strip);
+        }
+        return out.array();
+    }
+
+    // RGBA bytes for rows [firstRow, firstRow + rows) of the image, padded with transparent pixels to
+    // paddedWidth x paddedRows
+    static byte[] rgbaSamples(BufferedImage image, int firstRow, int rows, int paddedWidth, int paddedRows) {
+        int width = image.getWidth();
+        int[] row = new int[width];
+        byte[] samples = new byte[paddedWidth * paddedRows * SAMPLES_PER_PIXEL];
+        for (int y = 0; y < rows; y++) {
+            image.getRGB(0, firstRow + y, width, 1, row, 0, width);
+            int i = y * paddedWidth * SAMPLES_PER_PIXEL;
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                samples[i++] = (byte) (argb >> 16);
+                samples[i++] = (byte) (argb >> 8);
+                samples[i++] = (byte) argb;
+                samples[i++] = (byte) (argb >>> 24);
+            }
+        }
+        return samples;
+    }
+}
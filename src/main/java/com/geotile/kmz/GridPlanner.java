@@ -0,0 +1,156 @@
+package com.geotile.kmz;
+
+import java.awt.Dimension;
+
+// Turns a grid request into a TileGrid once the output raster size is known: a tile count per axis, a target tile
+// size, or the largest texture the viewer displays without downsampling. Optionally every tile is a power of two
+// on each side (edge tiles padded), so viewers upload them to the GPU without resampling, and/or tile edges are
+// snapped to the source file's internal tiles or strips, so windowed reads never decode a block twice.
+public class GridPlanner {
+    public static final String COUNT = "COUNT";
+    public static final String TILE_SIZE = "TILE_SIZE";
+    public static final String MAX_TEXTURE = "MAX_TEXTURE";
+
+    // Google Earth quietly downsamples overlays above the GPU's texture limit; 2048 is safe on practically all GPUs
+    public static final int DEFAULT_MAX_TEXTURE = 2048;
+
+    private final String mode;
+    private final int width;  // tiles across, tile width or max texture size, depending on the mode
+    private final int height;
+    private final boolean powerOfTwo;
+    private final boolean alignToBlocks;
+
+    private GridPlanner(String mode, int width, int height, boolean powerOfTwo, boolean alignToBlocks) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Grid dimensions must be positive: " + width + "x" + height);
+        }
+        this.mode = mode;
+        this.width = width;
+        this.height = height;
+        this.powerOfTwo = powerOfTwo;
+        this.alignToBlocks = alignToBlocks;
+    }
+
+    public static GridPlanner tileCounts(int numTilesX, int numTilesY) {
+        return new GridPlanner(COUNT, numTilesX, numTilesY, false, false);
+    }
+
+    public static GridPlanner tileSize(int tileWidth, int tileHeight) {
+        return new GridPlanner(TILE_SIZE, tileWidth, tileHeight, false, false);
+    }
+
+    // Fewest tiles that keep both sides of every tile within maxSize
+    public static GridPlanner maxTexture(int maxSize) {
+        return new GridPlanner(MAX_TEXTURE, maxSize, maxSize, false, false);
+    }
+
+    public GridPlanner powerOfTwo(boolean enabled) {
+        return new GridPlanner(mode, width, height, enabled, alignToBlocks);
+    }
+
+    // Tile sizes become whole multiples of the source block size (applied after the power-of-two snap)
+    public GridPlanner alignToBlocks(boolean enabled) {
+        return new GridPlanner(mode, width, height, powerOfTwo, enabled);
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public boolean isPowerOfTwo() {
+        return powerOfTwo;
+    }
+
+    public boolean isAlignedToBlocks() {
+        return alignToBlocks;
+    }
+
+    public TileGrid plan(int imageWidth, int imageHeight) {
+        return plan(imageWidth, imageHeight, null);
+    }
+
+    // sourceBlock is the source's internal tile or strip size, or null when the output grid is not the source grid
+    public TileGrid plan(int imageWidth, int imageHeight, Dimension sourceBlock) {
+        TileGrid grid = planUnaligned(imageWidth, imageHeight);
+        if (!alignToBlocks || sourceBlock == null) {
+            return grid;
+        }
+        // Max-texture tiles must not grow, so they round down to whole blocks
+        boolean roundDown = MAX_TEXTURE.equals(mode);
+        int tileWidth = alignToBlock(grid.getTileWidth(), sourceBlock.width, imageWidth, roundDown);
+        int tileHeight = alignToBlock(grid.getTileHeight(), sourceBlock.height, imageHeight, roundDown);
+        if (tileWidth == grid.getTileWidth() && tileHeight == grid.getTileHeight()) {
+            return grid;
+        }
+        TileGrid aligned = TileGrid.fromTileSize(imageWidth, imageHeight, tileWidth, tileHeight);
+        return grid.hasPaddedEdges() ? aligned.withPaddedEdges() : aligned;
+    }
+
+    private TileGrid planUnaligned(int imageWidth, int imageHeight) {
+        if (!powerOfTwo) {
+            switch (mode) {
+                case TILE_SIZE:
+                    return TileGrid.fromTileSize(imageWidth, imageHeight, width, height);
+                case MAX_TEXTURE:
+                    // Spread the pixels evenly instead of leaving a thin last row/column
+                    return TileGrid.fromTileCounts(imageWidth, imageHeight,
+                        ceilDiv(imageWidth, width), ceilDiv(imageHeight, height));
+                default:
+                    return TileGrid.fromTileCounts(imageWidth, imageHeight, width, height);
+            }
+        }
+
+        int tileWidth;
+        int tileHeight;
+        switch (mode) {
+            case TILE_SIZE:
+                tileWidth = nearestPowerOfTwo(width);
+                tileHeight = nearestPowerOfTwo(height);
+                break;
+            case MAX_TEXTURE:
+                // No bigger than the image needs, so small inputs do not become one mostly empty texture
+                tileWidth = Math.min(floorPowerOfTwo(width), ceilPowerOfTwo(imageWidth));
+                tileHeight = Math.min(floorPowerOfTwo(height), ceilPowerOfTwo(imageHeight));
+                break;
+            default:
+                // At most the requested count; rounding the size up can only merge tiles
+                tileWidth = ceilPowerOfTwo(ceilDiv(imageWidth, width));
+                tileHeight = ceilPowerOfTwo(ceilDiv(imageHeight, height));
+                break;
+        }
+        return TileGrid.fromTileSize(imageWidth, imageHeight, tileWidth, tileHeight).withPaddedEdges();
+    }
+
+    @Override
+    public String toString() {
+        return mode + ":" + width + "x" + height + (powerOfTwo ? ":pow2" : "") + (alignToBlocks ? ":aligned" : "");
+    }
+
+    // A block spanning the whole axis (e.g. the width of a strip) cannot be aligned to, so that axis is left alone;
+    // so is an axis where a single block is already larger than a tile that must not grow
+    private static int alignToBlock(int size, int block, int imageSize, boolean roundDown) {
+        if (block <= 0 || block >= imageSize || (roundDown && block > size)) {
+            return size;
+        }
+        int blocks = roundDown ? size / block : (int) Math.round((double) size / block);
+        return Math.max(1, blocks) * block;
+    }
+
+    static int floorPowerOfTwo(int value) {
+        return Integer.highestOneBit(Math.max(1, value));
+    }
+
+    static int ceilPowerOfTwo(int value) {
+        int floor = floorPowerOfTwo(value);
+        return floor == value ? floor : floor << 1;
+    }
+
+    static int nearestPowerOfTwo(int value) {
+        int floor = floorPowerOfTwo(value);
+        return value - floor <= (floor << 1) - value ? floor : floor << 1;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
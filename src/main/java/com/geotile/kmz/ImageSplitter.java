@@ -0,0 +1,152 @@
+package com.geotile.kmz;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class ImageSplitter {
+    // Sequential formats (JPEG, PNG, GIF) decode from the top on every read, so they are read in bands of
+    // whole tile rows; a band holds as many tile rows as fit in this many pixels, and at least one
+    public static final long DEFAULT_BAND_PIXELS = 64L * 1024 * 1024;
+
+    public interface TileHandler {
+        void handle(ImageTile tile) throws IOException;
+    }
+
+    private long bandPixels = DEFAULT_BAND_PIXELS;
+
+    public void setBandPixels(long bandPixels) {
+        this.bandPixels = Math.max(1, bandPixels);
+    }
+
+    public List<ImageTile> splitImage(File extractedDir, int tileWidth, int tileHeight) throws IOException {
+        List<ImageTile> tiles = new ArrayList<>();
+        splitImage(extractedDir, tileWidth, tileHeight, tiles::add);
+        return tiles;
+    }
+
+    // Splits the KMZ's first image, decoded straight from the archive without extracting anything
+    public List<ImageTile> splitImage(KMZArchive archive, int tileWidth, int tileHeight) throws IOException {
+        List<ImageTile> tiles = new ArrayList<>();
+        splitImage(archive, tileWidth, tileHeight, tiles::add);
+        return tiles;
+    }
+
+    // Hands tiles over as they are decoded, row by row; a tile shares pixels with the band it was cut from, so
+    // memory stays at about one band as long as the handler does not keep the tiles
+    public void splitImage(File extractedDir, int tileWidth, int tileHeight, TileHandler handler) throws IOException {
+        // Find the image file in the extracted directory
+        File imageFile = findImageFile(extractedDir);
+        if (imageFile == null) {
+            throw new IOException("No image file found in KMZ");
+        }
+
+        try (ImageInputStream in = ImageIO.createImageInputStream(imageFile)) {
+            if (in == null) {
+                throw new IOException("Failed to read image file");
+            }
+            split(in, imageFile.getName(), tileWidth, tileHeight, handler);
+        }
+    }
+
+    public void splitImage(KMZArchive archive, int tileWidth, int tileHeight, TileHandler handler) throws IOException {
+        List<String> images = archive.getImageEntries();
+        if (images.isEmpty()) {
+            throw new IOException("No image file found in KMZ");
+        }
+        String name = images.get(0);
+        // Cached in memory so bands can seek back; that holds the compressed entry, not decoded pixels
+        try (InputStream entry = archive.open(name);
+             ImageInputStream in = new MemoryCacheImageInputStream(entry)) {
+            split(in, name, tileWidth, tileHeight, handler);
+        }
+    }
+
+    private void split(ImageInputStream in, String name, int tileWidth, int tileHeight, TileHandler handler)
+            throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported image format: " + name);
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(in, false, false);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+
+            // Calculate number of tiles
+            int cols = (int) Math.ceil((double) width / tileWidth);
+            int rows = (int) Math.ceil((double) height / tileHeight);
+
+            // Tiled or random-access sources can decode each tile on its own
+            boolean perTile = reader.isImageTiled(0) || reader.isRandomAccessEasy(0);
+            int bandRows = perTile ? 1
+                : (int) Math.max(1, Math.min(rows, bandPixels / ((long) width * tileHeight)));
+
+            for (int row = 0; row < rows; row += bandRows) {
+                int y = row * tileHeight;
+                int bandHeight = Math.min(bandRows * tileHeight, height - y);
+                BufferedImage band = perTile ? null : readRegion(reader, new Rectangle(0, y, width, bandHeight), name);
+
+                // Split the band into tiles
+                for (int r = row; r < Math.min(rows, row + bandRows); r++) {
+                    for (int col = 0; col < cols; col++) {
+                        int x = col * tileWidth;
+                        int tileY = r * tileHeight;
+
+                        // Calculate actual tile dimensions (might be smaller for edge tiles)
+                        int actualWidth = Math.min(tileWidth, width - x);
+                        int actualHeight = Math.min(tileHeight, height - tileY);
+
+                        // Create tile image
+                        BufferedImage tileImage = perTile
+                            ? readRegion(reader, new Rectangle(x, tileY, actualWidth, actualHeight), name)
+                            : band.getSubimage(x, tileY - y, actualWidth, actualHeight);
+
+                        handler.handle(new ImageTile(tileImage, r, col, x, tileY, actualWidth, actualHeight));
+                    }
+                }
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private BufferedImage readRegion(ImageReader reader, Rectangle region, String name) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(region);
+        try {
+            return reader.read(0, param);
+        } catch (IOException e) {
+            throw new IOException("Failed to read " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    private File findImageFile(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && isImageFile(file.getName())) {
+                    return file;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean isImageFile(String fileName) {
+        String lowerName = fileName.toLowerCase();
+        return lowerName.endsWith(".jpg") || lowerName.endsWith(".jpeg") || 
+               lowerName.endsWith(".png") || lowerName.endsWith(".gif");
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,143 @@
+package com.geotile.kmz;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+public class KMLHelper {
+    private static final Pattern GROUND_OVERLAY =
+        Pattern.compile("(<GroundOverlay(?:\\s[^>]*)?>)(.*?)</GroundOverlay>", Pattern.DOTALL);
+    private static final Pattern OVERLAY_COLOR = Pattern.compile("<color>\\s*([^<]*?)\\s*</color>");
+    
+    public static double[] parseLatLonBox(File kmlFile) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        return parseLatLonBox(builder.parse(kmlFile));
+    }
+
+    // For KML read straight from a KMZArchive entry
+    public static double[] parseLatLonBox(InputStream kml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        return parseLatLonBox(builder.parse(kml));
+    }
+
+    private static double[] parseLatLonBox(Document document) throws Exception {
+        NodeList latLonBoxList = document.getElementsByTagName("LatLonBox");
+        if (latLonBoxList.getLength() == 0) {
+            throw new Exception("No LatLonBox found in KML file");
+        }
+        
+        Element latLonBox = (Element) latLonBoxList.item(0);
+        double north = Double.parseDouble(getElementText(latLonBox, "north"));
+        double south = Double.parseDouble(getElementText(latLonBox, "south"));
+        double east = Double.parseDouble(getElementText(latLonBox, "east"));
+        double west = Double.parseDouble(getElementText(latLonBox, "west"));
+        
+        return new double[]{north, south, east, west};
+    }
+    
+    public static void calculateTileBounds(ImageTile tile, double[] originalBounds, 
+                                         int originalWidth, int originalHeight) {
+        double north = originalBounds[0];
+        double south = originalBounds[1];
+        double east = originalBounds[2];
+        double west = originalBounds[3];
+        
+        // Calculate the ratio of the tile's position to the original image
+        double xRatio = (double) tile.getX() / originalWidth;
+        double yRatio = (double) tile.getY() / originalHeight;
+        double widthRatio = (double) tile.getWidth() / originalWidth;
+        double heightRatio = (double) tile.getHeight() / originalHeight;
+        
+        // Calculate the tile's bounds
+        double tileWest = west + (east - west) * xRatio;
+        double tileEast = tileWest + (east - west) * widthRatio;
+        double tileNorth = north - (north - south) * yRatio;
+        double tileSouth = tileNorth - (north - south) * heightRatio;
+        
+        tile.setBounds(tileNorth, tileSouth, tileEast, tileWest);
+    }
+    
+    // KML colors are aabbggrr; white keeps the image colors and only the alpha is applied
+    public static String opacityToColor(float opacity) {
+        int alpha = Math.round(Math.max(0.0f, Math.min(1.0f, opacity)) * 255);
+        return String.format("%02xffffff", alpha);
+    }
+
+    // Changes overlay opacity by rewriting only doc.kml; image entries are copied without being decoded
+    public static void setOverlayOpacity(File kmzFile, float opacity) throws IOException {
+        String color = opacityToColor(opacity);
+
+        // The writer only replaces kmzFile on a clean close, after the source below has been closed
+        try (KMZWriter target = new KMZWriter(kmzFile, Deflater.BEST_COMPRESSION);
+             ZipFile source = new ZipFile(kmzFile)) {
+            try {
+                Enumeration<? extends ZipEntry> entries = source.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+
+                    byte[] data;
+                    try (InputStream in = source.getInputStream(entry)) {
+                        data = in.readAllBytes();
+                    }
+                    if (entry.getName().toLowerCase().endsWith(".kml")) {
+                        data = setGroundOverlayColor(new String(data, StandardCharsets.UTF_8), color)
+                            .getBytes(StandardCharsets.UTF_8);
+                    }
+                    target.writeEntry(entry.getName(), data);
+                }
+            } catch (IOException | RuntimeException e) {
+                target.abort();
+                throw e;
+            }
+        }
+    }
+
+    // Replaces the <color> of every GroundOverlay wherever it sits among the overlay's children, and adds one
+    // right after the opening tag where an overlay has none
+    static String setGroundOverlayColor(String kml, String color) {
+        Matcher overlays = GROUND_OVERLAY.matcher(kml);
+        StringBuilder result = new StringBuilder(kml.length() + 64);
+        while (overlays.find()) {
+            String body = overlays.group(2);
+            Matcher existing = OVERLAY_COLOR.matcher(body);
+            boolean found = false;
+            // An inline <Style> may carry colors of its own; only the overlay's direct <color> is replaced
+            while (!found && existing.find()) {
+                String before = body.substring(0, existing.start());
+                found = before.lastIndexOf("<Style") <= before.lastIndexOf("</Style");
+            }
+            String updated = found
+                ? body.substring(0, existing.start(1)) + color + body.substring(existing.end(1))
+                : "\n          <color>" + color + "</color>" + body;
+            overlays.appendReplacement(result, Matcher.quoteReplacement(overlays.group(1) + updated + "</GroundOverlay>"));
+        }
+        overlays.appendTail(result);
+        return result.toString();
+    }
+
+    private static String getElementText(Element parent, String tagName) {
+        NodeList nodeList = parent.getElementsByTagName(tagName);
+        if (nodeList.getLength() > 0) {
+            return nodeList.item(0).getTextContent();
+        }
+        return "";
+    }
+} 
\ No newline at end of file
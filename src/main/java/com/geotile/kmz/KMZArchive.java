@@ -0,0 +1,140 @@
+package com.geotile.kmz;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Read access to a KMZ without extracting it: only the zip central directory is read up front, and each entry
+// is decompressed when it is opened, straight from the archive. ZipFile allows concurrent entry streams, so
+// independent images can be decoded on several threads at once. Entries whose paths could escape a directory
+// (absolute, "..", drive letters, backslashes) are left out and cannot be opened.
+public class KMZArchive implements Closeable {
+    private final File file;
+    private final ZipFile zip;
+    private final Map<String, ZipEntry> entries = new LinkedHashMap<>(); // in central directory order
+
+    public KMZArchive(File file) throws IOException {
+        if (!file.exists()) {
+            throw new FileNotFoundException("KMZ file not found: " + file.getPath());
+        }
+        this.file = file;
+        try {
+            this.zip = new ZipFile(file);
+        } catch (IOException e) {
+            throw new IOException("Failed to open KMZ " + file.getName() + ": " + e.getMessage(), e);
+        }
+        Enumeration<? extends ZipEntry> all = zip.entries();
+        while (all.hasMoreElements()) {
+            ZipEntry entry = all.nextElement();
+            if (!entry.isDirectory() && isSafeEntryName(entry.getName())) {
+                entries.put(entry.getName(), entry);
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public List<String> getEntryNames() {
+        return Collections.unmodifiableList(new ArrayList<>(entries.keySet()));
+    }
+
+    public List<String> getImageEntries() {
+        List<String> images = new ArrayList<>();
+        for (String name : entries.keySet()) {
+            if (isImageEntry(name)) {
+                images.add(name);
+            }
+        }
+        return images;
+    }
+
+    // The document Google Earth opens: doc.kml at the root if present, else the first .kml in the archive
+    public String getRootKml() {
+        String first = null;
+        for (String name : entries.keySet()) {
+            if (name.equalsIgnoreCase("doc.kml")) {
+                return name;
+            }
+            if (first == null && name.toLowerCase().endsWith(".kml")) {
+                first = name;
+            }
+        }
+        return first;
+    }
+
+    // Uncompressed size, or -1 if the archive does not record it
+    public long getSize(String name) throws IOException {
+        return entry(name).getSize();
+    }
+
+    // Decompresses as it is read; only the bytes actually read are taken from the archive
+    public InputStream open(String name) throws IOException {
+        try {
+            return zip.getInputStream(entry(name));
+        } catch (IOException e) {
+            throw new IOException("Failed to read " + name + " from " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    public BufferedImage readImage(String name) throws IOException {
+        try (InputStream in = open(name)) {
+            // Cached in memory rather than in ImageIO's temporary files; ImageIO.read closes only this wrapper
+            BufferedImage image = ImageIO.read(new MemoryCacheImageInputStream(in));
+            if (image == null) {
+                throw new IOException("Unsupported image format: " + name);
+            }
+            return image;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+
+    private ZipEntry entry(String name) throws IOException {
+        if (!isSafeEntryName(name)) {
+            throw new IOException("Unsafe entry path in " + file.getName() + ": " + name);
+        }
+        ZipEntry entry = entries.get(name);
+        if (entry == null) {
+            throw new FileNotFoundException("No entry " + name + " in " + file.getName());
+        }
+        return entry;
+    }
+
+    // Relative, forward-slash paths that stay inside the directory they would be extracted to
+    static boolean isSafeEntryName(String name) {
+        if (name.isEmpty() || name.startsWith("/") || name.indexOf('\\') >= 0 || name.indexOf(':') >= 0
+            || name.indexOf('\0') >= 0) {
+            return false;
+        }
+        for (String segment : name.split("/")) {
+            if (segment.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isImageEntry(String name) {
+        String lowerName = name.toLowerCase();
+        return lowerName.endsWith(".jpg") || lowerName.endsWith(".jpeg")
+            || lowerName.endsWith(".png") || lowerName.endsWith(".gif");
+    }
+}
@@ -0,0 +1,48 @@
+package com.geotile.kmz;
+
+import java.io.*;
+import java.nio.file.*;
+
+public class KMZExtractor {
+
+    // Preferred over extractKMZ: entries are read from the archive on demand and nothing is written to disk
+    public KMZArchive open(String kmzPath) throws IOException {
+        return new KMZArchive(new File(kmzPath));
+    }
+
+    // Extracts every entry to a new temporary directory, which the caller must delete (see deleteExtracted)
+    public File extractKMZ(String kmzPath) throws IOException {
+        // Create temporary directory for extraction
+        Path tempDir = Files.createTempDirectory("kmz_extract_");
+
+        try (KMZArchive archive = open(kmzPath)) {
+            // Unsafe entry paths are never listed, so nothing lands outside tempDir
+            for (String name : archive.getEntryNames()) {
+                Path filePath = tempDir.resolve(name);
+
+                // Create parent directories if they don't exist
+                Files.createDirectories(filePath.getParent());
+
+                // Extract file
+                try (InputStream in = archive.open(name)) {
+                    Files.copy(in, filePath, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } catch (IOException e) {
+            deleteExtracted(tempDir.toFile());
+            throw e;
+        }
+
+        return tempDir.toFile();
+    }
+
+    public static void deleteExtracted(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteExtracted(file);
+            }
+        }
+        directory.delete();
+    }
+}
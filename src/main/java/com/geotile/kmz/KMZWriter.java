@@ -0,0 +1,333 @@
+package com.geotile.kmz;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+public class KMZWriter implements Closeable {
+    public interface EntryContent {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    private static final int ZIP64_ENTRY_LIMIT = 0xFFFF;
+    private static final int PARALLEL_CHUNK_SIZE = 256 * 1024;
+
+    private final File kmzFile;
+    private final File tempFile;
+    private final OutputStream out;
+    private final ParallelDeflater deflater;
+    private final ExecutorService workers;
+    private final int maxPending;
+    private final Deque<Future<PreparedEntry>> pending = new ArrayDeque<>();
+    private final List<PreparedEntry> written = new ArrayList<>();
+    private final int dosTime;
+    private final int dosDate;
+    private long offset;
+    private boolean failed;
+    private boolean aborted;
+
+    public KMZWriter(File kmzFile, int compressionLevel) throws IOException {
+        this(kmzFile, compressionLevel, Runtime.getRuntime().availableProcessors());
+    }
+
+    public KMZWriter(File kmzFile, int compressionLevel, int threads) throws IOException {
+        // Written next to the target and moved over it only once complete, so a failed run never replaces a good KMZ
+        this.kmzFile = kmzFile;
+        this.tempFile = File.createTempFile(kmzFile.getName() + ".", ".tmp", kmzFile.getAbsoluteFile().getParentFile());
+        this.out = new BufferedOutputStream(new FileOutputStream(tempFile), 256 * 1024);
+        this.deflater = new ParallelDeflater(compressionLevel, PARALLEL_CHUNK_SIZE);
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "kmz-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxPending = Math.max(1, threads) * 2;
+
+        LocalDateTime now = LocalDateTime.now();
+        this.dosTime = (now.getHour() << 11) | (now.getMinute() << 5) | (now.getSecond() >> 1);
+        this.dosDate = ((now.getYear() - 1980) << 9) | (now.getMonthValue() << 5) | now.getDayOfMonth();
+    }
+
+    public void writeEntry(String entryPath, byte[] data) throws IOException {
+        submit(() -> prepare(entryPath, data, data.length));
+    }
+
+    // The content is produced on a worker thread, so encoders can run in parallel with the archive writes
+    public void writeEntry(String entryPath, EntryContent content) throws IOException {
+        submit(() -> {
+            ExposedByteArrayOutputStream buffer = new ExposedByteArrayOutputStream();
+            content.writeTo(buffer);
+            return prepare(entryPath, buffer.buffer(), buffer.size());
+        });
+    }
+
+    private void submit(Callable<PreparedEntry> task) throws IOException {
+        if (failed) {
+            throw new IOException("Failed to write " + kmzFile.getName() + ": an earlier entry failed");
+        }
+        try {
+            pending.addLast(workers.submit(task));
+
+            // Entries are appended strictly in submission order; block on the oldest once the window is full
+            while (pending.size() > maxPending || (!pending.isEmpty() && pending.peekFirst().isDone())) {
+                writePrepared(await(pending.pollFirst()));
+            }
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    private PreparedEntry prepare(String entryPath, byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+
+        // PNG/JPEG payloads are already compressed; deflating them again only burns CPU
+        byte[] stored = null;
+        if (!isPrecompressed(entryPath)) {
+            stored = deflater.deflate(data, 0, length);
+            if (stored.length >= length) {
+                stored = null;
+            }
+        }
+
+        PreparedEntry entry = new PreparedEntry();
+        entry.name = entryPath.getBytes(StandardCharsets.UTF_8);
+        entry.crc = crc.getValue();
+        entry.uncompressedSize = length;
+        if (stored != null) {
+            entry.method = 8;
+            entry.data = stored;
+            entry.dataLength = stored.length;
+        } else {
+            entry.method = 0;
+            entry.data = data;
+            entry.dataLength = length;
+        }
+        return entry;
+    }
+
+    private static boolean isPrecompressed(String entryPath) {
+        String name = entryPath.toLowerCase();
+        return name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".gif");
+    }
+
+    private PreparedEntry await(Future<PreparedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("KMZ writing interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to prepare KMZ entry: " + cause.getMessage(), cause);
+        }
+    }
+
+    private void writePrepared(PreparedEntry entry) throws IOException {
+        entry.localHeaderOffset = offset;
+        boolean zip64 = entry.uncompressedSize >= ZIP64_LIMIT || entry.dataLength >= ZIP64_LIMIT;
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(64 + entry.name.length);
+        writeInt(header, 0x04034b50);
+        writeShort(header, zip64 ? 45 : 20);
+        writeShort(header, 0x0800); // UTF-8 names
+        writeShort(header, entry.method);
+        writeShort(header, dosTime);
+        writeShort(header, dosDate);
+        writeInt(header, entry.crc);
+        writeInt(header, zip64 ? ZIP64_LIMIT : entry.dataLength);
+        writeInt(header, zip64 ? ZIP64_LIMIT : entry.uncompressedSize);
+        writeShort(header, entry.name.length);
+        writeShort(header, zip64 ? 20 : 0);
+        header.write(entry.name);
+        if (zip64) {
+            writeShort(header, 0x0001);
+            writeShort(header, 16);
+            writeLong(header, entry.uncompressedSize);
+            writeLong(header, entry.dataLength);
+        }
+
+        header.writeTo(out);
+        out.write(entry.data, 0, entry.dataLength);
+        offset += header.size() + entry.dataLength;
+
+        // Only the metadata is needed for the central directory
+        entry.data = null;
+        written.add(entry);
+    }
+
+    // For callers whose own code failed between entries: close() then discards the archive instead of publishing it
+    public void abort() {
+        aborted = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (aborted) {
+                workers.shutdownNow();
+                out.close();
+                return;
+            }
+            try {
+                // After a failed entry the archive would be missing tiles; leave whatever was at the output path
+                if (failed) {
+                    throw new IOException("Failed to write " + kmzFile.getName() + ": an entry could not be written");
+                }
+                while (!pending.isEmpty()) {
+                    writePrepared(await(pending.pollFirst()));
+                }
+                writeCentralDirectory();
+            } finally {
+                workers.shutdownNow();
+                out.close();
+            }
+            Files.move(tempFile.toPath(), kmzFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long directoryOffset = offset;
+        ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        for (PreparedEntry entry : written) {
+            boolean largeUncompressed = entry.uncompressedSize >= ZIP64_LIMIT;
+            boolean largeCompressed = entry.dataLength >= ZIP64_LIMIT;
+            boolean largeOffset = entry.localHeaderOffset >= ZIP64_LIMIT;
+            int extraLength = (largeUncompressed ? 8 : 0) + (largeCompressed ? 8 : 0) + (largeOffset ? 8 : 0);
+            boolean zip64 = extraLength > 0;
+
+            writeInt(directory, 0x02014b50);
+            writeShort(directory, zip64 ? 45 : 20);
+            writeShort(directory, zip64 ? 45 : 20);
+            writeShort(directory, 0x0800);
+            writeShort(directory, entry.method);
+            writeShort(directory, dosTime);
+            writeShort(directory, dosDate);
+            writeInt(directory, entry.crc);
+            writeInt(directory, largeCompressed ? ZIP64_LIMIT : entry.dataLength);
+            writeInt(directory, largeUncompressed ? ZIP64_LIMIT : entry.uncompressedSize);
+            writeShort(directory, entry.name.length);
+            writeShort(directory, zip64 ? extraLength + 4 : 0);
+            writeShort(directory, 0); // comment
+            writeShort(directory, 0); // disk number
+            writeShort(directory, 0); // internal attributes
+            writeInt(directory, 0);   // external attributes
+            writeInt(directory, largeOffset ? ZIP64_LIMIT : entry.localHeaderOffset);
+            directory.write(entry.name);
+            if (zip64) {
+                writeShort(directory, 0x0001);
+                writeShort(directory, extraLength);
+                if (largeUncompressed) {
+                    writeLong(directory, entry.uncompressedSize);
+                }
+                if (largeCompressed) {
+                    writeLong(directory, entry.dataLength);
+                }
+                if (largeOffset) {
+                    writeLong(directory, entry.localHeaderOffset);
+                }
+            }
+
+            // Flush in batches so a 100k-entry directory does not sit in one buffer
+            if (directory.size() > 1024 * 1024) {
+                offset += directory.size();
+                directory.writeTo(out);
+                directory.reset();
+            }
+        }
+        offset += directory.size();
+        directory.writeTo(out);
+        directory.reset();
+
+        long directorySize = offset - directoryOffset;
+        int entryCount = written.size();
+        boolean zip64 = entryCount >= ZIP64_ENTRY_LIMIT || directorySize >= ZIP64_LIMIT || directoryOffset >= ZIP64_LIMIT;
+
+        ByteArrayOutputStream end = new ByteArrayOutputStream();
+        if (zip64) {
+            long zip64EndOffset = offset;
+            writeInt(end, 0x06064b50);
+            writeLong(end, 44);
+            writeShort(end, 45);
+            writeShort(end, 45);
+            writeInt(end, 0);
+            writeInt(end, 0);
+            writeLong(end, entryCount);
+            writeLong(end, entryCount);
+            writeLong(end, directorySize);
+            writeLong(end, directoryOffset);
+
+            writeInt(end, 0x07064b50);
+            writeInt(end, 0);
+            writeLong(end, zip64EndOffset);
+            writeInt(end, 1);
+        }
+        writeInt(end, 0x06054b50);
+        writeShort(end, 0);
+        writeShort(end, 0);
+        writeShort(end, zip64 ? ZIP64_ENTRY_LIMIT : entryCount);
+        writeShort(end, zip64 ? ZIP64_ENTRY_LIMIT : entryCount);
+        writeInt(end, zip64 ? ZIP64_LIMIT : directorySize);
+        writeInt(end, zip64 ? ZIP64_LIMIT : directoryOffset);
+        writeShort(end, 0);
+        end.writeTo(out);
+        offset += end.size();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, long value) {
+        writeShort(out, (int) (value & 0xFFFF));
+        writeShort(out, (int) ((value >>> 16) & 0xFFFF));
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        writeInt(out, value & 0xFFFFFFFFL);
+        writeInt(out, value >>> 32);
+    }
+
+    private static class PreparedEntry {
+        byte[] name;
+        int method;
+        long crc;
+        long uncompressedSize;
+        byte[] data;
+        int dataLength;
+        long localHeaderOffset;
+    }
+
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.geotile.kmz;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+
+// MBTiles 1.3 store for the EPSG:3857 web pyramid. Callers use XYZ rows; MBTiles keeps TMS rows.
+public class MBTilesWriter extends SQLiteTileWriter {
+    // Metadata row recording how the stored tiles were made, checked before a run resumes into the file
+    private static final String SETTINGS_KEY = "geotile_settings";
+
+    private final String name;
+    private final double[] lonLatBounds;
+    private final int minZoom;
+    private final int maxZoom;
+    private final String settings;
+
+    // lonLatBounds is {west, south, east, north} in WGS84 degrees; settings describes the source and everything
+    // else the tile pixels depend on
+    public MBTilesWriter(File file, String name, double[] lonLatBounds, int minZoom, int maxZoom, String settings)
+            throws IOException {
+        super(file);
+        this.name = name;
+        this.settings = settings;
+        this.lonLatBounds = lonLatBounds;
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        start();
+    }
+
+    @Override
+    protected String tableName() {
+        return "tiles";
+    }
+
+    @Override
+    protected int storedRow(int zoom, int row) {
+        return (1 << zoom) - 1 - row;
+    }
+
+    @Override
+    protected void createSchema(Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE IF NOT EXISTS metadata (name TEXT, value TEXT)");
+        statement.execute("CREATE UNIQUE INDEX IF NOT EXISTS metadata_name ON metadata (name)");
+        statement.execute("CREATE TABLE IF NOT EXISTS tiles " +
+            "(zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB)");
+        statement.execute("CREATE UNIQUE INDEX IF NOT EXISTS tile_index ON tiles (zoom_level, tile_column, tile_row)");
+
+        // Existing tiles are kept on resume, which is only right if they were made from the same source the same way
+        String recorded = null;
+        try (ResultSet result = statement.executeQuery(
+                "SELECT value FROM metadata WHERE name = '" + SETTINGS_KEY + "'")) {
+            if (result.next()) {
+                recorded = result.getString(1);
+            }
+        }
+        boolean hasTiles;
+        try (ResultSet result = statement.executeQuery("SELECT 1 FROM tiles LIMIT 1")) {
+            hasTiles = result.next();
+        }
+        if (hasTiles && !settings.equals(recorded)) {
+            throw new SQLException("the file holds tiles made from a different source or settings; "
+                + "delete it or choose another output to start over");
+        }
+        try (PreparedStatement insert = statement.getConnection().prepareStatement(
+                "INSERT OR REPLACE INTO metadata (name, value) VALUES (?, ?)")) {
+            putMetadata(insert, SETTINGS_KEY, settings);
+            insert.executeBatch();
+        }
+    }
+
+    @Override
+    protected void finish(Connection connection) throws SQLException {
+        // Written last so a resumed run with a wider zoom range updates them
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT OR REPLACE INTO metadata (name, value) VALUES (?, ?)")) {
+            putMetadata(insert, "name", name);
+            putMetadata(insert, "format", "png");
+            putMetadata(insert, "type", "overlay");
+            putMetadata(insert, "version", "1.0");
+            putMetadata(insert, "minzoom", Integer.toString(minZoom));
+            putMetadata(insert, "maxzoom", Integer.toString(maxZoom));
+            putMetadata(insert, "bounds", String.format(Locale.ROOT, "%.8f,%.8f,%.8f,%.8f",
+                lonLatBounds[0], lonLatBounds[1], lonLatBounds[2], lonLatBounds[3]));
+            putMetadata(insert, "center", String.format(Locale.ROOT, "%.8f,%.8f,%d",
+                (lonLatBounds[0] + lonLatBounds[2]) / 2, (lonLatBounds[1] + lonLatBounds[3]) / 2, minZoom));
+            insert.executeBatch();
+        }
+    }
+
+    private static void putMetadata(PreparedStatement insert, String key, String value) throws SQLException {
+        insert.setString(1, key);
+        insert.setString(2, value);
+        insert.addBatch();
+    }
+}
@@ -4,6 +4,11 @@ import javafx.application.Application;
 
 public class Main {
     public static void main(String[] args) {
+        // Any argument selects the headless batch mode; JavaFX is only touched when launching the UI
+        if (args.length > 0) {
+            BatchRunner.main(args);
+            return;
+        }
         Application.launch(SplitterUI.class, args);
     }
-} 
\ No newline at end of file
+}
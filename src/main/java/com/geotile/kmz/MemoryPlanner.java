@@ -0,0 +1,104 @@
+package com.geotile.kmz;
+
+// Chooses how a tiling job holds its pixels so that it fits a heap budget, falling back to slower strategies
+// rather than running out of memory, and caps the tiles in flight across the pipeline stages to what is left.
+public class MemoryPlanner {
+    public static final String FULL = "FULL";         // source rendered once in full, tiles kept in memory
+    public static final String WINDOWED = "WINDOWED"; // source read per tile window, tiles kept in memory
+    public static final String SPILL = "SPILL";       // windowed reads, tiles dropped once written and reloaded from disk
+
+    // Largest pixel count a single int-backed ARGB image can hold
+    private static final long MAX_IMAGE_PIXELS = Integer.MAX_VALUE - 8;
+
+    public static class Plan {
+        private final String strategy;
+        private final int maxTilesInFlight;
+        private final long estimatedBytes;
+        private final boolean fits;
+
+        Plan(String strategy, int maxTilesInFlight, long estimatedBytes, boolean fits) {
+            this.strategy = strategy;
+            this.maxTilesInFlight = maxTilesInFlight;
+            this.estimatedBytes = estimatedBytes;
+            this.fits = fits;
+        }
+
+        public String getStrategy() {
+            return strategy;
+        }
+
+        public boolean isWindowed() {
+            return !FULL.equals(strategy);
+        }
+
+        public boolean releasesTiles() {
+            return SPILL.equals(strategy);
+        }
+
+        public int getMaxTilesInFlight() {
+            return maxTilesInFlight;
+        }
+
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+
+        // False when even one tile in flight is over budget; the job still runs, in the leanest mode
+        public boolean fits() {
+            return fits;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s, %d tiles in flight, ~%d MB", strategy, maxTilesInFlight, estimatedBytes >> 20);
+        }
+    }
+
+    private final long budgetBytes;
+
+    public MemoryPlanner(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    // Heap the JVM can still hand out, less a margin for GeoTools caches and garbage that is not yet collected
+    public static long defaultBudget() {
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return free / 4 * 3;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    // sourceBytesPerPixel is the raw band layout (bands * bytes per sample), which windowed reads hold next to the
+    // ARGB copy. keepsTiles is false for outputs that never hold on to finished tiles (COG, web pyramids), where
+    // spilling has nothing to drop. Inputs over maxFullPixels are always read in windows.
+    public Plan plan(int sourceWidth, int sourceHeight, int sourceBytesPerPixel, int outputWidth, int outputHeight,
+                     int tileWidth, int tileHeight, boolean keepsTiles, int preferredInFlight, long maxFullPixels) {
+        long sourcePixels = (long) sourceWidth * sourceHeight;
+        long tilePixels = (long) tileWidth * tileHeight;
+        long sourceBuffer = sourcePixels * 4;
+        long keptTiles = keepsTiles ? (long) outputWidth * outputHeight * 4 : 0;
+
+        // A tile in flight holds its output image and the encoder's sample and compressed buffers; windowed
+        // reads add the raw window and its ARGB copy, full reads only a view into the rendered source
+        long fullTileBytes = tilePixels * 12;
+        long windowedTileBytes = tilePixels * (16 + sourceBytesPerPixel);
+
+        int preferred = Math.max(1, preferredInFlight);
+        if (sourcePixels <= Math.min(maxFullPixels, MAX_IMAGE_PIXELS)
+            && sourceBuffer + keptTiles + preferred * fullTileBytes <= budgetBytes) {
+            return new Plan(FULL, preferred, sourceBuffer + keptTiles + preferred * fullTileBytes, true);
+        }
+        if (keepsTiles && keptTiles + preferred * windowedTileBytes <= budgetBytes) {
+            return new Plan(WINDOWED, preferred, keptTiles + preferred * windowedTileBytes, true);
+        }
+
+        // Leanest mode: as many tiles in flight as the budget allows, but never fewer than one
+        String strategy = keepsTiles ? SPILL : WINDOWED;
+        int inFlight = (int) Math.max(1, Math.min(preferred, budgetBytes / windowedTileBytes));
+        long estimate = inFlight * windowedTileBytes;
+        return new Plan(strategy, inFlight, estimate, estimate <= budgetBytes);
+    }
+}
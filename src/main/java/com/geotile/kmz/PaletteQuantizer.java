@@ -0,0 +1,340 @@
+package com.geotile.kmz;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+// Reduces ARGB tiles to at most 256 colours with alpha so they can be written as indexed PNGs. Tiles with few
+// colours (scanned maps, classified rasters) get an exact palette; others are median-cut over their colours,
+// weighted by pixel count, optionally with Floyd-Steinberg dithering. A palette can be built per tile or once
+// per job from a sample of the source, so all tiles share the same colours.
+public class PaletteQuantizer {
+    public static final String NONE = "NONE"; // full-colour RGBA PNGs
+    public static final String TILE = "TILE"; // palette built from each tile's own pixels
+    public static final String JOB = "JOB";   // one palette for every tile of the job
+
+    public static final int MAX_COLORS = 256;
+
+    private static final int CACHE_SIZE = 4096; // direct-mapped colour -> index cache, a power of two
+
+    // Fully transparent pixels always map to one transparent entry, so tile edges and nodata stay exact
+    public static class Palette {
+        private final int[] colors;
+        private final boolean exact;
+
+        Palette(int[] colors, boolean exact) {
+            this.colors = colors;
+            this.exact = exact;
+        }
+
+        public int size() {
+            return colors.length;
+        }
+
+        public int getColor(int index) {
+            return colors[index];
+        }
+
+        // Every colour it was built from is in the palette as is
+        public boolean isExact() {
+            return exact;
+        }
+
+        IndexColorModel colorModel() {
+            int bits = colors.length <= 2 ? 1 : colors.length <= 4 ? 2 : colors.length <= 16 ? 4 : 8;
+            byte[] r = new byte[colors.length];
+            byte[] g = new byte[colors.length];
+            byte[] b = new byte[colors.length];
+            byte[] a = new byte[colors.length];
+            for (int i = 0; i < colors.length; i++) {
+                a[i] = (byte) (colors[i] >>> 24);
+                r[i] = (byte) (colors[i] >> 16);
+                g[i] = (byte) (colors[i] >> 8);
+                b[i] = (byte) colors[i];
+            }
+            return new IndexColorModel(bits, colors.length, r, g, b, a);
+        }
+    }
+
+    private PaletteQuantizer() {
+    }
+
+    public static Palette build(BufferedImage image) {
+        return build(argbPixels(image), MAX_COLORS, false);
+    }
+
+    // withTransparent reserves the transparent entry even if pixels have none, for palettes shared by other tiles
+    public static Palette build(int[] pixels, int maxColors, boolean withTransparent) {
+        // Sorting groups equal colours; transparent ones collapse into a single entry up front
+        int[] sorted = new int[pixels.length];
+        int count = 0;
+        boolean transparent = withTransparent;
+        for (int pixel : pixels) {
+            if ((pixel >>> 24) == 0) {
+                transparent = true;
+            } else {
+                sorted[count++] = pixel;
+            }
+        }
+        Arrays.sort(sorted, 0, count);
+        int[] colors = new int[count];
+        int[] weights = new int[count];
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique > 0 && colors[unique - 1] == sorted[i]) {
+                weights[unique - 1]++;
+            } else {
+                colors[unique] = sorted[i];
+                weights[unique++] = 1;
+            }
+        }
+
+        int slots = Math.max(1, maxColors - (transparent ? 1 : 0));
+        int[] palette;
+        boolean exact = unique <= slots;
+        if (exact) {
+            palette = Arrays.copyOf(colors, unique);
+        } else {
+            palette = medianCut(colors, weights, unique, slots);
+        }
+        if (transparent || palette.length == 0) {
+            int[] padded = new int[palette.length + 1];
+            System.arraycopy(palette, 0, padded, 1, palette.length);
+            palette = padded;
+        }
+        return new Palette(palette, exact);
+    }
+
+    // Indexed copy of image. Dithering a tile with its own exact palette would change nothing, so callers skip it.
+    public static BufferedImage apply(BufferedImage image, Palette palette, boolean dither) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        IndexColorModel model = palette.colorModel();
+        BufferedImage indexed = model.getPixelSize() < 8
+            ? new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY, model)
+            : new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, model);
+        WritableRaster raster = indexed.getRaster();
+        int[] pixels = argbPixels(image);
+        int[] cacheKeys = new int[CACHE_SIZE];
+        int[] cacheIndexes = new int[CACHE_SIZE];
+        Arrays.fill(cacheIndexes, -1);
+
+        if (!dither) {
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = nearest(palette, pixels[y * width + x], cacheKeys, cacheIndexes);
+                }
+                raster.setSamples(0, y, width, 1, 0, row);
+            }
+            return indexed;
+        }
+
+        // Floyd-Steinberg over all four channels; errors for this row and the next, with a pixel of margin each side
+        float[] current = new float[(width + 2) * 4];
+        float[] next = new float[(width + 2) * 4];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[y * width + x];
+                if ((pixel >>> 24) == 0) {
+                    // Transparent stays transparent and passes no error on
+                    row[x] = nearest(palette, pixel, cacheKeys, cacheIndexes);
+                    continue;
+                }
+                int e = (x + 1) * 4;
+                int a = clamp((pixel >>> 24) + current[e]);
+                int r = clamp(((pixel >> 16) & 0xFF) + current[e + 1]);
+                int g = clamp(((pixel >> 8) & 0xFF) + current[e + 2]);
+                int b = clamp((pixel & 0xFF) + current[e + 3]);
+                // Keep dithered pixels visible; a fully transparent index would punch holes into the data
+                int wanted = (Math.max(1, a) << 24) | (r << 16) | (g << 8) | b;
+                int index = nearest(palette, wanted, cacheKeys, cacheIndexes);
+                row[x] = index;
+
+                int chosen = palette.colors[index];
+                diffuse(current, next, e, a - (chosen >>> 24), 0);
+                diffuse(current, next, e, r - ((chosen >> 16) & 0xFF), 1);
+                diffuse(current, next, e, g - ((chosen >> 8) & 0xFF), 2);
+                diffuse(current, next, e, b - (chosen & 0xFF), 3);
+            }
+            raster.setSamples(0, y, width, 1, 0, row);
+            float[] swap = current;
+            current = next;
+            next = swap;
+            Arrays.fill(next, 0);
+        }
+        return indexed;
+    }
+
+    private static void diffuse(float[] current, float[] next, int e, int error, int channel) {
+        current[e + 4 + channel] += error * 7 / 16f;
+        next[e - 4 + channel] += error * 3 / 16f;
+        next[e + channel] += error * 5 / 16f;
+        next[e + 4 + channel] += error / 16f;
+    }
+
+    private static int clamp(float value) {
+        return value <= 0 ? 0 : value >= 255 ? 255 : Math.round(value);
+    }
+
+    // Boxes of colours split at the weighted median of their widest channel until there are enough boxes;
+    // each box becomes its weighted mean colour
+    private static int[] medianCut(int[] colors, int[] weights, int count, int maxColors) {
+        int[] starts = new int[maxColors];
+        int[] ends = new int[maxColors];
+        int[] channels = new int[maxColors];
+        long[] scores = new long[maxColors]; // widest channel range times weight; 0 once a box cannot split
+        int boxes = 1;
+        ends[0] = count;
+        score(colors, weights, starts, ends, channels, scores, 0);
+        while (boxes < maxColors) {
+            int widest = -1;
+            for (int i = 0; i < boxes; i++) {
+                if (scores[i] > 0 && (widest < 0 || scores[i] > scores[widest])) {
+                    widest = i;
+                }
+            }
+            if (widest < 0) {
+                break;
+            }
+            int split = splitBox(colors, weights, starts[widest], ends[widest], channels[widest]);
+            starts[boxes] = split;
+            ends[boxes] = ends[widest];
+            ends[widest] = split;
+            score(colors, weights, starts, ends, channels, scores, widest);
+            score(colors, weights, starts, ends, channels, scores, boxes);
+            boxes++;
+        }
+
+        int[] palette = new int[boxes];
+        for (int i = 0; i < boxes; i++) {
+            palette[i] = meanColor(colors, weights, starts[i], ends[i]);
+        }
+        return palette;
+    }
+
+    // Orders the box along channel and returns the first index past half its weight (never the box's ends)
+    private static int splitBox(int[] colors, int[] weights, int start, int end, int channel) {
+        int shift = 24 - channel * 8;
+        long[] keyed = new long[end - start];
+        for (int i = start; i < end; i++) {
+            // Channel value on top, original position below, so weights can follow their colours
+            keyed[i - start] = ((long) ((colors[i] >>> shift) & 0xFF) << 32) | (i - start);
+        }
+        Arrays.sort(keyed);
+        int[] sortedColors = new int[keyed.length];
+        int[] sortedWeights = new int[keyed.length];
+        for (int i = 0; i < keyed.length; i++) {
+            int from = start + (int) keyed[i];
+            sortedColors[i] = colors[from];
+            sortedWeights[i] = weights[from];
+        }
+        System.arraycopy(sortedColors, 0, colors, start, keyed.length);
+        System.arraycopy(sortedWeights, 0, weights, start, keyed.length);
+
+        long half = weightOf(weights, start, end) / 2;
+        long sum = 0;
+        for (int i = start; i < end - 1; i++) {
+            sum += weights[i];
+            if (sum >= half) {
+                return i + 1;
+            }
+        }
+        return end - 1;
+    }
+
+    // Picks the box's widest channel (0 = alpha, 1 = red, 2 = green, 3 = blue) and how worth splitting it is
+    private static void score(int[] colors, int[] weights, int[] starts, int[] ends, int[] channels, long[] scores,
+                              int box) {
+        channels[box] = 0;
+        scores[box] = 0;
+        if (ends[box] - starts[box] < 2) {
+            return;
+        }
+        int widestRange = -1;
+        for (int channel = 0; channel < 4; channel++) {
+            int range = channelRange(colors, starts[box], ends[box], channel);
+            if (range > widestRange) {
+                channels[box] = channel;
+                widestRange = range;
+            }
+        }
+        scores[box] = (long) widestRange * weightOf(weights, starts[box], ends[box]);
+    }
+
+    private static int channelRange(int[] colors, int start, int end, int channel) {
+        int shift = 24 - channel * 8;
+        int min = 255;
+        int max = 0;
+        for (int i = start; i < end; i++) {
+            int value = (colors[i] >>> shift) & 0xFF;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        return max - min;
+    }
+
+    private static long weightOf(int[] weights, int start, int end) {
+        long sum = 0;
+        for (int i = start; i < end; i++) {
+            sum += weights[i];
+        }
+        return sum;
+    }
+
+    private static int meanColor(int[] colors, int[] weights, int start, int end) {
+        long a = 0;
+        long r = 0;
+        long g = 0;
+        long b = 0;
+        long total = 0;
+        for (int i = start; i < end; i++) {
+            long w = weights[i];
+            a += (colors[i] >>> 24) * w;
+            r += ((colors[i] >> 16) & 0xFF) * w;
+            g += ((colors[i] >> 8) & 0xFF) * w;
+            b += (colors[i] & 0xFF) * w;
+            total += w;
+        }
+        return (int) ((a + total / 2) / total) << 24 | (int) ((r + total / 2) / total) << 16
+            | (int) ((g + total / 2) / total) << 8 | (int) ((b + total / 2) / total);
+    }
+
+    // Closest palette entry by squared ARGB distance; transparent pixels go to a transparent entry if there is one
+    private static int nearest(Palette palette, int pixel, int[] cacheKeys, int[] cacheIndexes) {
+        if ((pixel >>> 24) == 0) {
+            pixel = 0;
+        }
+        int slot = (pixel * 0x9E3779B1) >>> (32 - Integer.numberOfTrailingZeros(CACHE_SIZE));
+        if (cacheIndexes[slot] >= 0 && cacheKeys[slot] == pixel) {
+            return cacheIndexes[slot];
+        }
+        int[] colors = palette.colors;
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < colors.length && bestDistance > 0; i++) {
+            int da = (pixel >>> 24) - (colors[i] >>> 24);
+            int dr = ((pixel >> 16) & 0xFF) - ((colors[i] >> 16) & 0xFF);
+            int dg = ((pixel >> 8) & 0xFF) - ((colors[i] >> 8) & 0xFF);
+            int db = (pixel & 0xFF) - (colors[i] & 0xFF);
+            int distance = da * da + dr * dr + dg * dg + db * db;
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        cacheKeys[slot] = pixel;
+        cacheIndexes[slot] = best;
+        return best;
+    }
+
+    private static int[] argbPixels(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB && image.getRaster().getParent() == null) {
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
@@ -0,0 +1,71 @@
+package com.geotile.kmz;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+
+public class ParallelDeflater {
+    // Deflate back-references reach at most 32 KB, so that much history keeps chunked output as tight as a serial run
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final int level;
+    private final int chunkSize;
+
+    public ParallelDeflater(int level, int chunkSize) {
+        this.level = level;
+        this.chunkSize = Math.max(DICTIONARY_SIZE, chunkSize);
+    }
+
+    // Produces a raw deflate stream (no zlib header); chunks are compressed independently and concatenated pigz-style
+    public byte[] deflate(byte[] data, int offset, int length) {
+        int chunks = Math.max(1, (length + chunkSize - 1) / chunkSize);
+        if (chunks == 1) {
+            return deflateChunk(data, offset, length, offset, true);
+        }
+
+        List<byte[]> parts = IntStream.range(0, chunks).parallel()
+            .mapToObj(i -> {
+                int start = offset + i * chunkSize;
+                int end = Math.min(offset + length, start + chunkSize);
+                return deflateChunk(data, start, end - start, Math.max(offset, start - DICTIONARY_SIZE), i == chunks - 1);
+            })
+            .collect(Collectors.toList());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] deflateChunk(byte[] data, int start, int length, int dictionaryStart, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionaryStart < start) {
+                deflater.setDictionary(data, dictionaryStart, start - dictionaryStart);
+            }
+            deflater.setInput(data, start, length);
+
+            // Intermediate chunks end on a byte boundary with SYNC_FLUSH so the next chunk can be appended as-is
+            if (last) {
+                deflater.finish();
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            while (true) {
+                int count = last
+                    ? deflater.deflate(buffer)
+                    : deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                out.write(buffer, 0, count);
+                if (last ? deflater.finished() : count < buffer.length) {
+                    break;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
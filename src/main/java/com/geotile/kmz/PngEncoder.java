@@ -0,0 +1,412 @@
+package com.geotile.kmz;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// PNG writer working straight on the tile raster: 8-bit RGBA, RGB when every pixel is opaque, or the palette of
+// an indexed image at 1-8 bits per pixel. The zlib level and row filter are chosen per job; Deflaters and row
+// buffers are kept per thread. Large images can have their IDAT stream compressed in parallel, in row-aligned
+// pieces that each start from the previous piece's last 32 KB as dictionary, so the size barely suffers.
+public class PngEncoder {
+    public static final String FILTER_NONE = "NONE";
+    public static final String FILTER_SUB = "SUB";
+    public static final String FILTER_UP = "UP";
+    public static final String FILTER_ADAPTIVE = "ADAPTIVE"; // per row, the filter with the smallest sum of residuals
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_PALETTE = 3;
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    private static final int TYPE_NONE = 0;
+    private static final int TYPE_SUB = 1;
+    private static final int TYPE_UP = 2;
+    private static final int TYPE_AVERAGE = 3;
+    private static final int TYPE_PAETH = 4;
+
+    private static final int PARALLEL_PIECE_BYTES = 256 * 1024; // filtered bytes per parallel piece, at least
+    private static final int DICTIONARY_SIZE = 32 * 1024;        // the deflate window
+
+    // Reused across the tiles a thread encodes
+    private static class Workspace {
+        final Deflater deflater;
+        final byte[] buffer = new byte[64 * 1024];
+        byte[] filtered = new byte[0];
+        byte[][] rows = new byte[7][]; // previous and current raw row, then one candidate per filter type
+        int[] pixels = new int[0];
+
+        Workspace(int level) {
+            // Raw deflate: the zlib header and Adler-32 are written here, so parallel pieces form one stream
+            deflater = new Deflater(level, true);
+        }
+
+        byte[] row(int index, int length) {
+            if (rows[index] == null || rows[index].length < length) {
+                rows[index] = new byte[length];
+            }
+            return rows[index];
+        }
+    }
+
+    private final int level;
+    private final String filter;
+    private final boolean parallel;
+    private final ThreadLocal<Workspace> workspaces;
+
+    public PngEncoder(int level, String filter, boolean parallel) {
+        this.level = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, level));
+        if (FILTER_NONE.equalsIgnoreCase(filter)) {
+            this.filter = FILTER_NONE;
+        } else if (FILTER_SUB.equalsIgnoreCase(filter)) {
+            this.filter = FILTER_SUB;
+        } else if (FILTER_UP.equalsIgnoreCase(filter)) {
+            this.filter = FILTER_UP;
+        } else {
+            this.filter = FILTER_ADAPTIVE;
+        }
+        this.parallel = parallel;
+        this.workspaces = ThreadLocal.withInitial(() -> new Workspace(this.level));
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(image.getWidth() * image.getHeight() + 1024);
+        encode(image, out);
+        return out.toByteArray();
+    }
+
+    public void encode(BufferedImage image, OutputStream out) throws IOException {
+        Workspace workspace = workspaces.get();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        IndexColorModel palette = indexColorModel(image);
+
+        int colorType;
+        int bitDepth = 8;
+        int channels;
+        int[] pixels = null;
+        if (palette != null) {
+            colorType = COLOR_TYPE_PALETTE;
+            bitDepth = palette.getPixelSize() <= 1 ? 1 : palette.getPixelSize() <= 2 ? 2
+                : palette.getPixelSize() <= 4 ? 4 : 8;
+            channels = 1;
+        } else {
+            pixels = argbPixels(image, workspace);
+            colorType = isOpaque(pixels, width * height) ? COLOR_TYPE_RGB : COLOR_TYPE_RGBA;
+            channels = colorType == COLOR_TYPE_RGB ? 3 : 4;
+        }
+        int rowBytes = (width * channels * bitDepth + 7) / 8;
+        int bytesPerPixel = Math.max(1, channels * bitDepth / 8);
+        // Filters rarely pay off on palette indexes, which are not magnitudes
+        String rowFilter = palette != null && FILTER_ADAPTIVE.equals(filter) ? FILTER_NONE : filter;
+
+        int stride = rowBytes + 1;
+        long filteredLength = (long) stride * height;
+        if (filteredLength > Integer.MAX_VALUE - 8) {
+            throw new IOException("Image too large for PNG encoding: " + width + "x" + height);
+        }
+        if (workspace.filtered.length < filteredLength) {
+            workspace.filtered = new byte[(int) filteredLength];
+        }
+        byte[] filtered = workspace.filtered;
+        byte[] previous = workspace.row(0, rowBytes);
+        byte[] current = workspace.row(1, rowBytes);
+        Arrays.fill(previous, 0, rowBytes, (byte) 0);
+        for (int y = 0; y < height; y++) {
+            if (palette != null) {
+                packIndexes(image.getRaster(), y, width, bitDepth, current, workspace);
+            } else {
+                packPixels(pixels, y * width, width, channels, current);
+            }
+            filterRow(rowFilter, current, previous, rowBytes, bytesPerPixel, filtered, y * stride, workspace);
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = (byte) bitDepth;
+        header[9] = (byte) colorType;
+        // compression, filter method and interlace are all 0: deflate, adaptive per-row filters, not interlaced
+        writeChunk(out, "IHDR", header, 0, header.length);
+        if (palette != null) {
+            writePalette(out, palette);
+        }
+        writeImageData(out, filtered, (int) filteredLength, stride, workspace);
+        writeChunk(out, "IEND", new byte[0], 0, 0);
+    }
+
+    private static IndexColorModel indexColorModel(BufferedImage image) {
+        if (image.getColorModel() instanceof IndexColorModel && image.getRaster().getNumBands() == 1
+            && image.getColorModel().getPixelSize() <= 8) {
+            return (IndexColorModel) image.getColorModel();
+        }
+        return null;
+    }
+
+    private static int[] argbPixels(BufferedImage image, Workspace workspace) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB && image.getRaster().getParent() == null) {
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        int length = image.getWidth() * image.getHeight();
+        if (workspace.pixels.length < length) {
+            workspace.pixels = new int[length];
+        }
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), workspace.pixels, 0, image.getWidth());
+    }
+
+    private static boolean isOpaque(int[] pixels, int length) {
+        for (int i = 0; i < length; i++) {
+            if ((pixels[i] >>> 24) != 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void packPixels(int[] pixels, int offset, int width, int channels, byte[] row) {
+        int out = 0;
+        for (int x = 0; x < width; x++) {
+            int pixel = pixels[offset + x];
+            row[out++] = (byte) (pixel >> 16);
+            row[out++] = (byte) (pixel >> 8);
+            row[out++] = (byte) pixel;
+            if (channels == 4) {
+                row[out++] = (byte) (pixel >>> 24);
+            }
+        }
+    }
+
+    // Indexes packed most significant bits first, as PNG stores sub-byte depths
+    private static void packIndexes(Raster raster, int y, int width, int bitDepth, byte[] row, Workspace workspace) {
+        if (workspace.pixels.length < width) {
+            workspace.pixels = new int[width];
+        }
+        int[] indexes = raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, 0, workspace.pixels);
+        if (bitDepth == 8) {
+            for (int x = 0; x < width; x++) {
+                row[x] = (byte) indexes[x];
+            }
+            return;
+        }
+        int perByte = 8 / bitDepth;
+        Arrays.fill(row, 0, (width + perByte - 1) / perByte, (byte) 0);
+        for (int x = 0; x < width; x++) {
+            int shift = 8 - bitDepth * (x % perByte + 1);
+            row[x / perByte] |= (byte) (indexes[x] << shift);
+        }
+    }
+
+    private static void filterRow(String filter, byte[] row, byte[] previous, int rowBytes, int bpp,
+                                  byte[] out, int offset, Workspace workspace) {
+        switch (filter) {
+            case FILTER_NONE:
+                out[offset] = TYPE_NONE;
+                System.arraycopy(row, 0, out, offset + 1, rowBytes);
+                return;
+            case FILTER_SUB:
+                applyFilter(TYPE_SUB, row, previous, rowBytes, bpp, out, offset + 1);
+                out[offset] = TYPE_SUB;
+                return;
+            case FILTER_UP:
+                applyFilter(TYPE_UP, row, previous, rowBytes, bpp, out, offset + 1);
+                out[offset] = TYPE_UP;
+                return;
+            default:
+                break;
+        }
+        // Minimum sum of absolute differences, the usual heuristic (libpng's default)
+        int best = TYPE_NONE;
+        long bestSum = Long.MAX_VALUE;
+        for (int type = TYPE_NONE; type <= TYPE_PAETH; type++) {
+            byte[] candidate = workspace.row(2 + type, rowBytes);
+            applyFilter(type, row, previous, rowBytes, bpp, candidate, 0);
+            long sum = 0;
+            for (int i = 0; i < rowBytes && sum < bestSum; i++) {
+                sum += Math.abs(candidate[i]);
+            }
+            if (sum < bestSum) {
+                best = type;
+                bestSum = sum;
+            }
+        }
+        out[offset] = (byte) best;
+        System.arraycopy(workspace.rows[2 + best], 0, out, offset + 1, rowBytes);
+    }
+
+    private static void applyFilter(int type, byte[] row, byte[] previous, int rowBytes, int bpp,
+                                    byte[] out, int offset) {
+        switch (type) {
+            case TYPE_NONE:
+                System.arraycopy(row, 0, out, offset, rowBytes);
+                break;
+            case TYPE_SUB:
+                for (int i = 0; i < rowBytes; i++) {
+                    int left = i >= bpp ? row[i - bpp] : 0;
+                    out[offset + i] = (byte) (row[i] - left);
+                }
+                break;
+            case TYPE_UP:
+                for (int i = 0; i < rowBytes; i++) {
+                    out[offset + i] = (byte) (row[i] - previous[i]);
+                }
+                break;
+            case TYPE_AVERAGE:
+                for (int i = 0; i < rowBytes; i++) {
+                    int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    out[offset + i] = (byte) (row[i] - ((left + (previous[i] & 0xFF)) >>> 1));
+                }
+                break;
+            default:
+                for (int i = 0; i < rowBytes; i++) {
+                    int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    int upperLeft = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+                    out[offset + i] = (byte) (row[i] - paeth(left, previous[i] & 0xFF, upperLeft));
+                }
+                break;
+        }
+    }
+
+    private static int paeth(int left, int above, int upperLeft) {
+        int estimate = left + above - upperLeft;
+        int toLeft = Math.abs(estimate - left);
+        int toAbove = Math.abs(estimate - above);
+        int toUpperLeft = Math.abs(estimate - upperLeft);
+        if (toLeft <= toAbove && toLeft <= toUpperLeft) {
+            return left;
+        }
+        return toAbove <= toUpperLeft ? above : upperLeft;
+    }
+
+    private static void writePalette(OutputStream out, IndexColorModel palette) throws IOException {
+        int size = palette.getMapSize();
+        byte[] colors = new byte[size * 3];
+        byte[] alphas = new byte[size];
+        int lastTranslucent = -1;
+        for (int i = 0; i < size; i++) {
+            colors[i * 3] = (byte) palette.getRed(i);
+            colors[i * 3 + 1] = (byte) palette.getGreen(i);
+            colors[i * 3 + 2] = (byte) palette.getBlue(i);
+            alphas[i] = (byte) palette.getAlpha(i);
+            if (palette.getAlpha(i) != 0xFF) {
+                lastTranslucent = i;
+            }
+        }
+        writeChunk(out, "PLTE", colors, 0, colors.length);
+        // Entries past the last translucent one default to opaque, so tRNS stops there
+        if (lastTranslucent >= 0) {
+            writeChunk(out, "tRNS", alphas, 0, lastTranslucent + 1);
+        }
+    }
+
+    // One zlib stream over all filtered rows, written as one IDAT chunk per compressed piece
+    private void writeImageData(OutputStream out, byte[] filtered, int length, int stride, Workspace workspace)
+            throws IOException {
+        Adler32 adler = new Adler32();
+        adler.update(filtered, 0, length);
+
+        // Pieces end on row boundaries; a piece only exists if the image is big enough to be worth splitting
+        int rowsPerPiece = Math.max(1, PARALLEL_PIECE_BYTES / stride);
+        int rows = length / stride;
+        int pieces = parallel ? (rows + rowsPerPiece - 1) / rowsPerPiece : 1;
+        byte[][] compressed;
+        if (pieces <= 2) {
+            compressed = new byte[][]{deflate(filtered, 0, length, true, workspace)};
+        } else {
+            compressed = IntStream.range(0, pieces).parallel().mapToObj(piece -> {
+                int start = piece * rowsPerPiece * stride;
+                int end = Math.min(length, start + rowsPerPiece * stride);
+                return deflate(filtered, start, end - start, piece == pieces - 1, workspaces.get());
+            }).toArray(byte[][]::new);
+        }
+
+        byte[] zlibHeader = {0x78, (byte) flagByte(level)};
+        writeChunk(out, "IDAT", zlibHeader, 0, zlibHeader.length);
+        for (byte[] piece : compressed) {
+            writeChunk(out, "IDAT", piece, 0, piece.length);
+        }
+        byte[] checksum = new byte[4];
+        putInt(checksum, 0, (int) adler.getValue());
+        writeChunk(out, "IDAT", checksum, 0, checksum.length);
+    }
+
+    // Pieces before the last end with a sync flush so the next one continues the same deflate stream
+    private static byte[] deflate(byte[] data, int offset, int length, boolean last, Workspace workspace) {
+        Deflater deflater = workspace.deflater;
+        try {
+            if (offset > 0) {
+                int dictionary = Math.min(DICTIONARY_SIZE, offset);
+                deflater.setDictionary(data, offset - dictionary, dictionary);
+            }
+            deflater.setInput(data, offset, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = workspace.buffer;
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    out.write(buffer, 0, count);
+                }
+            } else {
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, count);
+                } while (count == buffer.length || !deflater.needsInput());
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    // FLEVEL of the zlib header is informational only; FCHECK makes the header a multiple of 31
+    private static int flagByte(int level) {
+        int flevel = level <= 1 ? 0 : level <= 5 ? 1 : level == 6 ? 2 : 3;
+        int flag = flevel << 6;
+        return flag + 31 - ((0x78 << 8) + flag) % 31;
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int offset, int length)
+            throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] word = new byte[4];
+        putInt(word, 0, length);
+        out.write(word);
+        out.write(typeBytes);
+        out.write(data, offset, length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        putInt(word, 0, (int) crc.getValue());
+        out.write(word);
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
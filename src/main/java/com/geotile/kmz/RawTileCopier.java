@@ -0,0 +1,368 @@
+package com.geotile.kmz;
+
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+// Splits an internally tiled GeoTIFF without decoding a pixel: every output tile is itself a tiled TIFF whose
+// blocks are the source's compressed blocks, transferred file to file. Only the image size, tile table and
+// georeferencing are written anew; the sample layout tags are copied so the blocks decode as they did before.
+public class RawTileCopier implements Closeable {
+    private static final int COMPRESSION_ADOBE_DEFLATE = 32946; // old code for the same zlib stream as 8
+    private static final long CLASSIC_TIFF_LIMIT = 0xFFFFFFFFL - (1L << 20);
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteOrder order;
+    private final boolean bigTiff;
+    private int width;
+    private int height;
+    private int blockWidth;
+    private int blockHeight;
+    private int compression = 1;
+    private int planarConfiguration = 1;
+    private long[] bitsPerSample = {1};
+    private boolean extraSamples; // alpha or other bands beyond the colour samples
+    private long[] blockOffsets;
+    private long[] blockByteCounts;
+    private final TiffDirectory layout = new TiffDirectory(); // sample layout tags copied into every tile
+
+    private RawTileCopier(File file, FileChannel channel, ByteOrder order, boolean bigTiff) {
+        this.file = file;
+        this.channel = channel;
+        this.order = order;
+        this.bigTiff = bigTiff;
+    }
+
+    // Null when the file is not a tiled TIFF whose blocks can be copied as they are
+    public static RawTileCopier open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        RawTileCopier copier = null;
+        try {
+            ByteBuffer header = read(channel, 0, 16, ByteOrder.LITTLE_ENDIAN);
+            if (header.remaining() < 8) {
+                return null;
+            }
+            ByteOrder order;
+            if (header.get(0) == 'I' && header.get(1) == 'I') {
+                order = ByteOrder.LITTLE_ENDIAN;
+            } else if (header.get(0) == 'M' && header.get(1) == 'M') {
+                order = ByteOrder.BIG_ENDIAN;
+            } else {
+                return null;
+            }
+            header.order(order);
+            int magic = header.getShort(2) & 0xFFFF;
+            if (magic != 42 && magic != 43) {
+                return null;
+            }
+            boolean bigTiff = magic == 43;
+            long firstDirectory = bigTiff ? header.getLong(8) : header.getInt(4) & 0xFFFFFFFFL;
+
+            copier = new RawTileCopier(file, channel, order, bigTiff);
+            if (!copier.readDirectory(firstDirectory) || !copier.isCopyable()) {
+                copier = null;
+                return null;
+            }
+            return copier;
+        } catch (IOException | RuntimeException e) {
+            throw new IOException("Failed to read TIFF layout of " + file.getName() + ": " + e.getMessage(), e);
+        } finally {
+            if (copier == null) {
+                channel.close();
+            }
+        }
+    }
+
+    private boolean readDirectory(long offset) throws IOException {
+        int countSize = bigTiff ? 8 : 2;
+        int entrySize = bigTiff ? 20 : 12;
+        ByteBuffer countBuffer = read(channel, offset, countSize, order);
+        long count = bigTiff ? countBuffer.getLong(0) : countBuffer.getShort(0) & 0xFFFF;
+        ByteBuffer entries = read(channel, offset + countSize, (int) (count * entrySize), order);
+
+        for (int i = 0; i < count; i++) {
+            int base = i * entrySize;
+            int tag = entries.getShort(base) & 0xFFFF;
+            int type = entries.getShort(base + 2) & 0xFFFF;
+            long valueCount = bigTiff ? entries.getLong(base + 4) : entries.getInt(base + 4) & 0xFFFFFFFFL;
+            int valueField = base + (bigTiff ? 12 : 8);
+            switch (tag) {
+                case TiffDirectory.IMAGE_WIDTH:
+                    width = (int) values(entries, valueField, type, valueCount)[0];
+                    break;
+                case TiffDirectory.IMAGE_LENGTH:
+                    height = (int) values(entries, valueField, type, valueCount)[0];
+                    break;
+                case TiffDirectory.TILE_WIDTH:
+                    blockWidth = (int) values(entries, valueField, type, valueCount)[0];
+                    break;
+                case TiffDirectory.TILE_LENGTH:
+                    blockHeight = (int) values(entries, valueField, type, valueCount)[0];
+                    break;
+                case TiffDirectory.TILE_OFFSETS:
+                    blockOffsets = values(entries, valueField, type, valueCount);
+                    break;
+                case TiffDirectory.TILE_BYTE_COUNTS:
+                    blockByteCounts = values(entries, valueField, type, valueCount);
+                    break;
+                case TiffDirectory.COMPRESSION:
+                    compression = (int) values(entries, valueField, type, valueCount)[0];
+                    layout.addShorts(tag, compression);
+                    break;
+                case TiffDirectory.PLANAR_CONFIGURATION:
+                    planarConfiguration = (int) values(entries, valueField, type, valueCount)[0];
+                    break;
+                case TiffDirectory.BITS_PER_SAMPLE:
+                    bitsPerSample = values(entries, valueField, type, valueCount);
+                    layout.addShorts(tag, bitsPerSample);
+                    break;
+                case TiffDirectory.PHOTOMETRIC:
+                case TiffDirectory.SAMPLES_PER_PIXEL:
+                case TiffDirectory.EXTRA_SAMPLES:
+                    extraSamples = valueCount > 0;
+                    layout.addShorts(tag, values(entries, valueField, type, valueCount));
+                    break;
+                case TiffDirectory.PREDICTOR:
+                case TiffDirectory.SAMPLE_FORMAT:
+                case TiffDirectory.COLOR_MAP:
+                    layout.addShorts(tag, values(entries, valueField, type, valueCount));
+                    break;
+                case TiffDirectory.GDAL_NODATA:
+                    layout.addAscii(tag, ascii(entries, valueField, valueCount));
+                    break;
+                default:
+                    // Strip tags, GeoKeys and the like are either irrelevant to a tiled copy or rewritten per tile
+                    break;
+            }
+        }
+        return blockOffsets != null && blockByteCounts != null && blockWidth > 0 && blockHeight > 0;
+    }
+
+    // Interleaved samples whose bytes mean the same once written little-endian
+    private boolean isCopyable() {
+        if (planarConfiguration != 1) {
+            return false;
+        }
+        long blocks = (long) blocksAcross() * blocksDown();
+        if (blockOffsets.length != blocks || blockByteCounts.length != blocks) {
+            return false;
+        }
+        if (order == ByteOrder.BIG_ENDIAN) {
+            for (long bits : bitsPerSample) {
+                if (bits > 8) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Copied tiles may be transparent wherever the source has extra samples
+    public boolean hasExtraSamples() {
+        return extraSamples;
+    }
+
+    public int getBlockWidth() {
+        return blockWidth;
+    }
+
+    public int getBlockHeight() {
+        return blockHeight;
+    }
+
+    // Whether the source blocks are in the codec the output would otherwise be encoded with
+    public boolean usesCompression(int tiffCompression) {
+        int source = compression == COMPRESSION_ADOBE_DEFLATE ? TiffCompressor.COMPRESSION_DEFLATE : compression;
+        return source == tiffCompression;
+    }
+
+    // Every tile of the grid must start on a block boundary and span whole blocks, bar the image's own edge
+    public boolean fits(TileGrid grid) {
+        return grid.getImageWidth() == width && grid.getImageHeight() == height
+            && grid.getTileWidth() % blockWidth == 0 && grid.getTileHeight() % blockHeight == 0
+            && !grid.hasPaddedEdges();
+    }
+
+    // Writes the blocks covering window (block aligned) as a tiled GeoTIFF covering bounds; returns its size
+    public long copyTile(Rectangle window, File output, double[] bounds, Integer epsgCode, boolean geographic,
+                         String crsName) throws IOException {
+        int firstColumn = window.x / blockWidth;
+        int firstRow = window.y / blockHeight;
+        int columns = (window.width + blockWidth - 1) / blockWidth;
+        int rows = (window.height + blockHeight - 1) / blockHeight;
+
+        long[] sourceOffsets = new long[columns * rows];
+        long[] byteCounts = new long[columns * rows];
+        long dataLength = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int source = (firstRow + row) * blocksAcross() + firstColumn + column;
+                sourceOffsets[row * columns + column] = blockOffsets[source];
+                byteCounts[row * columns + column] = blockByteCounts[source];
+                dataLength += blockByteCounts[source];
+            }
+        }
+
+        TiffDirectory directory = layout.copy();
+        directory.addLongs(TiffDirectory.IMAGE_WIDTH, window.width);
+        directory.addLongs(TiffDirectory.IMAGE_LENGTH, window.height);
+        directory.addShorts(TiffDirectory.PLANAR_CONFIGURATION, 1);
+        directory.addLongs(TiffDirectory.TILE_WIDTH, blockWidth);
+        directory.addLongs(TiffDirectory.TILE_LENGTH, blockHeight);
+        directory.addOffsets(TiffDirectory.TILE_OFFSETS, new long[byteCounts.length]);
+        directory.addLongs(TiffDirectory.TILE_BYTE_COUNTS, byteCounts);
+        directory.addGeoKeys(epsgCode, geographic, crsName);
+        directory.addGeoTransform(bounds, window.width, window.height);
+
+        boolean big = TiffDirectory.headerSize(false) + directory.size(false) + dataLength > CLASSIC_TIFF_LIMIT;
+        long position = TiffDirectory.headerSize(big) + directory.size(big);
+        long[] offsets = new long[byteCounts.length];
+        for (int i = 0; i < offsets.length; i++) {
+            // Sparse blocks (no bytes in the source) stay sparse
+            offsets[i] = byteCounts[i] > 0 ? position : 0;
+            position += byteCounts[i];
+        }
+        directory.setValues(TiffDirectory.TILE_OFFSETS, offsets);
+
+        ByteBuffer header = ByteBuffer.allocate((int) (TiffDirectory.headerSize(big) + directory.size(big)))
+            .order(ByteOrder.LITTLE_ENDIAN);
+        TiffDirectory.writeHeader(header, TiffDirectory.headerSize(big), big);
+        directory.write(header, TiffDirectory.headerSize(big), 0, big);
+        header.flip();
+
+        try (FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            // Blocks of a row usually sit back to back in the source, so contiguous runs go in one transfer
+            int i = 0;
+            while (i < sourceOffsets.length) {
+                long start = sourceOffsets[i];
+                long length = byteCounts[i++];
+                while (i < sourceOffsets.length && sourceOffsets[i] == start + length) {
+                    length += byteCounts[i++];
+                }
+                transfer(start, length, out);
+            }
+        } catch (IOException e) {
+            throw new IOException("Failed to copy blocks of " + file.getName() + " to " + output.getName()
+                + ": " + e.getMessage(), e);
+        }
+        return position;
+    }
+
+    private void transfer(long position, long length, FileChannel out) throws IOException {
+        while (length > 0) {
+            long copied = channel.transferTo(position, length, out);
+            if (copied <= 0) {
+                throw new IOException("Unexpected end of " + file.getName());
+            }
+            position += copied;
+            length -= copied;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int blocksAcross() {
+        return (width + blockWidth - 1) / blockWidth;
+    }
+
+    private int blocksDown() {
+        return (height + blockHeight - 1) / blockHeight;
+    }
+
+    // Integer values of an entry, read inline or from the offset it points to
+    private long[] values(ByteBuffer entries, int valueField, int type, long count) throws IOException {
+        int size = typeSize(type);
+        ByteBuffer data = size * count <= (bigTiff ? 8 : 4)
+            ? entries.duplicate().order(order).position(valueField).slice().order(order)
+            : read(channel, offset(entries, valueField), (int) (size * count), order);
+        long[] values = new long[(int) count];
+        for (int i = 0; i < count; i++) {
+            switch (type) {
+                case 1:
+                case 6:
+                case 7:
+                    values[i] = data.get(i) & 0xFF;
+                    break;
+                case 3:
+                case 8:
+                    values[i] = data.getShort(i * 2) & 0xFFFF;
+                    break;
+                case 4:
+                case 9:
+                    values[i] = data.getInt(i * 4) & 0xFFFFFFFFL;
+                    break;
+                case 16:
+                case 17:
+                    values[i] = data.getLong(i * 8);
+                    break;
+                default:
+                    throw new IOException("Unsupported TIFF field type " + type);
+            }
+        }
+        return values;
+    }
+
+    private String ascii(ByteBuffer entries, int valueField, long count) throws IOException {
+        ByteBuffer data = count <= (bigTiff ? 8 : 4)
+            ? entries.duplicate().position(valueField).slice()
+            : read(channel, offset(entries, valueField), (int) count, order);
+        byte[] text = new byte[(int) count];
+        data.get(text);
+        String value = new String(text, StandardCharsets.US_ASCII);
+        int end = value.indexOf('\0');
+        return end >= 0 ? value.substring(0, end) : value;
+    }
+
+    private long offset(ByteBuffer entries, int valueField) {
+        return bigTiff ? entries.getLong(valueField) : entries.getInt(valueField) & 0xFFFFFFFFL;
+    }
+
+    private static int typeSize(int type) {
+        switch (type) {
+            case 3:
+            case 8:
+                return 2;
+            case 4:
+            case 9:
+                return 4;
+            case 16:
+            case 17:
+                return 8;
+            default:
+                return 1;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length, ByteOrder order) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(order);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,277 @@
+package com.geotile.kmz;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Tiles as BLOBs in one SQLite file. Encoders hand tiles to put(); a single writer thread owns the
+// connection and inserts them in batched transactions, which is what SQLite is fastest at.
+public abstract class SQLiteTileWriter implements Closeable {
+    private static final int BATCH_SIZE = 512;
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private static class PendingTile {
+        final int zoom;
+        final int column;
+        final int row;
+        final byte[] data;
+        final CountDownLatch flushed;
+
+        PendingTile(int zoom, int column, int row, byte[] data, CountDownLatch flushed) {
+            this.zoom = zoom;
+            this.column = column;
+            this.row = row;
+            this.data = data;
+            this.flushed = flushed;
+        }
+    }
+
+    private static final PendingTile END = new PendingTile(0, 0, 0, null, null);
+
+    private final String url;
+    private final Connection connection;
+    private final BlockingQueue<PendingTile> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writerThread;
+    private final ThreadLocal<Connection> readConnection = new ThreadLocal<>();
+    private final List<Connection> readConnections = new ArrayList<>();
+    private volatile Throwable failure;
+    private boolean closed;
+    private volatile boolean aborted;
+
+    protected SQLiteTileWriter(File file) throws IOException {
+        this.url = "jdbc:sqlite:" + file.getAbsolutePath();
+        try {
+            connection = DriverManager.getConnection(url);
+            try (Statement statement = connection.createStatement()) {
+                // WAL lets the read connections look up finished tiles while the writer keeps inserting
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=NORMAL");
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to open tile store " + file.getName() + ": " + e.getMessage(), e);
+        }
+        writerThread = new Thread(this::writeLoop, "tile-store-writer");
+        writerThread.setDaemon(true);
+    }
+
+    // Subclasses call this at the end of their constructor, once the fields createSchema needs are set
+    protected final void start() throws IOException {
+        try {
+            try (Statement statement = connection.createStatement()) {
+                createSchema(statement);
+            }
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            closeQuietly(connection);
+            throw new IOException("Failed to create tile store schema: " + e.getMessage(), e);
+        }
+        writerThread.start();
+    }
+
+    protected abstract void createSchema(Statement statement) throws SQLException;
+
+    protected abstract String tableName();
+
+    // Row as stored in the table, for formats whose row axis differs from the XYZ/grid convention
+    protected int storedRow(int zoom, int row) {
+        return row;
+    }
+
+    // Called on the writer connection after the last tile, inside the final transaction
+    protected void finish(Connection connection) throws SQLException {
+    }
+
+    public void put(int zoom, int column, int row, byte[] data) throws IOException {
+        enqueue(new PendingTile(zoom, column, storedRow(zoom, row), data, null));
+    }
+
+    // Blocks until everything queued so far is committed and visible to read()
+    public void flush() throws IOException {
+        CountDownLatch flushed = new CountDownLatch(1);
+        enqueue(new PendingTile(0, 0, 0, null, flushed));
+        try {
+            // A writer that died after we queued the marker will never count it down
+            while (!flushed.await(100, TimeUnit.MILLISECONDS) && failure == null) {
+                // keep waiting
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Tile store flush interrupted");
+        }
+        checkFailure();
+    }
+
+    public byte[] read(int zoom, int column, int row) throws IOException {
+        try {
+            PreparedStatement query = readConnection().prepareStatement(
+                "SELECT tile_data FROM " + tableName() + " WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?");
+            try {
+                query.setInt(1, zoom);
+                query.setInt(2, column);
+                query.setInt(3, storedRow(zoom, row));
+                try (ResultSet result = query.executeQuery()) {
+                    return result.next() ? result.getBytes(1) : null;
+                }
+            } finally {
+                query.close();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to read tile " + zoom + "/" + column + "/" + row + ": " + e.getMessage(), e);
+        }
+    }
+
+    public boolean contains(int zoom, int column, int row) throws IOException {
+        return read(zoom, column, row) != null;
+    }
+
+    // For a failed run: close() then stops the writer and rolls back instead of finishing the store. Batches
+    // already committed stay, so a caller that does not want them deletes the file afterwards.
+    public void abort() {
+        aborted = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (failure == null && !aborted) {
+                queue.put(END);
+            } else {
+                writerThread.interrupt();
+            }
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Tile store close interrupted");
+        } finally {
+            synchronized (readConnections) {
+                for (Connection reader : readConnections) {
+                    closeQuietly(reader);
+                }
+            }
+        }
+
+        try {
+            if (aborted) {
+                connection.rollback();
+            } else if (failure == null) {
+                finish(connection);
+                connection.commit();
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    // Back to a single self-contained file once writing is done
+                    statement.execute("PRAGMA journal_mode=DELETE");
+                }
+            }
+            connection.close();
+        } catch (SQLException e) {
+            throw new IOException("Failed to finish tile store: " + e.getMessage(), e);
+        }
+        // An aborted writer was interrupted on purpose; the caller already has the real error
+        if (!aborted) {
+            checkFailure();
+        }
+    }
+
+    private void enqueue(PendingTile tile) throws IOException {
+        checkFailure();
+        try {
+            queue.put(tile);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Tile store write interrupted");
+        }
+    }
+
+    private void writeLoop() {
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT OR REPLACE INTO " + tableName() + " (zoom_level, tile_column, tile_row, tile_data) VALUES (?, ?, ?, ?)")) {
+            int batched = 0;
+            while (true) {
+                PendingTile tile = queue.take();
+                if (tile == END) {
+                    if (batched > 0) {
+                        insert.executeBatch();
+                    }
+                    return;
+                }
+                if (tile.flushed != null) {
+                    if (batched > 0) {
+                        insert.executeBatch();
+                        batched = 0;
+                    }
+                    connection.commit();
+                    tile.flushed.countDown();
+                    continue;
+                }
+
+                insert.setInt(1, tile.zoom);
+                insert.setInt(2, tile.column);
+                insert.setInt(3, tile.row);
+                insert.setBytes(4, tile.data);
+                insert.addBatch();
+                if (++batched >= BATCH_SIZE) {
+                    insert.executeBatch();
+                    connection.commit();
+                    batched = 0;
+                }
+            }
+        } catch (Throwable t) {
+            failure = t;
+            // Release anyone blocked on a flush or a full queue
+            PendingTile pending;
+            while ((pending = queue.poll()) != null) {
+                if (pending.flushed != null) {
+                    pending.flushed.countDown();
+                }
+            }
+        }
+    }
+
+    private Connection readConnection() throws SQLException {
+        Connection reader = readConnection.get();
+        if (reader == null) {
+            reader = DriverManager.getConnection(url);
+            reader.setReadOnly(true);
+            readConnection.set(reader);
+            synchronized (readConnections) {
+                readConnections.add(reader);
+            }
+        }
+        return reader;
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable error = failure;
+        if (error instanceof InterruptedException) {
+            throw new InterruptedIOException("Tile store writer interrupted");
+        } else if (error != null) {
+            throw new IOException("Failed to write tile store: " + error.getMessage(), error);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // Read connections hold no state worth reporting
+        }
+    }
+}
@@ -14,6 +14,7 @@ import org.geotools.referencing.CRS;
 import org.opengis.referencing.FactoryException;
 import javafx.scene.paint.Color;
 
+import java.awt.Dimension;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
@@ -23,11 +24,21 @@ import java.util.Optional;
 public class SplitterUI extends Application {
     private File selectedFile;
     private File lastUsedDirectory;
+    private ComboBox<String> gridModeComboBox;
+    private Label tilesXLabel;
+    private Label tilesYLabel;
     private TextField tilesXField;
     private TextField tilesYField;
+    private CheckBox powerOfTwoCheckbox;
+    private CheckBox alignBlocksCheckbox;
     private ComboBox<String> fileTypeComboBox;
+    private TextField minZoomField;
+    private TextField maxZoomField;
     private ComboBox<String> targetCRSComboBox;
     private CheckBox mergeToKmzCheckbox;
+    private CheckBox superOverlayCheckbox;
+    private CheckBox trimTilesCheckbox;
+    private CheckBox incrementalCheckbox;
     private Label statusLabel;
     private TextField minXField;
     private TextField minYField;
@@ -37,7 +48,11 @@ public class SplitterUI extends Application {
     private ProgressIndicator progressIndicator;
     private Button processButton;
     private ComboBox<String> compressionComboBox;
+    private ComboBox<String> paletteComboBox;
+    private ComboBox<String> pngSpeedComboBox;
+    private CheckBox ditherCheckbox;
     private TextField opacityField;
+    private ComboBox<String> opacityModeComboBox;
     private Button opacityIncreaseButton;
     private Button opacityDecreaseButton;
     private Button cancelButton;
@@ -206,26 +221,67 @@ public class SplitterUI extends Application {
         targetCRSComboBox.setMaxWidth(Double.MAX_VALUE);
         settingsGrid.add(targetCRSComboBox, 1, row++);
 
+        // Grid: tile counts, a tile size, or the largest texture the viewer shows without downsampling
+        settingsGrid.add(new Label("Grid:"), 0, row);
+        gridModeComboBox = new ComboBox<>();
+        gridModeComboBox.getItems().addAll("Tile count", "Tile size (px)", "Max texture size");
+        gridModeComboBox.setValue("Tile count");
+        gridModeComboBox.setMaxWidth(Double.MAX_VALUE);
+        settingsGrid.add(gridModeComboBox, 1, row++);
+
         // Tiles X
-        settingsGrid.add(new Label("Tiles X:"), 0, row);
+        tilesXLabel = new Label("Tiles X:");
+        settingsGrid.add(tilesXLabel, 0, row);
         tilesXField = new TextField("2");
         tilesXField.setPrefWidth(150);
         settingsGrid.add(tilesXField, 1, row++);
 
         // Tiles Y
-        settingsGrid.add(new Label("Tiles Y:"), 0, row);
+        tilesYLabel = new Label("Tiles Y:");
+        settingsGrid.add(tilesYLabel, 0, row);
         tilesYField = new TextField("2");
         tilesYField.setPrefWidth(150);
         settingsGrid.add(tilesYField, 1, row++);
 
+        gridModeComboBox.setOnAction(e -> {
+            String mode = gridModeComboBox.getValue();
+            boolean counts = mode.startsWith("Tile count");
+            boolean texture = mode.startsWith("Max texture");
+            tilesXLabel.setText(counts ? "Tiles X:" : texture ? "Max size:" : "Tile width:");
+            tilesYLabel.setText(counts ? "Tiles Y:" : "Tile height:");
+            tilesXField.setText(counts ? "2" : texture ? String.valueOf(GridPlanner.DEFAULT_MAX_TEXTURE) : "1024");
+            tilesYField.setText(counts ? "2" : "1024");
+            tilesYField.setDisable(texture);
+        });
+
         // Output Format
         settingsGrid.add(new Label("Output Format:"), 0, row);
         fileTypeComboBox = new ComboBox<>();
-        fileTypeComboBox.getItems().addAll("GeoTIFF Tiles", "PNG Tiles");
+        fileTypeComboBox.getItems().addAll("GeoTIFF Tiles", "PNG Tiles", "Auto JPEG/PNG Tiles", "Cloud-Optimized GeoTIFF", "GeoPackage", "XYZ Web Tiles", "MBTiles");
         fileTypeComboBox.setValue("PNG Tiles");
         fileTypeComboBox.setMaxWidth(Double.MAX_VALUE);
         settingsGrid.add(fileTypeComboBox, 1, row++);
 
+        // Zoom range for the web tile pyramid; an empty max means the source resolution
+        settingsGrid.add(new Label("Zoom Levels:"), 0, row);
+        HBox zoomBox = new HBox(5);
+        zoomBox.setAlignment(Pos.CENTER_LEFT);
+        minZoomField = new TextField("0");
+        minZoomField.setPrefWidth(60);
+        maxZoomField = new TextField();
+        maxZoomField.setPrefWidth(60);
+        maxZoomField.setPromptText("auto");
+        zoomBox.getChildren().addAll(minZoomField, new Label("to"), maxZoomField);
+        zoomBox.setDisable(true);
+        settingsGrid.add(zoomBox, 1, row++);
+        fileTypeComboBox.setOnAction(e -> {
+            zoomBox.setDisable(!isWebTileOutput());
+            // Single-file and web outputs have no per-tile files to merge into a KMZ
+            boolean kmzAvailable = fileTypeComboBox.getValue().endsWith("Tiles") && !isWebTileOutput();
+            mergeToKmzCheckbox.setDisable(!kmzAvailable);
+            superOverlayCheckbox.setDisable(!kmzAvailable || !mergeToKmzCheckbox.isSelected());
+        });
+
         // Compression
         settingsGrid.add(new Label("Compression:"), 0, row);
         compressionComboBox = new ComboBox<>();
@@ -234,6 +290,22 @@ public class SplitterUI extends Application {
         compressionComboBox.setMaxWidth(Double.MAX_VALUE);
         settingsGrid.add(compressionComboBox, 1, row++);
 
+        // Indexed PNGs are far smaller for scans and classified rasters with few colours
+        settingsGrid.add(new Label("PNG colors:"), 0, row);
+        paletteComboBox = new ComboBox<>();
+        paletteComboBox.getItems().addAll("Full color", "Palette per tile", "Palette per job");
+        paletteComboBox.setValue("Full color");
+        paletteComboBox.setMaxWidth(Double.MAX_VALUE);
+        settingsGrid.add(paletteComboBox, 1, row++);
+
+        // PNG size against encoding speed
+        settingsGrid.add(new Label("PNG encoding:"), 0, row);
+        pngSpeedComboBox = new ComboBox<>();
+        pngSpeedComboBox.getItems().addAll("Smallest", "Balanced", "Fastest");
+        pngSpeedComboBox.setValue("Balanced");
+        pngSpeedComboBox.setMaxWidth(Double.MAX_VALUE);
+        settingsGrid.add(pngSpeedComboBox, 1, row++);
+
         // Opacity
         settingsGrid.add(new Label("Opacity:"), 0, row);
         HBox opacityBox = new HBox(5);
@@ -254,6 +326,14 @@ public class SplitterUI extends Application {
         opacityDecreaseButton.setOnAction(e -> updateOpacity(-0.1));
         opacityIncreaseButton.setOnAction(e -> updateOpacity(0.1));
 
+        // Opacity mode: Pixels bakes opacity into the images; KML color keeps them untouched and only affects KMZ output
+        settingsGrid.add(new Label("Opacity Mode:"), 0, row);
+        opacityModeComboBox = new ComboBox<>();
+        opacityModeComboBox.getItems().addAll("Pixels", "KML color");
+        opacityModeComboBox.setValue("Pixels");
+        opacityModeComboBox.setMaxWidth(Double.MAX_VALUE);
+        settingsGrid.add(opacityModeComboBox, 1, row++);
+
         // Right column - Manual Georeferencing
         VBox rightColumn = new VBox(10);
         rightColumn.setPadding(new Insets(0, 0, 0, 30));
@@ -329,7 +409,34 @@ public class SplitterUI extends Application {
            mergeToKmzCheckbox.setSelected(true);
            mergeToKmzCheckbox.setPadding(new Insets(0, 0, 0, 3));
 
-        rightColumn.getChildren().addAll(manualGeoreferencingCheckbox, coordGrid, mergeToKmzCheckbox);
+        // Super-overlay pyramid, only meaningful when a KMZ is created
+        superOverlayCheckbox = new CheckBox("Super-overlay (LOD pyramid)");
+        superOverlayCheckbox.setPadding(new Insets(0, 0, 0, 3));
+        mergeToKmzCheckbox.setOnAction(e -> superOverlayCheckbox.setDisable(!mergeToKmzCheckbox.isSelected()));
+
+        // Power-of-two tiles upload to the GPU without a resample
+        powerOfTwoCheckbox = new CheckBox("Power-of-two tile sizes");
+        powerOfTwoCheckbox.setPadding(new Insets(0, 0, 0, 3));
+
+        // Tile edges on the source's internal tiles/strips, so no block is decoded twice
+        alignBlocksCheckbox = new CheckBox("Align tiles to source blocks");
+        alignBlocksCheckbox.setPadding(new Insets(0, 0, 0, 3));
+
+        // Crop edge tiles to the pixels that hold data
+        trimTilesCheckbox = new CheckBox("Trim tiles to data");
+        trimTilesCheckbox.setPadding(new Insets(0, 0, 0, 3));
+
+        // Re-runs into the same folder only redo tiles whose source pixels changed
+        incrementalCheckbox = new CheckBox("Skip unchanged tiles");
+        incrementalCheckbox.setPadding(new Insets(0, 0, 0, 3));
+
+        // Smooths gradients when a palette cannot hold every colour
+        ditherCheckbox = new CheckBox("Dither palette colors");
+        ditherCheckbox.setPadding(new Insets(0, 0, 0, 3));
+        ditherCheckbox.disableProperty().bind(paletteComboBox.valueProperty().isEqualTo("Full color"));
+
+        rightColumn.getChildren().addAll(manualGeoreferencingCheckbox, coordGrid, mergeToKmzCheckbox, superOverlayCheckbox,
+            powerOfTwoCheckbox, alignBlocksCheckbox, trimTilesCheckbox, incrementalCheckbox, ditherCheckbox);
 
      
 
@@ -342,6 +449,10 @@ public class SplitterUI extends Application {
         return settingsLayout;
     }
 
+    private boolean isWebTileOutput() {
+        return fileTypeComboBox.getValue().startsWith("XYZ") || fileTypeComboBox.getValue().equals("MBTiles");
+    }
+
     private void updateOpacity(double delta) {
         try {
             double currentOpacity = Double.parseDouble(opacityField.getText());
@@ -415,14 +526,20 @@ public class SplitterUI extends Application {
             try {
                 int tilesX = Integer.parseInt(tilesXField.getText());
                 int tilesY = Integer.parseInt(tilesYField.getText());
+                String gridMode = gridModeComboBox.getValue();
 
-                if (tilesX <= 0 || tilesY <= 0) {
+                if (tilesX <= 0 || (tilesY <= 0 && !gridMode.startsWith("Max texture"))) {
                     updateUI(() -> {
-                        statusLabel.setText("Number of tiles must be positive");
+                        statusLabel.setText(gridMode.startsWith("Tile count")
+                            ? "Number of tiles must be positive" : "Tile size must be positive");
                         resetProcessUI();
                     });
                     return;
                 }
+                GridPlanner gridPlanner = (gridMode.startsWith("Tile size") ? GridPlanner.tileSize(tilesX, tilesY)
+                    : gridMode.startsWith("Max texture") ? GridPlanner.maxTexture(tilesX)
+                    : GridPlanner.tileCounts(tilesX, tilesY)).powerOfTwo(powerOfTwoCheckbox.isSelected())
+                    .alignToBlocks(alignBlocksCheckbox.isSelected());
 
                 // Check if manual georeferencing is needed for JP2 files
                 String fileName = selectedFile.getName().toLowerCase();
@@ -508,29 +625,95 @@ public class SplitterUI extends Application {
                 // Get opacity value
                 float opacity = (float) Double.parseDouble(opacityField.getText());
                 processor.setTileOpacity(opacity);
+                processor.setOpacityMode(opacityModeComboBox.getValue().startsWith("KML")
+                    ? GeoTiffProcessor.OPACITY_KML : GeoTiffProcessor.OPACITY_PIXEL);
+                processor.setTrimTiles(trimTilesCheckbox.isSelected());
+                processor.setIncremental(incrementalCheckbox.isSelected());
+                String palette = paletteComboBox.getValue();
+                processor.setPaletteMode(palette.endsWith("tile") ? PaletteQuantizer.TILE
+                    : palette.endsWith("job") ? PaletteQuantizer.JOB : PaletteQuantizer.NONE);
+                processor.setDithering(ditherCheckbox.isSelected());
+                switch (pngSpeedComboBox.getValue()) {
+                    case "Smallest":
+                        processor.setPngOptions(Deflater.BEST_COMPRESSION, PngEncoder.FILTER_ADAPTIVE, true);
+                        break;
+                    case "Fastest":
+                        processor.setPngOptions(Deflater.BEST_SPEED, PngEncoder.FILTER_SUB, true);
+                        break;
+                    default:
+                        processor.setPngOptions(6, PngEncoder.FILTER_ADAPTIVE, true);
+                        break;
+                }
 
                 // Get output format
-                String outputFormat = fileTypeComboBox.getValue().startsWith("PNG") ? "PNG" : "GeoTIFF";
+                String fileType = fileTypeComboBox.getValue();
+                String outputFormat = fileType.equals("GeoPackage") ? "GPKG" : fileType.startsWith("PNG") ? "PNG"
+                    : fileType.startsWith("Auto") ? "AUTO" : "GeoTIFF";
+                // Opaque tiles become JPEGs in the KMZ too
+                processor.setKmzImageFormat(outputFormat.equals("AUTO") ? GeoTiffProcessor.IMAGE_AUTO : GeoTiffProcessor.IMAGE_PNG);
 
                 // Check for thread interruption
                 if (Thread.interrupted()) {
                     throw new InterruptedException("Processing cancelled by user");
                 }
 
+                // Web tiles are a separate EPSG:3857 pyramid and are not merged into a KMZ
+                if (isWebTileOutput()) {
+                    int minZoom = Integer.parseInt(minZoomField.getText().trim());
+                    int maxZoom = maxZoomField.getText().trim().isEmpty()
+                        ? processor.suggestWebMaxZoom()
+                        : Integer.parseInt(maxZoomField.getText().trim());
+                    File webDir;
+                    int written;
+                    if (fileType.equals("MBTiles")) {
+                        String name = selectedFile.getName().replaceFirst("\\.[^.]*$", "");
+                        webDir = new File(outputDir, name + ".mbtiles");
+                        written = processor.exportWebTilesToMBTiles(webDir, minZoom, maxZoom, name);
+                    } else {
+                        webDir = new File(outputDir, "xyz");
+                        written = processor.exportWebTiles(webDir, minZoom, maxZoom, WebMercatorTiles.XYZ);
+                    }
+                    updateUI(() -> {
+                        statusLabel.setText(String.format("Processing complete.\n%d web tiles (zoom %d-%d) saved to: %s",
+                            written, minZoom, maxZoom, webDir.getPath()));
+                        resetProcessUI();
+                    });
+                    return;
+                }
+
+                // A COG is one georeferenced file with internal tiles and overviews, so there is nothing to merge
+                if (fileType.startsWith("Cloud")) {
+                    String name = selectedFile.getName().replaceFirst("\\.[^.]*$", "");
+                    File cogFile = new File(outputDir, name + "_cog.tif");
+                    processor.writeCloudOptimizedGeoTIFF(cogFile, 512);
+                    updateUI(() -> {
+                        statusLabel.setText("Processing complete.\nCloud-Optimized GeoTIFF saved to: " + cogFile.getPath());
+                        resetProcessUI();
+                    });
+                    return;
+                }
+
                 // Split into tiles with specified format
-                List<TileInfo> tiles = processor.splitIntoTiles(tilesX, tilesY, outputDir, outputFormat);
+                List<TileInfo> tiles = processor.splitIntoTiles(gridPlanner, outputDir, outputFormat);
 
                 StringBuilder resultMessage = new StringBuilder();
                 resultMessage.append("Processing complete.\n");
 
                 // Add format-specific message
-                File tilesDir = new File(outputDir, "tiles");
+                File tilesDir = outputFormat.equals("GPKG") ? new File(outputDir, "tiles.gpkg") : new File(outputDir, "tiles");
                 resultMessage.append(String.format("Tiles saved as %s to: %s\n", 
-                    outputFormat.equals("PNG") ? "PNG files" : "GeoTIFF files",
+                    outputFormat.equals("GPKG") ? "a GeoPackage" : outputFormat.equals("PNG") ? "PNG files"
+                        : outputFormat.equals("AUTO") ? "JPEG/PNG files" : "GeoTIFF files",
                     tilesDir.getPath()));
+                MemoryPlanner.Plan memory = processor.getMemoryPlan();
+                Dimension block = processor.getSourceBlockSize();
+                if (memory != null && memory.isWindowed() && block != null) {
+                    resultMessage.append(String.format("Source read in %dx%d blocks, each decoded %.2fx on average\n",
+                        block.width, block.height, processor.decodeAmplification(gridPlanner)));
+                }
 
                 // Create KMZ if requested
-                if (mergeToKmzCheckbox.isSelected()) {
+                if (mergeToKmzCheckbox.isSelected() && !mergeToKmzCheckbox.isDisabled()) {
                     updateUI(() -> statusLabel.setText("Creating KMZ overlay..."));
                     
                     Platform.runLater(() -> {
@@ -555,7 +738,11 @@ public class SplitterUI extends Application {
                         File kmzFile = fileChooser.showSaveDialog(processButton.getScene().getWindow());
                         if (kmzFile != null) {
                             try {
-                                processor.createMergedKMZ(tiles, kmzFile.getPath(), kmzInternalName);
+                                if (superOverlayCheckbox.isSelected()) {
+                                    processor.createSuperOverlayKMZ(tiles, kmzFile.getPath(), kmzInternalName);
+                                } else {
+                                    processor.createMergedKMZ(tiles, kmzFile.getPath(), kmzInternalName);
+                                }
                                 resultMessage.append("KMZ overlay created at: ").append(kmzFile.getPath());
                             } catch (IOException ex) {
                                 resultMessage.append("Error creating KMZ overlay: ").append(ex.getMessage());
@@ -580,7 +767,12 @@ public class SplitterUI extends Application {
 
             } catch (NumberFormatException e) {
                 updateUI(() -> {
-                    statusLabel.setText("Invalid number of tiles");
+                    statusLabel.setText("Invalid number of tiles or zoom level");
+                    resetProcessUI();
+                });
+            } catch (IllegalArgumentException e) {
+                updateUI(() -> {
+                    statusLabel.setText("Error: " + e.getMessage());
                     resetProcessUI();
                 });
             } catch (IOException e) {
@@ -600,6 +792,12 @@ public class SplitterUI extends Application {
                     statusLabel.setText("Processing cancelled");
                     resetProcessUI();
                 });
+            } catch (OutOfMemoryError e) {
+                // The memory planner should prevent this; report it instead of leaving the UI stuck
+                updateUI(() -> {
+                    statusLabel.setText("Out of memory: use fewer tiles in flight or start with a larger -Xmx");
+                    resetProcessUI();
+                });
             }
         });
 
@@ -754,6 +952,7 @@ public class SplitterUI extends Application {
             "   • Set number of tiles (X and Y)\n" +
             "   • Choose target coordinate system (CRS)\n" +
             "   • Adjust tile opacity using + and - buttons\n" +
+            "   • Choose the opacity mode (KML color leaves tile pixels untouched, for KMZ output only)\n" +
             "   • Select output format (GeoTIFF or PNG)\n" +
             "   • Choose compression method\n\n" +
             "3. Manual Georeferencing (for JPEG/JP2)\n" +
@@ -0,0 +1,306 @@
+package com.geotile.kmz;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Writes a regionated KML super-overlay: a quadtree of GroundOverlays where every node links to its
+// children through Region-gated NetworkLinks, so Google Earth only fetches what is visible.
+// Level 0 is the single root tile, the deepest level is the full-resolution tile grid.
+public class SuperOverlayWriter {
+    public interface TileSource {
+        BufferedImage load(int x, int y) throws IOException;
+    }
+
+    public interface ImageEncoder {
+        void encode(BufferedImage image, OutputStream out) throws IOException;
+    }
+
+    private static class Node {
+        final int level;
+        final int x;
+        final int y;
+        final double[] box; // minLon, minLat, maxLon, maxLat
+        final int size;
+        final boolean empty; // fully transparent: neither written nor linked
+        BufferedImage image;
+        List<Node> children = new ArrayList<>();
+
+        Node(int level, int x, int y, double[] box, BufferedImage image, boolean empty) {
+            this.level = level;
+            this.x = x;
+            this.y = y;
+            this.box = box;
+            this.image = image;
+            this.empty = empty;
+            this.size = Math.max(image.getWidth(), image.getHeight());
+        }
+    }
+
+    private final KMZWriter kmz;
+    private final ImageEncoder encoder;
+    private final String overlayColor; // aabbggrr, or null for none
+    private final int threads;
+    private int numTilesX;
+    private int numTilesY;
+    private int maxLevel;
+    private Node[][] pendingRows;
+
+    public SuperOverlayWriter(KMZWriter kmz, ImageEncoder encoder, String overlayColor, int threads) {
+        this.kmz = kmz;
+        this.encoder = encoder;
+        this.overlayColor = overlayColor;
+        this.threads = Math.max(1, threads);
+    }
+
+    // boxes are the WGS84 bounds of the base tiles, indexed y * numTilesX + x
+    public void write(int numTilesX, int numTilesY, double[][] boxes, TileSource source,
+                      String name, String description) throws IOException {
+        this.numTilesX = numTilesX;
+        this.numTilesY = numTilesY;
+        this.maxLevel = 0;
+        for (int n = Math.max(numTilesX, numTilesY); n > 1; n = (n + 1) / 2) {
+            maxLevel++;
+        }
+        this.pendingRows = new Node[maxLevel + 1][];
+
+        double[] rootBox = boxes[0].clone();
+        for (double[] box : boxes) {
+            rootBox = union(rootBox, box);
+        }
+        kmz.writeEntry("doc.kml", createDocumentKML(name, description, rootBox).getBytes(StandardCharsets.UTF_8));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "superoverlay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // Base rows are loaded in parallel; every completed pair of rows cascades into the level above,
+            // so only a couple of rows per level are ever held in memory
+            for (int y = 0; y < numTilesY; y++) {
+                int row = y;
+                List<Callable<Node>> loads = new ArrayList<>();
+                for (int x = 0; x < numTilesX; x++) {
+                    int column = x;
+                    loads.add(() -> {
+                        BufferedImage image = source.load(column, row);
+                        return new Node(maxLevel, column, row, boxes[row * numTilesX + column], image,
+                            TileClassifier.classify(image, null).isEmpty());
+                    });
+                }
+                acceptRow(maxLevel, row, invokeAll(pool, loads), pool);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void acceptRow(int level, int row, Node[] nodes, ExecutorService pool) throws IOException {
+        for (Node node : nodes) {
+            writeNode(node);
+        }
+        if (level == 0) {
+            return;
+        }
+
+        boolean hasSibling = row % 2 == 0 && row + 1 < rowsAt(level);
+        if (hasSibling) {
+            pendingRows[level] = nodes;
+            return;
+        }
+        Node[] top = row % 2 == 0 ? nodes : pendingRows[level];
+        Node[] bottom = row % 2 == 0 ? null : nodes;
+        pendingRows[level] = null;
+
+        int parentRow = row / 2;
+        List<Callable<Node>> builds = new ArrayList<>();
+        for (int x = 0; x < columnsAt(level - 1); x++) {
+            int parentColumn = x;
+            builds.add(() -> buildParent(level - 1, parentColumn, parentRow, top, bottom));
+        }
+        Node[] parents = invokeAll(pool, builds);
+
+        // Children are written and folded into their parents, so their pixels can go
+        for (Node node : top) {
+            node.image = null;
+        }
+        if (bottom != null) {
+            for (Node node : bottom) {
+                node.image = null;
+            }
+        }
+        acceptRow(level - 1, parentRow, parents, pool);
+    }
+
+    private Node buildParent(int level, int x, int y, Node[] top, Node[] bottom) {
+        Node topLeft = top[x * 2];
+        Node topRight = x * 2 + 1 < top.length ? top[x * 2 + 1] : null;
+        Node bottomLeft = bottom != null ? bottom[x * 2] : null;
+        Node bottomRight = bottom != null && x * 2 + 1 < bottom.length ? bottom[x * 2 + 1] : null;
+
+        BufferedImage image = TileDownsampler.downsample(
+            topLeft.image,
+            topRight != null ? topRight.image : null,
+            bottomLeft != null ? bottomLeft.image : null,
+            bottomRight != null ? bottomRight.image : null
+        );
+
+        List<Node> children = new ArrayList<>();
+        double[] box = topLeft.box;
+        boolean empty = true;
+        for (Node child : new Node[]{topLeft, topRight, bottomLeft, bottomRight}) {
+            if (child != null) {
+                children.add(child);
+                box = union(box, child.box);
+                empty &= child.empty;
+            }
+        }
+
+        Node parent = new Node(level, x, y, box, image, empty);
+        parent.children = children;
+        return parent;
+    }
+
+    private void writeNode(Node node) throws IOException {
+        // An empty subtree is dropped entirely; the root is kept so doc.kml always resolves
+        if (node.empty && node.level > 0) {
+            node.children = null;
+            return;
+        }
+        String base = node.level + "/" + node.x + "/" + node.y;
+        BufferedImage image = node.image;
+        kmz.writeEntry(base + ".png", out -> encoder.encode(image, out));
+        kmz.writeEntry(base + ".kml", createNodeKML(node).getBytes(StandardCharsets.UTF_8));
+        node.children = null;
+    }
+
+    private String createDocumentKML(String name, String description, double[] rootBox) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<kml xmlns=\"http://www.opengis.net/kml/2.2\">\n" +
+            "  <Document>\n" +
+            "    <name>" + name + "</name>\n" +
+            "    <description>" + description + "</description>\n" +
+            "    <NetworkLink>\n" +
+            "      <name>" + name + "</name>\n" +
+            regionKML("      ", rootBox, 0, -1) +
+            "      <Link>\n" +
+            "        <href>0/0/0.kml</href>\n" +
+            "        <viewRefreshMode>onRegion</viewRefreshMode>\n" +
+            "      </Link>\n" +
+            "    </NetworkLink>\n" +
+            "  </Document>\n" +
+            "</kml>";
+    }
+
+    private String createNodeKML(Node node) {
+        // Shown from half its native size on screen until its children take over at twice that
+        int minLod = node.level == 0 ? 0 : node.size / 2;
+        int maxLod = node.level == maxLevel ? -1 : node.size * 2;
+
+        StringBuilder kml = new StringBuilder();
+        kml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+            .append("<kml xmlns=\"http://www.opengis.net/kml/2.2\">\n")
+            .append("  <Document>\n")
+            .append(String.format("    <name>%d/%d/%d</name>\n", node.level, node.x, node.y))
+            .append("    <GroundOverlay>\n")
+            .append(regionKML("      ", node.box, minLod, maxLod))
+            .append(String.format("      <drawOrder>%d</drawOrder>\n", node.level))
+            .append(overlayColor != null ? "      <color>" + overlayColor + "</color>\n" : "")
+            .append("      <Icon>\n")
+            .append(String.format("        <href>%d.png</href>\n", node.y))
+            .append("      </Icon>\n")
+            .append("      <LatLonBox>\n")
+            .append(boxKML("        ", node.box))
+            .append("      </LatLonBox>\n")
+            .append("    </GroundOverlay>\n");
+
+        for (Node child : node.children) {
+            if (child.empty) {
+                continue;
+            }
+            kml.append("    <NetworkLink>\n")
+                .append(String.format("      <name>%d/%d/%d</name>\n", child.level, child.x, child.y))
+                .append(regionKML("      ", child.box, child.size / 2, -1))
+                .append("      <Link>\n")
+                .append(String.format("        <href>../../%d/%d/%d.kml</href>\n", child.level, child.x, child.y))
+                .append("        <viewRefreshMode>onRegion</viewRefreshMode>\n")
+                .append("      </Link>\n")
+                .append("    </NetworkLink>\n");
+        }
+
+        kml.append("  </Document>\n")
+            .append("</kml>");
+        return kml.toString();
+    }
+
+    private static String regionKML(String indent, double[] box, int minLodPixels, int maxLodPixels) {
+        return indent + "<Region>\n" +
+            indent + "  <LatLonAltBox>\n" +
+            boxKML(indent + "    ", box) +
+            indent + "  </LatLonAltBox>\n" +
+            indent + "  <Lod>\n" +
+            indent + "    <minLodPixels>" + minLodPixels + "</minLodPixels>\n" +
+            indent + "    <maxLodPixels>" + maxLodPixels + "</maxLodPixels>\n" +
+            indent + "  </Lod>\n" +
+            indent + "</Region>\n";
+    }
+
+    private static String boxKML(String indent, double[] box) {
+        return String.format(
+            "%1$s<north>%2$f</north>\n" +
+            "%1$s<south>%3$f</south>\n" +
+            "%1$s<east>%4$f</east>\n" +
+            "%1$s<west>%5$f</west>\n",
+            indent, box[3], box[1], box[2], box[0]
+        );
+    }
+
+    private static double[] union(double[] a, double[] b) {
+        return new double[]{
+            Math.min(a[0], b[0]), Math.min(a[1], b[1]),
+            Math.max(a[2], b[2]), Math.max(a[3], b[3])
+        };
+    }
+
+    private int columnsAt(int level) {
+        return ceilShift(numTilesX, maxLevel - level);
+    }
+
+    private int rowsAt(int level) {
+        return ceilShift(numTilesY, maxLevel - level);
+    }
+
+    private static int ceilShift(int value, int shift) {
+        return (value + (1 << shift) - 1) >> shift;
+    }
+
+    private static Node[] invokeAll(ExecutorService pool, List<Callable<Node>> tasks) throws IOException {
+        try {
+            List<Future<Node>> futures = pool.invokeAll(tasks);
+            Node[] nodes = new Node[futures.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = futures.get(i).get();
+            }
+            return nodes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Super-overlay build interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to build super-overlay tile: " + cause.getMessage(), cause);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.geotile.kmz;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+// TIFF strip/tile codecs for 8-bit interleaved samples: NONE, LZW or DEFLATE (the choices the UI offers).
+// LZW and DEFLATE apply horizontal differencing (Predictor 2) first, which is what makes them pay off on imagery.
+public class TiffCompressor {
+    public static final int COMPRESSION_NONE = 1;
+    public static final int COMPRESSION_LZW = 5;
+    public static final int COMPRESSION_DEFLATE = 8;
+
+    private static final int PREDICTOR_NONE = 1;
+    private static final int PREDICTOR_HORIZONTAL = 2;
+
+    private static final int CLEAR_CODE = 256;
+    private static final int END_CODE = 257;
+    private static final int FIRST_CODE = 258;
+    private static final int MAX_FREE_CODE = 4094;
+    private static final int HASH_SIZE = 9029; // prime, a bit over twice the LZW table
+
+    private final int compression;
+    // One Deflater per encode thread, reset between tiles instead of reallocating its native buffers
+    private final ThreadLocal<Deflater> deflaters;
+
+    public TiffCompressor(String type, int level) {
+        if ("DEFLATE".equalsIgnoreCase(type)) {
+            compression = COMPRESSION_DEFLATE;
+        } else if ("NONE".equalsIgnoreCase(type)) {
+            compression = COMPRESSION_NONE;
+        } else {
+            compression = COMPRESSION_LZW;
+        }
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    public int getCompression() {
+        return compression;
+    }
+
+    public int getPredictor() {
+        return compression == COMPRESSION_NONE ? PREDICTOR_NONE : PREDICTOR_HORIZONTAL;
+    }
+
+    // samples holds width * height * samplesPerPixel bytes and is overwritten by the predictor
+    public byte[] compress(byte[] samples, int width, int height, int samplesPerPixel) {
+        if (compression == COMPRESSION_NONE) {
+            return samples;
+        }
+        applyPredictor(samples, width, height, samplesPerPixel);
+        return compression == COMPRESSION_DEFLATE ? deflate(samples) : lzw(samples);
+    }
+
+    private static void applyPredictor(byte[] samples, int width, int height, int samplesPerPixel) {
+        int rowLength = width * samplesPerPixel;
+        for (int y = 0; y < height; y++) {
+            int rowStart = y * rowLength;
+            // Right to left, so each difference is taken against the original neighbour
+            for (int i = rowStart + rowLength - 1; i >= rowStart + samplesPerPixel; i--) {
+                samples[i] -= samples[i - samplesPerPixel];
+            }
+        }
+    }
+
+    private byte[] deflate(byte[] samples) {
+        // Compression 8 is a zlib stream, which is Deflater's default framing
+        Deflater deflater = deflaters.get();
+        try {
+            deflater.setInput(samples);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(samples.length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    // TIFF flavour of LZW: MSB-first codes of 9-12 bits, "early change" width switches, ClearCode at 4094
+    private static byte[] lzw(byte[] samples) {
+        BitWriter out = new BitWriter(samples.length / 2 + 64);
+        int[] hashKeys = new int[HASH_SIZE];
+        short[] hashCodes = new short[HASH_SIZE];
+        Arrays.fill(hashKeys, -1);
+
+        int width = 9;
+        int nextCode = FIRST_CODE;
+        out.write(CLEAR_CODE, width);
+        if (samples.length == 0) {
+            out.write(END_CODE, width);
+            return out.toByteArray();
+        }
+
+        int prefix = samples[0] & 0xFF;
+        for (int i = 1; i < samples.length; i++) {
+            int next = samples[i] & 0xFF;
+            int key = (prefix << 8) | next;
+            int slot = (key * 31 & 0x7FFFFFFF) % HASH_SIZE;
+            while (hashKeys[slot] != -1 && hashKeys[slot] != key) {
+                slot = slot + 1 == HASH_SIZE ? 0 : slot + 1;
+            }
+            if (hashKeys[slot] == key) {
+                prefix = hashCodes[slot];
+                continue;
+            }
+
+            out.write(prefix, width);
+            hashKeys[slot] = key;
+            hashCodes[slot] = (short) nextCode++;
+            prefix = next;
+
+            if (nextCode == MAX_FREE_CODE) {
+                out.write(CLEAR_CODE, width);
+                Arrays.fill(hashKeys, -1);
+                nextCode = FIRST_CODE;
+                width = 9;
+            } else if (nextCode > (1 << width) - 1) {
+                width++;
+            }
+        }
+
+        // The decoder adds a table entry after the last code too, so the width may step up before END_CODE
+        out.write(prefix, width);
+        nextCode++;
+        if (nextCode == MAX_FREE_CODE) {
+            out.write(CLEAR_CODE, width);
+            width = 9;
+        } else if (nextCode > (1 << width) - 1) {
+            width++;
+        }
+        out.write(END_CODE, width);
+        return out.toByteArray();
+    }
+
+    private static class BitWriter {
+        private byte[] buffer;
+        private int length;
+        private long bits;
+        private int bitCount;
+
+        BitWriter(int capacity) {
+            buffer = new byte[Math.max(16, capacity)];
+        }
+
+        void write(int code, int width) {
+            bits = (bits << width) | code;
+            bitCount += width;
+            while (bitCount >= 8) {
+                bitCount -= 8;
+                put((byte) (bits >>> bitCount));
+            }
+        }
+
+        byte[] toByteArray() {
+            if (bitCount > 0) {
+                put((byte) (bits << (8 - bitCount)));
+                bitCount = 0;
+            }
+            return Arrays.copyOf(buffer, length);
+        }
+
+        private void put(byte value) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[length++] = value;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.geotile.kmz;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+// One TIFF image file directory. Entries are kept sorted by tag, as TIFF requires, and laid out either as
+// classic TIFF or BigTIFF once the caller knows where the directory goes.
+class TiffDirectory {
+    static final int NEW_SUBFILE_TYPE = 254;
+    static final int IMAGE_WIDTH = 256;
+    static final int IMAGE_LENGTH = 257;
+    static final int BITS_PER_SAMPLE = 258;
+    static final int COMPRESSION = 259;
+    static final int PHOTOMETRIC = 262;
+    static final int STRIP_OFFSETS = 273;
+    static final int SAMPLES_PER_PIXEL = 277;
+    static final int ROWS_PER_STRIP = 278;
+    static final int STRIP_BYTE_COUNTS = 279;
+    static final int PLANAR_CONFIGURATION = 284;
+    static final int PREDICTOR = 317;
+    static final int COLOR_MAP = 320;
+    static final int TILE_WIDTH = 322;
+    static final int TILE_LENGTH = 323;
+    static final int TILE_OFFSETS = 324;
+    static final int TILE_BYTE_COUNTS = 325;
+    static final int EXTRA_SAMPLES = 338;
+    static final int SAMPLE_FORMAT = 339;
+    static final int MODEL_PIXEL_SCALE = 33550;
+    static final int MODEL_TIEPOINT = 33922;
+    static final int GEO_KEY_DIRECTORY = 34735;
+    static final int GEO_ASCII_PARAMS = 34737;
+    static final int GDAL_NODATA = 42113;
+
+    private static final int ASCII = 2;
+    private static final int SHORT = 3;
+    private static final int LONG = 4;
+    private static final int DOUBLE = 12;
+    private static final int LONG8 = 16;
+    private static final int OFFSET = -1; // LONG in classic TIFF, LONG8 in BigTIFF
+
+    private static class Entry {
+        final int type;
+        final long[] values;
+        final double[] doubles;
+        final byte[] ascii;
+
+        Entry(int type, long[] values, double[] doubles, byte[] ascii) {
+            this.type = type;
+            this.values = values;
+            this.doubles = doubles;
+            this.ascii = ascii;
+        }
+
+        int count() {
+            return ascii != null ? ascii.length : doubles != null ? doubles.length : values.length;
+        }
+
+        int valueSize(boolean bigTiff) {
+            return count() * typeSize(resolvedType(bigTiff));
+        }
+
+        int resolvedType(boolean bigTiff) {
+            return type == OFFSET ? (bigTiff ? LONG8 : LONG) : type;
+        }
+    }
+
+    private final Map<Integer, Entry> entries = new TreeMap<>();
+
+    void addShorts(int tag, long... values) {
+        entries.put(tag, new Entry(SHORT, values, null, null));
+    }
+
+    void addLongs(int tag, long... values) {
+        entries.put(tag, new Entry(LONG, values, null, null));
+    }
+
+    void addOffsets(int tag, long... values) {
+        entries.put(tag, new Entry(OFFSET, values, null, null));
+    }
+
+    void addDoubles(int tag, double... values) {
+        entries.put(tag, new Entry(DOUBLE, null, values, null));
+    }
+
+    void addAscii(int tag, String value) {
+        byte[] text = (value + "\0").getBytes(StandardCharsets.US_ASCII);
+        entries.put(tag, new Entry(ASCII, null, null, text));
+    }
+
+    // Replaces the values of an entry added earlier, e.g. offsets that are only known at layout time
+    void setValues(int tag, long... values) {
+        Entry entry = entries.get(tag);
+        System.arraycopy(values, 0, entry.values, 0, values.length);
+    }
+
+    // GeoKey directory for the raster's CRS. Without an EPSG code only the model type and a citation naming the
+    // CRS are written.
+    void addGeoKeys(Integer epsgCode, boolean geographic, String citation) {
+        String ascii = citation.replace('|', '/') + "|";
+        long[] keys = epsgCode != null
+            ? new long[]{
+                1, 1, 0, 3,
+                1024, 0, 1, geographic ? 2 : 1,          // GTModelTypeGeoKey
+                1025, 0, 1, 1,                           // GTRasterTypeGeoKey: PixelIsArea
+                geographic ? 2048 : 3072, 0, 1, epsgCode // GeographicTypeGeoKey / ProjectedCSTypeGeoKey
+            }
+            : new long[]{
+                1, 1, 0, 3,
+                1024, 0, 1, geographic ? 2 : 1,
+                1025, 0, 1, 1,
+                1026, GEO_ASCII_PARAMS, ascii.length(), 0 // GTCitationGeoKey
+            };
+        addShorts(GEO_KEY_DIRECTORY, keys);
+        if (epsgCode == null) {
+            addAscii(GEO_ASCII_PARAMS, ascii);
+        }
+    }
+
+    // Pixel scale and top-left tiepoint of a north-up raster covering bounds {minX, minY, maxX, maxY}
+    void addGeoTransform(double[] bounds, int width, int height) {
+        addDoubles(MODEL_PIXEL_SCALE, (bounds[2] - bounds[0]) / width, (bounds[3] - bounds[1]) / height, 0);
+        addDoubles(MODEL_TIEPOINT, 0, 0, 0, bounds[0], bounds[3], 0);
+    }
+
+    // Entries are shared, so tags that differ between the copies must be re-added rather than patched with setValues
+    TiffDirectory copy() {
+        TiffDirectory copy = new TiffDirectory();
+        copy.entries.putAll(entries);
+        return copy;
+    }
+
+    // Bytes taken by the directory and its out-of-line values, padded to a word boundary
+    long size(boolean bigTiff) {
+        long size = directorySize(bigTiff);
+        for (Entry entry : entries.values()) {
+            int valueSize = entry.valueSize(bigTiff);
+            if (valueSize > inlineSize(bigTiff)) {
+                size += align(valueSize);
+            }
+        }
+        return size;
+    }
+
+    // Writes the directory at file position offset; values that do not fit inline follow it
+    void write(ByteBuffer out, long offset, long nextDirectory, boolean bigTiff) {
+        long valueOffset = offset + directorySize(bigTiff);
+        ByteBuffer values = out.duplicate().order(out.order());
+        values.position(out.position() + (int) (valueOffset - offset));
+
+        putCount(out, entries.size(), bigTiff);
+        for (Map.Entry<Integer, Entry> item : entries.entrySet()) {
+            Entry entry = item.getValue();
+            int type = entry.resolvedType(bigTiff);
+            out.putShort((short) (int) item.getKey());
+            out.putShort((short) type);
+            putOffset(out, entry.count(), bigTiff);
+
+            int valueSize = entry.valueSize(bigTiff);
+            if (valueSize > inlineSize(bigTiff)) {
+                putOffset(out, valueOffset, bigTiff);
+                putValues(values, entry, type);
+                int padding = align(valueSize) - valueSize;
+                values.position(values.position() + padding);
+                valueOffset += align(valueSize);
+            } else {
+                int start = out.position();
+                putValues(out, entry, type);
+                out.position(start + inlineSize(bigTiff));
+            }
+        }
+        putOffset(out, nextDirectory, bigTiff);
+        out.position(values.position());
+    }
+
+    private long directorySize(boolean bigTiff) {
+        return bigTiff ? 8 + entries.size() * 20L + 8 : 2 + entries.size() * 12L + 4;
+    }
+
+    private static void putValues(ByteBuffer out, Entry entry, int type) {
+        if (entry.ascii != null) {
+            out.put(entry.ascii);
+        } else if (entry.doubles != null) {
+            for (double value : entry.doubles) {
+                out.putDouble(value);
+            }
+        } else {
+            for (long value : entry.values) {
+                if (type == SHORT) {
+                    out.putShort((short) value);
+                } else if (type == LONG) {
+                    out.putInt((int) value);
+                } else {
+                    out.putLong(value);
+                }
+            }
+        }
+    }
+
+    private static void putCount(ByteBuffer out, long count, boolean bigTiff) {
+        if (bigTiff) {
+            out.putLong(count);
+        } else {
+            out.putShort((short) count);
+        }
+    }
+
+    private static void putOffset(ByteBuffer out, long value, boolean bigTiff) {
+        if (bigTiff) {
+            out.putLong(value);
+        } else {
+            out.putInt((int) value);
+        }
+    }
+
+    private static int inlineSize(boolean bigTiff) {
+        return bigTiff ? 8 : 4;
+    }
+
+    private static int align(int size) {
+        return (size + 1) & ~1;
+    }
+
+    private static int typeSize(int type) {
+        switch (type) {
+            case ASCII:
+                return 1;
+            case SHORT:
+                return 2;
+            case LONG:
+                return 4;
+            default:
+                return 8;
+        }
+    }
+
+    // Little-endian header: magic 42 (classic) or 43 (BigTIFF), then the offset of the first directory
+    static void writeHeader(ByteBuffer out, long firstDirectory, boolean bigTiff) {
+        out.put((byte) 'I').put((byte) 'I');
+        if (bigTiff) {
+            out.putShort((short) 43);
+            out.putShort((short) 8);
+            out.putShort((short) 0);
+            out.putLong(firstDirectory);
+        } else {
+            out.putShort((short) 42);
+            out.putInt((int) firstDirectory);
+        }
+    }
+
+    static int headerSize(boolean bigTiff) {
+        return bigTiff ? 16 : 8;
+    }
+}
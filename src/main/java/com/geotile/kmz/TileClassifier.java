@@ -0,0 +1,141 @@
+package com.geotile.kmz;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+// One pass over a tile's pixels: whether it holds any data, whether it is a single colour, and a content hash
+// so identical tiles can share one encoded copy
+public class TileClassifier {
+    public static final String EMPTY = "EMPTY";     // every pixel transparent or the nodata colour
+    public static final String UNIFORM = "UNIFORM"; // one colour throughout
+    public static final String NORMAL = "NORMAL";
+
+    public static class Result {
+        private final String kind;
+        private final int color;
+        private final long contentHash;
+        private final Rectangle dataBounds;
+        private final boolean opaque;
+
+        Result(String kind, int color, long contentHash, Rectangle dataBounds, boolean opaque) {
+            this.kind = kind;
+            this.color = color;
+            this.contentHash = contentHash;
+            this.dataBounds = dataBounds;
+            this.opaque = opaque;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public boolean isEmpty() {
+            return EMPTY.equals(kind);
+        }
+
+        // ARGB of a UNIFORM tile
+        public int getColor() {
+            return color;
+        }
+
+        // Covers the size and every pixel; equal hashes only make tiles candidates, confirm with samePixels
+        public long getContentHash() {
+            return contentHash;
+        }
+
+        // Tight pixel box around everything that is not transparent/nodata; null for an EMPTY tile
+        public Rectangle getDataBounds() {
+            return dataBounds;
+        }
+
+        // Every pixel fully opaque, so the tile needs no alpha channel (e.g. can be a JPEG)
+        public boolean isOpaque() {
+            return opaque;
+        }
+    }
+
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private TileClassifier() {
+    }
+
+    // Same size and the same ARGB value at every pixel
+    public static boolean samePixels(BufferedImage a, BufferedImage b) {
+        if (a == null || b == null || a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()) {
+            return false;
+        }
+        int width = a.getWidth();
+        int[] rowA = new int[width];
+        int[] rowB = new int[width];
+        for (int y = 0; y < a.getHeight(); y++) {
+            a.getRGB(0, y, width, 1, rowA, 0, width);
+            b.getRGB(0, y, width, 1, rowB, 0, width);
+            if (!Arrays.equals(rowA, rowB)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // noDataColor is an ARGB value treated like transparency, or null
+    public static Result classify(BufferedImage image, Integer noDataColor) {
+        if (image == null) {
+            return new Result(EMPTY, 0, 0, null, false);
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean direct = image.getType() == BufferedImage.TYPE_INT_ARGB && image.getRaster().getParent() == null;
+        int[] pixels = direct ? ((DataBufferInt) image.getRaster().getDataBuffer()).getData() : new int[width];
+
+        int first = direct ? pixels[0] : image.getRGB(0, 0);
+        boolean uniform = true;
+        boolean opaque = true;
+        int minX = width;
+        int maxX = -1;
+        int minY = height;
+        int maxY = -1;
+        long hash = (long) width * 31 + height;
+        for (int y = 0; y < height; y++) {
+            int offset = direct ? y * width : 0;
+            if (!direct) {
+                image.getRGB(0, y, width, 1, pixels, 0, width);
+            }
+            int rowMinX = width;
+            int rowMaxX = -1;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[offset + x];
+                hash = (hash + pixel) * HASH_MULTIPLIER;
+                if ((pixel >>> 24) != 0xFF) {
+                    opaque = false;
+                }
+                if ((pixel >>> 24) != 0 && (noDataColor == null || pixel != noDataColor)) {
+                    if (rowMaxX < 0) {
+                        rowMinX = x;
+                    }
+                    rowMaxX = x;
+                }
+                if (uniform && pixel != first) {
+                    uniform = false;
+                }
+            }
+            if (rowMaxX >= 0) {
+                minX = Math.min(minX, rowMinX);
+                maxX = Math.max(maxX, rowMaxX);
+                minY = Math.min(minY, y);
+                maxY = y;
+            }
+        }
+        // Final avalanche so hashes of near-identical tiles do not cluster
+        hash ^= hash >>> 32;
+        hash *= HASH_MULTIPLIER;
+        hash ^= hash >>> 29;
+
+        if (maxX < 0) {
+            return new Result(EMPTY, first, hash, null, false);
+        }
+        return new Result(uniform ? UNIFORM : NORMAL, first, hash,
+            new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1), opaque);
+    }
+}
@@ -0,0 +1,98 @@
+package com.geotile.kmz;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+// Builds one pyramid level from the one below: up to four neighbouring tiles are mosaicked and halved
+public class TileDownsampler {
+    private TileDownsampler() {
+    }
+
+    // Any of the children may be null at the right/bottom edge of a level; widths follow the top row,
+    // heights follow the left column
+    public static BufferedImage downsample(BufferedImage topLeft, BufferedImage topRight,
+                                           BufferedImage bottomLeft, BufferedImage bottomRight) {
+        BufferedImage mosaic = mosaic(topLeft, topRight, bottomLeft, bottomRight);
+        return halve(pixels(mosaic), mosaic.getWidth(), mosaic.getHeight());
+    }
+
+    // The four tiles side by side, without resampling; same edge rules as downsample
+    public static BufferedImage mosaic(BufferedImage topLeft, BufferedImage topRight,
+                                       BufferedImage bottomLeft, BufferedImage bottomRight) {
+        int leftWidth = topLeft.getWidth();
+        int rightWidth = topRight != null ? topRight.getWidth() : 0;
+        int topHeight = topLeft.getHeight();
+        int bottomHeight = bottomLeft != null ? bottomLeft.getHeight() : 0;
+
+        int mosaicWidth = leftWidth + rightWidth;
+        BufferedImage mosaic = new BufferedImage(mosaicWidth, topHeight + bottomHeight, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = pixels(mosaic);
+        copyInto(topLeft, pixels, mosaicWidth, 0, 0);
+        copyInto(topRight, pixels, mosaicWidth, leftWidth, 0);
+        copyInto(bottomLeft, pixels, mosaicWidth, 0, topHeight);
+        copyInto(bottomRight, pixels, mosaicWidth, leftWidth, topHeight);
+        return mosaic;
+    }
+
+    public static BufferedImage halve(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        // Sub-images share their parent's buffer, so only a standalone ARGB image can be used in place
+        int[] pixels = image.getType() == BufferedImage.TYPE_INT_ARGB && image.getRaster().getParent() == null
+            ? pixels(image)
+            : image.getRGB(0, 0, width, height, null, 0, width);
+        return halve(pixels, width, height);
+    }
+
+    private static int[] pixels(BufferedImage argb) {
+        return ((DataBufferInt) argb.getRaster().getDataBuffer()).getData();
+    }
+
+    private static void copyInto(BufferedImage tile, int[] mosaic, int stride, int offsetX, int offsetY) {
+        if (tile == null) {
+            return;
+        }
+        tile.getRGB(0, 0, tile.getWidth(), tile.getHeight(), mosaic, offsetY * stride + offsetX, stride);
+    }
+
+    // 2x2 box filter; odd edges average the pixels that exist. Alpha-weighted so transparent
+    // padding does not darken the borders of the data.
+    static BufferedImage halve(int[] pixels, int width, int height) {
+        int outWidth = Math.max(1, (width + 1) / 2);
+        int outHeight = Math.max(1, (height + 1) / 2);
+        BufferedImage result = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_INT_ARGB);
+        int[] out = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+
+        for (int y = 0; y < outHeight; y++) {
+            int y0 = y * 2;
+            int y1 = Math.min(y0 + 1, height - 1);
+            for (int x = 0; x < outWidth; x++) {
+                int x0 = x * 2;
+                int x1 = Math.min(x0 + 1, width - 1);
+                int samples = (x1 > x0 ? 2 : 1) * (y1 > y0 ? 2 : 1);
+
+                long a = 0, r = 0, g = 0, b = 0;
+                for (int sy = y0; sy <= y1; sy++) {
+                    for (int sx = x0; sx <= x1; sx++) {
+                        int argb = pixels[sy * width + sx];
+                        int alpha = argb >>> 24;
+                        a += alpha;
+                        r += ((argb >> 16) & 0xFF) * alpha;
+                        g += ((argb >> 8) & 0xFF) * alpha;
+                        b += (argb & 0xFF) * alpha;
+                    }
+                }
+
+                if (a == 0) {
+                    out[y * outWidth + x] = 0;
+                } else {
+                    out[y * outWidth + x] = (int) ((a + samples / 2) / samples) << 24
+                        | (int) ((r + a / 2) / a) << 16
+                        | (int) ((g + a / 2) / a) << 8
+                        | (int) ((b + a / 2) / a);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,110 @@
+package com.geotile.kmz;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
+
+import java.awt.Rectangle;
+
+public class TileGrid {
+    private final int imageWidth;
+    private final int imageHeight;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int numTilesX;
+    private final int numTilesY;
+    private final boolean paddedEdges; // edge tiles are padded to the full tile size
+
+    public TileGrid(int imageWidth, int imageHeight, int tileWidth, int tileHeight, int numTilesX, int numTilesY) {
+        this(imageWidth, imageHeight, tileWidth, tileHeight, numTilesX, numTilesY, false);
+    }
+
+    private TileGrid(int imageWidth, int imageHeight, int tileWidth, int tileHeight, int numTilesX, int numTilesY,
+                     boolean paddedEdges) {
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.numTilesX = numTilesX;
+        this.numTilesY = numTilesY;
+        this.paddedEdges = paddedEdges;
+    }
+
+    public static TileGrid fromTileCounts(int imageWidth, int imageHeight, int numTilesX, int numTilesY) {
+        // Same rounding as the original splitter so no pixels are lost on the last row/column
+        int tileWidth = (int) Math.ceil((double) imageWidth / numTilesX);
+        int tileHeight = (int) Math.ceil((double) imageHeight / numTilesY);
+        return new TileGrid(imageWidth, imageHeight, tileWidth, tileHeight, numTilesX, numTilesY);
+    }
+
+    // Fixed-size tiles from the top-left corner; the last row/column holds whatever is left over
+    public static TileGrid fromTileSize(int imageWidth, int imageHeight, int tileWidth, int tileHeight) {
+        int numTilesX = (imageWidth + tileWidth - 1) / tileWidth;
+        int numTilesY = (imageHeight + tileHeight - 1) / tileHeight;
+        return new TileGrid(imageWidth, imageHeight, tileWidth, tileHeight, numTilesX, numTilesY);
+    }
+
+    // Same grid, but every tile is output at the full tile size, the edge ones padded with transparency
+    public TileGrid withPaddedEdges() {
+        return new TileGrid(imageWidth, imageHeight, tileWidth, tileHeight, numTilesX, numTilesY, true);
+    }
+
+    public boolean hasPaddedEdges() {
+        return paddedEdges;
+    }
+
+    public Rectangle getPixelBounds(int x, int y) {
+        int startX = x * tileWidth;
+        int startY = y * tileHeight;
+        int width = (x == numTilesX - 1) ? imageWidth - startX : tileWidth;
+        int height = (y == numTilesY - 1) ? imageHeight - startY : tileHeight;
+        return new Rectangle(startX, startY, width, height);
+    }
+
+    // Geographic bounds of exactly the pixels in getPixelBounds, so uneven edge tiles stay registered
+    public double[] getGeoBounds(int x, int y, ReferencedEnvelope bounds) {
+        Rectangle pixels = getPixelBounds(x, y);
+        double resX = (bounds.getMaxX() - bounds.getMinX()) / imageWidth;
+        double resY = (bounds.getMaxY() - bounds.getMinY()) / imageHeight;
+
+        double minX = bounds.getMinX() + pixels.x * resX;
+        double maxY = bounds.getMaxY() - pixels.y * resY;
+        return new double[]{minX, maxY - pixels.height * resY, minX + pixels.width * resX, maxY};
+    }
+
+    // Geographic bounds of the full tileWidth x tileHeight cell, which reach past the image on padded edge tiles
+    public double[] getCellGeoBounds(int x, int y, ReferencedEnvelope bounds) {
+        double resX = (bounds.getMaxX() - bounds.getMinX()) / imageWidth;
+        double resY = (bounds.getMaxY() - bounds.getMinY()) / imageHeight;
+
+        double minX = bounds.getMinX() + (double) x * tileWidth * resX;
+        double maxY = bounds.getMaxY() - (double) y * tileHeight * resY;
+        return new double[]{minX, maxY - tileHeight * resY, minX + tileWidth * resX, maxY};
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    public int getNumTilesX() {
+        return numTilesX;
+    }
+
+    public int getNumTilesY() {
+        return numTilesY;
+    }
+
+    public int getTileCount() {
+        return numTilesX * numTilesY;
+    }
+}
@@ -1,12 +1,28 @@
 package com.geotile.kmz;
 
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 public class TileInfo {
-    private final BufferedImage image;
+    private BufferedImage image;
     private final double[] bounds;
     private final int x;
     private final int y;
+    private File file;
+    private long contentHash;
+    private boolean hasContentHash;
+    private boolean opaque;
+    private int emptyWidth; // > 0 only for empty tiles
+    private int emptyHeight;
+    private Rectangle trim;     // where a trimmed image sits in its grid cell, null when untrimmed
+    private int cellWidth;
+    private int cellHeight;
+    private double[] cellBounds;
 
     public TileInfo(BufferedImage image, double[] bounds, int x, int y) {
         this.image = image;
@@ -15,14 +31,90 @@ public class TileInfo {
         this.y = y;
     }
 
+    // A tile with nothing to show: it keeps its place in the grid but holds no pixels and is never written
+    public static TileInfo empty(double[] bounds, int x, int y, int width, int height) {
+        TileInfo tile = new TileInfo(null, bounds, x, y);
+        tile.emptyWidth = width;
+        tile.emptyHeight = height;
+        return tile;
+    }
+
+    public boolean isEmpty() {
+        return emptyWidth > 0;
+    }
+
     public BufferedImage getImage() {
+        if (isEmpty()) {
+            return new BufferedImage(emptyWidth, emptyHeight, BufferedImage.TYPE_INT_ARGB);
+        }
+        if (image == null && file != null) {
+            // Streamed tiles only keep their file; reload on demand (e.g. for KMZ merging)
+            try {
+                BufferedImage loaded = ImageIO.read(file);
+                if (loaded == null) {
+                    throw new IOException("Failed to read tile image " + file.getPath());
+                }
+                return loaded;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         return image;
     }
 
+    public void releaseImage() {
+        if (file != null) {
+            image = null;
+        }
+    }
+
     public double[] getBounds() {
         return bounds;
     }
 
+    // Records that the image was cropped to trim out of a cellWidth x cellHeight grid cell covering cellBounds
+    public void setTrim(Rectangle trim, int cellWidth, int cellHeight, double[] cellBounds) {
+        this.trim = trim;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        this.cellBounds = cellBounds;
+    }
+
+    public boolean isTrimmed() {
+        return trim != null;
+    }
+
+    // Where the trimmed image sits in its grid cell, or null
+    public Rectangle getTrim() {
+        return trim;
+    }
+
+    public int getCellWidth() {
+        return cellWidth;
+    }
+
+    public int getCellHeight() {
+        return cellHeight;
+    }
+
+    // Bounds of the whole grid cell, which differ from getBounds() only for trimmed tiles
+    public double[] getCellBounds() {
+        return trim != null ? cellBounds : bounds;
+    }
+
+    // The image padded back to its full grid cell, for consumers that need a regular grid (super-overlays)
+    public BufferedImage getCellImage() {
+        BufferedImage image = getImage();
+        if (trim == null) {
+            return image;
+        }
+        BufferedImage cell = new BufferedImage(cellWidth, cellHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = cell.createGraphics();
+        g.drawImage(image, trim.x, trim.y, null);
+        g.dispose();
+        return cell;
+    }
+
     public int getX() {
         return x;
     }
@@ -30,4 +122,35 @@ public class TileInfo {
     public int getY() {
         return y;
     }
-} 
\ No newline at end of file
+
+    public File getFile() {
+        return file;
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    // Equal content hashes make tiles candidates for sharing one encoded copy; the pixels decide
+    public boolean hasContentHash() {
+        return hasContentHash;
+    }
+
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(long contentHash) {
+        this.contentHash = contentHash;
+        this.hasContentHash = true;
+    }
+
+    // Whether every pixel of the image is fully opaque, recorded when the tile is made; false when unknown
+    public boolean isOpaque() {
+        return opaque;
+    }
+
+    public void setOpaque(boolean opaque) {
+        this.opaque = opaque;
+    }
+}
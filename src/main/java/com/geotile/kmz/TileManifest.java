@@ -0,0 +1,230 @@
+package com.geotile.kmz;
+
+import java.awt.Rectangle;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+// Record of the tiles a splitIntoTiles run produced: grid index, bounds, a hash of the source pixels each tile
+// was made from and a checksum of its output file. A later run with the same settings reuses every tile whose
+// source pixels and output file are unchanged. Lines are appended as tiles finish, so a crashed run resumes
+// where it stopped; close() rewrites the file with one line per tile.
+public class TileManifest implements Closeable {
+    private static final String HEADER = "# tile manifest v2";
+    private static final String SETTINGS_PREFIX = "# settings ";
+
+    // One finished tile. fileName is null for an empty tile, which has no output.
+    private static class Entry {
+        final int x;
+        final int y;
+        final long sourceHash;
+        final String fileName;
+        final long length;
+        final long checksum;
+        final long contentHash;
+        final boolean opaque;
+        final double[] bounds;
+        final int width;  // empty-tile size, or the full cell size of a trimmed tile
+        final int height;
+        final Rectangle trim;
+
+        Entry(int x, int y, long sourceHash, String fileName, long length, long checksum, long contentHash,
+              boolean opaque, double[] bounds, int width, int height, Rectangle trim) {
+            this.x = x;
+            this.y = y;
+            this.sourceHash = sourceHash;
+            this.fileName = fileName;
+            this.length = length;
+            this.checksum = checksum;
+            this.contentHash = contentHash;
+            this.opaque = opaque;
+            this.bounds = bounds;
+            this.width = width;
+            this.height = height;
+            this.trim = trim;
+        }
+    }
+
+    private final File file;
+    private final String settings;
+    private final Map<Long, Entry> entries = new TreeMap<>();
+    private BufferedWriter appender;
+
+    // Entries recorded under different settings are discarded: every tile would come out differently
+    public TileManifest(File file, String settings) throws IOException {
+        this.file = file;
+        this.settings = settings;
+        if (file.exists()) {
+            load();
+        }
+        // Rewritten before appending, which also drops a line cut short by a crash
+        compact();
+        try {
+            appender = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new IOException("Failed to open tile manifest " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void load() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine()) || !(SETTINGS_PREFIX + settings).equals(reader.readLine())) {
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // The last line of a crashed run may be cut short
+                Entry entry = parse(line);
+                if (entry != null) {
+                    entries.put(key(entry.x, entry.y), entry);
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException("Failed to read tile manifest " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    // The tile as it was recorded, if it came from the same source pixels and its output file is intact
+    public TileInfo reuse(int x, int y, long sourceHash, File tilesDir, double[] cellBounds) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key(x, y));
+        }
+        if (entry == null || entry.sourceHash != sourceHash) {
+            return null;
+        }
+        if (entry.fileName == null) {
+            return TileInfo.empty(entry.bounds, x, y, entry.width, entry.height);
+        }
+
+        File tileFile = new File(tilesDir, entry.fileName);
+        if (!tileFile.isFile() || tileFile.length() != entry.length
+            || checksum(Files.readAllBytes(tileFile.toPath())) != entry.checksum) {
+            return null;
+        }
+        TileInfo tile = new TileInfo(null, entry.bounds, x, y);
+        tile.setFile(tileFile);
+        tile.setContentHash(entry.contentHash);
+        tile.setOpaque(entry.opaque);
+        if (entry.trim != null) {
+            tile.setTrim(entry.trim, entry.width, entry.height, cellBounds);
+        }
+        return tile;
+    }
+
+    public void recordEmpty(TileInfo tile, long sourceHash, int width, int height) throws IOException {
+        record(new Entry(tile.getX(), tile.getY(), sourceHash, null, 0, 0, 0, false, tile.getBounds(), width, height, null));
+    }
+
+    // encoded are the bytes just written to the tile's file
+    public void recordTile(TileInfo tile, long sourceHash, byte[] encoded) throws IOException {
+        record(new Entry(tile.getX(), tile.getY(), sourceHash, tile.getFile().getName(), encoded.length,
+            checksum(encoded), tile.getContentHash(), tile.isOpaque(), tile.getBounds(), tile.getCellWidth(), tile.getCellHeight(),
+            tile.getTrim()));
+    }
+
+    private synchronized void record(Entry entry) throws IOException {
+        entries.put(key(entry.x, entry.y), entry);
+        try {
+            appender.write(format(entry));
+            appender.newLine();
+            // Flushed per tile so the manifest never claims more than is on disk
+            appender.flush();
+        } catch (IOException e) {
+            throw new IOException("Failed to update tile manifest " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (appender == null) {
+            return;
+        }
+        appender.close();
+        appender = null;
+        compact();
+    }
+
+    // One line per tile, replaced atomically so a crash here keeps the previous version
+    private void compact() throws IOException {
+        List<String> lines = new ArrayList<>(entries.size() + 2);
+        lines.add(HEADER);
+        lines.add(SETTINGS_PREFIX + settings);
+        for (Entry entry : entries.values()) {
+            lines.add(format(entry));
+        }
+        File compacted = new File(file.getPath() + ".part");
+        try {
+            Files.write(compacted.toPath(), lines, StandardCharsets.UTF_8);
+            Files.move(compacted.toPath(), file.toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IOException("Failed to write tile manifest " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    // x y sourceHash file length checksum contentHash opaque minX minY maxX maxY width height [trimX trimY trimW trimH]
+    private static String format(Entry entry) {
+        StringBuilder line = new StringBuilder()
+            .append(entry.x).append('\t').append(entry.y).append('\t')
+            .append(Long.toHexString(entry.sourceHash)).append('\t')
+            .append(entry.fileName != null ? entry.fileName : "-").append('\t')
+            .append(entry.length).append('\t')
+            .append(Long.toHexString(entry.checksum)).append('\t')
+            .append(Long.toHexString(entry.contentHash)).append('\t')
+            .append(entry.opaque ? 1 : 0);
+        for (double value : entry.bounds) {
+            line.append('\t').append(value);
+        }
+        line.append('\t').append(entry.width).append('\t').append(entry.height);
+        if (entry.trim != null) {
+            line.append('\t').append(entry.trim.x).append('\t').append(entry.trim.y)
+                .append('\t').append(entry.trim.width).append('\t').append(entry.trim.height);
+        }
+        return line.toString();
+    }
+
+    private static Entry parse(String line) {
+        String[] fields = line.split("\t");
+        if (fields.length != 14 && fields.length != 18) {
+            return null;
+        }
+        try {
+            double[] bounds = new double[4];
+            for (int i = 0; i < 4; i++) {
+                bounds[i] = Double.parseDouble(fields[8 + i]);
+            }
+            Rectangle trim = fields.length == 18
+                ? new Rectangle(Integer.parseInt(fields[14]), Integer.parseInt(fields[15]),
+                    Integer.parseInt(fields[16]), Integer.parseInt(fields[17]))
+                : null;
+            return new Entry(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                Long.parseUnsignedLong(fields[2], 16), "-".equals(fields[3]) ? null : fields[3],
+                Long.parseLong(fields[4]), Long.parseUnsignedLong(fields[5], 16), Long.parseUnsignedLong(fields[6], 16),
+                "1".equals(fields[7]), bounds, Integer.parseInt(fields[12]), Integer.parseInt(fields[13]), trim);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static long key(int x, int y) {
+        return ((long) y << 32) | (x & 0xFFFFFFFFL);
+    }
+}
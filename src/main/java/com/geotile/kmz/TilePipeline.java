@@ -0,0 +1,113 @@
+package com.geotile.kmz;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TilePipeline<T> {
+    public interface Stage<T> {
+        void process(T item) throws Exception;
+    }
+
+    private final List<String> stageNames = new ArrayList<>();
+    private final List<Integer> stageThreads = new ArrayList<>();
+    private final List<Stage<T>> stages = new ArrayList<>();
+    private int maxInFlight = 16;
+
+    public TilePipeline<T> addStage(String name, int threads, Stage<T> stage) {
+        stageNames.add(name);
+        stageThreads.add(Math.max(1, threads));
+        stages.add(stage);
+        return this;
+    }
+
+    public TilePipeline<T> setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        return this;
+    }
+
+    public void run(List<T> items) throws IOException {
+        run(items.iterator());
+    }
+
+    // Items are pulled lazily, so callers can stream job sets that are too large to hold as a list
+    public void run(Iterator<T> items) throws IOException {
+        int stageCount = stages.size();
+        ExecutorService[] pools = new ExecutorService[stageCount];
+        for (int i = 0; i < stageCount; i++) {
+            // No stage can hold more than maxInFlight items, so the bounded queues never reject
+            int threads = stageThreads.get(i);
+            pools[i] = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxInFlight), namedThreads(stageNames.get(i)));
+        }
+
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        try {
+            while (items.hasNext()) {
+                T item = items.next();
+                inFlight.acquire();
+                if (failure.get() != null) {
+                    inFlight.release();
+                    break;
+                }
+                submit(pools, 0, item, inFlight, failure);
+            }
+            // Every item returns its permit when it leaves the pipeline, so holding all of them means we are done
+            inFlight.acquire(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Tile processing interrupted");
+        } finally {
+            for (ExecutorService pool : pools) {
+                pool.shutdownNow();
+            }
+        }
+
+        Throwable error = failure.get();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw new IOException(error.getMessage(), error);
+        }
+    }
+
+    private void submit(ExecutorService[] pools, int stageIndex, T item, Semaphore inFlight,
+                        AtomicReference<Throwable> failure) {
+        pools[stageIndex].execute(() -> {
+            if (failure.get() == null) {
+                try {
+                    stages.get(stageIndex).process(item);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+
+            if (failure.get() == null && stageIndex + 1 < pools.length) {
+                submit(pools, stageIndex + 1, item, inFlight, failure);
+            } else {
+                inFlight.release();
+            }
+        });
+    }
+
+    private static ThreadFactory namedThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "tile-" + name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
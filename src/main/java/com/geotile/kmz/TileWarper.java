@@ -0,0 +1,260 @@
+package com.geotile.kmz;
+
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+// Reprojects tiles by transforming a coarse grid of points exactly and interpolating in between.
+// The grid is refined until the interpolation error at every cell center is within the tolerance.
+public class TileWarper {
+    public static final String NEAREST = "NEAREST";
+    public static final String BILINEAR = "BILINEAR";
+
+    private static final int INITIAL_GRID_STEP = 32;
+
+    private final MathTransform targetToSource;
+    private final double sourceMinX;
+    private final double sourceMaxY;
+    private final double sourceResX;
+    private final double sourceResY;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final double tolerance;
+    private final boolean bilinear;
+
+    public TileWarper(MathTransform targetToSource, double[] sourceBounds, int sourceWidth, int sourceHeight,
+                      double tolerancePixels, String resampling) {
+        this.targetToSource = targetToSource;
+        this.sourceMinX = sourceBounds[0];
+        this.sourceMaxY = sourceBounds[3];
+        this.sourceResX = (sourceBounds[2] - sourceBounds[0]) / sourceWidth;
+        this.sourceResY = (sourceBounds[3] - sourceBounds[1]) / sourceHeight;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.tolerance = Math.max(0.01, tolerancePixels);
+        this.bilinear = BILINEAR.equalsIgnoreCase(resampling);
+    }
+
+    public static class WarpPlan {
+        final int width;
+        final int height;
+        final int[] nodeX;
+        final int[] nodeY;
+        final double[] sourceCoords; // interleaved source pixel x/y per grid node, row-major
+        final Rectangle sourceWindow;  // null when the tile does not touch the source
+
+        WarpPlan(int width, int height, int[] nodeX, int[] nodeY, double[] sourceCoords, Rectangle sourceWindow) {
+            this.width = width;
+            this.height = height;
+            this.nodeX = nodeX;
+            this.nodeY = nodeY;
+            this.sourceCoords = sourceCoords;
+            this.sourceWindow = sourceWindow;
+        }
+
+        public Rectangle getSourceWindow() {
+            return sourceWindow;
+        }
+    }
+
+    // targetBounds is {minX, minY, maxX, maxY} in the target CRS
+    public WarpPlan plan(double[] targetBounds, int width, int height) throws TransformException {
+        double resX = (targetBounds[2] - targetBounds[0]) / width;
+        double resY = (targetBounds[3] - targetBounds[1]) / height;
+
+        for (int step = INITIAL_GRID_STEP; ; step = Math.max(1, step / 2)) {
+            int[] nodeX = nodePositions(width, step);
+            int[] nodeY = nodePositions(height, step);
+            double[] coords = transformNodes(targetBounds, resX, resY, nodeX, nodeY);
+
+            if (step == 1 || maxInterpolationError(targetBounds, resX, resY, nodeX, nodeY, coords) <= tolerance) {
+                return new WarpPlan(width, height, nodeX, nodeY, coords, sourceWindow(coords));
+            }
+        }
+    }
+
+    public BufferedImage resample(WarpPlan plan, BufferedImage window) {
+        BufferedImage result = new BufferedImage(plan.width, plan.height, BufferedImage.TYPE_INT_ARGB);
+        if (plan.sourceWindow == null) {
+            return result;
+        }
+
+        int[] out = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        int[] src = window.getRGB(0, 0, window.getWidth(), window.getHeight(), null, 0, window.getWidth());
+        int srcStride = window.getWidth();
+        int offsetX = plan.sourceWindow.x;
+        int offsetY = plan.sourceWindow.y;
+        int columns = plan.nodeX.length;
+
+        // Per-column cell index and fraction are the same for every row
+        int[] cellX = new int[plan.width];
+        double[] fracX = new double[plan.width];
+        for (int x = 0, cell = 0; x < plan.width; x++) {
+            while (cell < columns - 2 && x > plan.nodeX[cell + 1]) {
+                cell++;
+            }
+            int span = plan.nodeX[cell + 1] - plan.nodeX[cell];
+            cellX[x] = cell;
+            fracX[x] = span == 0 ? 0 : (double) (x - plan.nodeX[cell]) / span;
+        }
+
+        for (int y = 0, cellY = 0; y < plan.height; y++) {
+            while (cellY < plan.nodeY.length - 2 && y > plan.nodeY[cellY + 1]) {
+                cellY++;
+            }
+            int spanY = plan.nodeY[cellY + 1] - plan.nodeY[cellY];
+            double fy = spanY == 0 ? 0 : (double) (y - plan.nodeY[cellY]) / spanY;
+            int row0 = cellY * columns;
+            int row1 = (cellY + 1) * columns;
+
+            for (int x = 0; x < plan.width; x++) {
+                int c = cellX[x];
+                double fx = fracX[x];
+                double sx = lerp2(plan.sourceCoords, row0 + c, row1 + c, fx, fy, 0) - offsetX;
+                double sy = lerp2(plan.sourceCoords, row0 + c, row1 + c, fx, fy, 1) - offsetY;
+                out[y * plan.width + x] = bilinear
+                    ? sampleBilinear(src, srcStride, window.getHeight(), sx - 0.5, sy - 0.5)
+                    : sampleNearest(src, srcStride, window.getHeight(), sx, sy);
+            }
+        }
+        return result;
+    }
+
+    private static double lerp2(double[] coords, int node00, int node01, double fx, double fy, int axis) {
+        double top = coords[node00 * 2 + axis] + (coords[(node00 + 1) * 2 + axis] - coords[node00 * 2 + axis]) * fx;
+        double bottom = coords[node01 * 2 + axis] + (coords[(node01 + 1) * 2 + axis] - coords[node01 * 2 + axis]) * fx;
+        return top + (bottom - top) * fy;
+    }
+
+    private static int sampleNearest(int[] src, int stride, int height, double sx, double sy) {
+        int ix = (int) Math.floor(sx);
+        int iy = (int) Math.floor(sy);
+        if (ix < 0 || iy < 0 || ix >= stride || iy >= height) {
+            return 0;
+        }
+        return src[iy * stride + ix];
+    }
+
+    private static int sampleBilinear(int[] src, int stride, int height, double sx, double sy) {
+        int x0 = (int) Math.floor(sx);
+        int y0 = (int) Math.floor(sy);
+        if (x0 < -1 || y0 < -1 || x0 >= stride || y0 >= height) {
+            return 0;
+        }
+        double fx = sx - x0;
+        double fy = sy - y0;
+
+        // Premultiplied accumulation so transparent neighbours do not bleed their color
+        double a = 0, r = 0, g = 0, b = 0;
+        for (int dy = 0; dy <= 1; dy++) {
+            for (int dx = 0; dx <= 1; dx++) {
+                int px = x0 + dx;
+                int py = y0 + dy;
+                if (px < 0 || py < 0 || px >= stride || py >= height) {
+                    continue;
+                }
+                double weight = (dx == 0 ? 1 - fx : fx) * (dy == 0 ? 1 - fy : fy);
+                int argb = src[py * stride + px];
+                double alpha = ((argb >>> 24) & 0xFF) * weight;
+                a += alpha;
+                r += ((argb >> 16) & 0xFF) * alpha;
+                g += ((argb >> 8) & 0xFF) * alpha;
+                b += (argb & 0xFF) * alpha;
+            }
+        }
+        if (a <= 0) {
+            return 0;
+        }
+        return ((int) Math.round(a) << 24)
+            | ((int) Math.round(r / a) << 16)
+            | ((int) Math.round(g / a) << 8)
+            | (int) Math.round(b / a);
+    }
+
+    private static int[] nodePositions(int size, int step) {
+        int count = (size - 1 + step - 1) / step + 1;
+        int[] nodes = new int[Math.max(2, count)];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = Math.min(i * step, Math.max(0, size - 1));
+        }
+        return nodes;
+    }
+
+    private double[] transformNodes(double[] targetBounds, double resX, double resY, int[] nodeX, int[] nodeY)
+            throws TransformException {
+        double[] coords = new double[nodeX.length * nodeY.length * 2];
+        int i = 0;
+        for (int row : nodeY) {
+            for (int column : nodeX) {
+                coords[i++] = targetBounds[0] + (column + 0.5) * resX;
+                coords[i++] = targetBounds[3] - (row + 0.5) * resY;
+            }
+        }
+        toSourcePixels(coords);
+        return coords;
+    }
+
+    private double maxInterpolationError(double[] targetBounds, double resX, double resY,
+                                         int[] nodeX, int[] nodeY, double[] coords) throws TransformException {
+        int columns = nodeX.length;
+        int cells = (nodeX.length - 1) * (nodeY.length - 1);
+        double[] centers = new double[cells * 2];
+        int i = 0;
+        for (int j = 0; j < nodeY.length - 1; j++) {
+            for (int k = 0; k < columns - 1; k++) {
+                centers[i++] = targetBounds[0] + ((nodeX[k] + nodeX[k + 1]) / 2.0 + 0.5) * resX;
+                centers[i++] = targetBounds[3] - ((nodeY[j] + nodeY[j + 1]) / 2.0 + 0.5) * resY;
+            }
+        }
+        toSourcePixels(centers);
+
+        double maxError = 0;
+        i = 0;
+        for (int j = 0; j < nodeY.length - 1; j++) {
+            for (int k = 0; k < columns - 1; k++) {
+                double x = lerp2(coords, j * columns + k, (j + 1) * columns + k, 0.5, 0.5, 0);
+                double y = lerp2(coords, j * columns + k, (j + 1) * columns + k, 0.5, 0.5, 1);
+                maxError = Math.max(maxError, Math.hypot(x - centers[i], y - centers[i + 1]));
+                i += 2;
+            }
+        }
+        return maxError;
+    }
+
+    private void toSourcePixels(double[] coords) throws TransformException {
+        if (targetToSource != null) {
+            targetToSource.transform(coords, 0, coords, 0, coords.length / 2);
+        }
+        for (int i = 0; i < coords.length; i += 2) {
+            coords[i] = (coords[i] - sourceMinX) / sourceResX;
+            coords[i + 1] = (sourceMaxY - coords[i + 1]) / sourceResY;
+        }
+    }
+
+    private Rectangle sourceWindow(double[] coords) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < coords.length; i += 2) {
+            if (Double.isNaN(coords[i]) || Double.isNaN(coords[i + 1])) {
+                continue;
+            }
+            minX = Math.min(minX, coords[i]);
+            maxX = Math.max(maxX, coords[i]);
+            minY = Math.min(minY, coords[i + 1]);
+            maxY = Math.max(maxY, coords[i + 1]);
+        }
+
+        // One pixel of margin covers the bilinear footprint and interpolation error
+        int x0 = Math.max(0, (int) Math.floor(minX) - 1);
+        int y0 = Math.max(0, (int) Math.floor(minY) - 1);
+        int x1 = Math.min(sourceWidth, (int) Math.ceil(maxX) + 2);
+        int y1 = Math.min(sourceHeight, (int) Math.ceil(maxY) + 2);
+        if (x1 <= x0 || y1 <= y0) {
+            return null;
+        }
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+}
@@ -0,0 +1,73 @@
+package com.geotile.kmz;
+
+import java.io.File;
+
+// Tile math for the standard 256 px EPSG:3857 pyramid used by web maps
+public class WebMercatorTiles {
+    public static final String XYZ = "XYZ";
+    public static final String TMS = "TMS";
+    public static final int TILE_SIZE = 256;
+    public static final int MAX_ZOOM = 24;
+
+    static final double ORIGIN = 20037508.342789244;
+
+    private WebMercatorTiles() {
+    }
+
+    public static double tileSpan(int zoom) {
+        return 2 * ORIGIN / (1L << zoom);
+    }
+
+    // x/y follow the XYZ convention (row 0 at the top); bounds are {minX, minY, maxX, maxY} in metres
+    public static double[] tileBounds(int zoom, int x, int y) {
+        double span = tileSpan(zoom);
+        double minX = -ORIGIN + x * span;
+        double maxY = ORIGIN - y * span;
+        return new double[]{minX, maxY - span, minX + span, maxY};
+    }
+
+    // Inclusive {minX, minY, maxX, maxY} tile indices covering the extent at this zoom
+    public static int[] tileRange(int zoom, double[] extent) {
+        double span = tileSpan(zoom);
+        int last = (1 << zoom) - 1;
+        int minX = clamp((int) Math.floor((extent[0] + ORIGIN) / span), last);
+        int maxX = clamp((int) Math.ceil((extent[2] + ORIGIN) / span) - 1, last);
+        int minY = clamp((int) Math.floor((ORIGIN - extent[3]) / span), last);
+        int maxY = clamp((int) Math.ceil((ORIGIN - extent[1]) / span) - 1, last);
+        return new int[]{minX, minY, Math.max(minX, maxX), Math.max(minY, maxY)};
+    }
+
+    // The zoom at which one tile pixel is no coarser than one source pixel
+    public static int nativeZoom(double pixelSizeMetres) {
+        double zoom = Math.log(2 * ORIGIN / (TILE_SIZE * pixelSizeMetres)) / Math.log(2);
+        return Math.max(0, Math.min(MAX_ZOOM, (int) Math.ceil(zoom - 1e-6)));
+    }
+
+    public static double[] clampExtent(double[] extent) {
+        return new double[]{
+            Math.max(-ORIGIN, extent[0]), Math.max(-ORIGIN, extent[1]),
+            Math.min(ORIGIN, extent[2]), Math.min(ORIGIN, extent[3])
+        };
+    }
+
+    // {west, south, east, north} in degrees for a {minX, minY, maxX, maxY} extent in metres
+    public static double[] toLonLat(double[] extent) {
+        return new double[]{
+            Math.toDegrees(extent[0] / ORIGIN * Math.PI), latitude(extent[1]),
+            Math.toDegrees(extent[2] / ORIGIN * Math.PI), latitude(extent[3])
+        };
+    }
+
+    private static double latitude(double y) {
+        return Math.toDegrees(2 * Math.atan(Math.exp(y / ORIGIN * Math.PI)) - Math.PI / 2);
+    }
+
+    public static File tileFile(File rootDir, int zoom, int x, int y, String scheme, String extension) {
+        int row = TMS.equalsIgnoreCase(scheme) ? (1 << zoom) - 1 - y : y;
+        return new File(rootDir, zoom + File.separator + x + File.separator + row + "." + extension);
+    }
+
+    private static int clamp(int index, int last) {
+        return Math.max(0, Math.min(last, index));
+    }
+}
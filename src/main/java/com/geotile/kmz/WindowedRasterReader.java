@@ -0,0 +1,63 @@
+package com.geotile.kmz;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+public class WindowedRasterReader implements Closeable {
+    private final ImageInputStream input;
+    private final ImageReader reader;
+
+    public WindowedRasterReader(File file) throws IOException {
+        input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IOException("Cannot open image stream for " + file.getName());
+        }
+
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("No image reader found for " + file.getName());
+        }
+
+        // Random access is required because every window is a separate read of image 0
+        reader = readers.next();
+        reader.setInput(input, false, true);
+    }
+
+    public int getWidth() throws IOException {
+        return reader.getWidth(0);
+    }
+
+    public int getHeight() throws IOException {
+        return reader.getHeight(0);
+    }
+
+    // The unit the decoder works in: the internal tile size, or for striped images the width by the rows per strip
+    public int getBlockWidth() throws IOException {
+        return reader.getTileWidth(0);
+    }
+
+    public int getBlockHeight() throws IOException {
+        return reader.getTileHeight(0);
+    }
+
+    public BufferedImage readWindow(Rectangle window) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(window);
+        return reader.read(0, param);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        input.close();
+    }
+}
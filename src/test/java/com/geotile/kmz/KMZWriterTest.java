@@ -0,0 +1,148 @@
+package com.geotile.kmz;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class KMZWriterTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void entriesReadBackThroughZipFileAndZipInputStream() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("doc.kml", "<kml>\u00e9</kml>".getBytes(StandardCharsets.UTF_8));
+        entries.put("empty.txt", new byte[0]);
+        entries.put("files/noise.bin", randomBytes(50_000, 1));         // does not shrink, so stored
+        entries.put("files/repetitive.bin", repetitiveBytes(3 << 20));  // several parallel deflate chunks
+        entries.put("files/tile_0_0.png", randomBytes(1000, 2));        // precompressed, always stored
+
+        File kmz = dir.resolve("out.kmz").toFile();
+        try (KMZWriter writer = new KMZWriter(kmz, 6, 4)) {
+            boolean viaContent = false;
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                byte[] data = entry.getValue();
+                if (viaContent) {
+                    writer.writeEntry(entry.getKey(), out -> out.write(data));
+                } else {
+                    writer.writeEntry(entry.getKey(), data);
+                }
+                viaContent = !viaContent;
+            }
+        }
+
+        try (ZipFile zip = new ZipFile(kmz)) {
+            assertEquals(entries.size(), zip.size());
+            Enumeration<? extends ZipEntry> order = zip.entries();
+            for (Map.Entry<String, byte[]> expected : entries.entrySet()) {
+                ZipEntry entry = order.nextElement();
+                assertEquals(expected.getKey(), entry.getName());
+                try (InputStream in = zip.getInputStream(entry)) {
+                    assertArrayEquals(expected.getValue(), in.readAllBytes(), entry.getName());
+                }
+            }
+            assertEquals(ZipEntry.STORED, zip.getEntry("files/tile_0_0.png").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("files/repetitive.bin").getMethod());
+        }
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(kmz.toPath()))) {
+            for (Map.Entry<String, byte[]> expected : entries.entrySet()) {
+                ZipEntry entry = in.getNextEntry();
+                assertNotNull(entry);
+                assertEquals(expected.getKey(), entry.getName());
+                assertArrayEquals(expected.getValue(), in.readAllBytes(), entry.getName());
+            }
+        }
+        assertEquals(1, dir.toFile().list().length, "temp file left behind");
+    }
+
+    // More than 65535 entries need the Zip64 end of central directory
+    @Test
+    void zip64EntryCount() throws IOException {
+        int count = 70_000;
+        File kmz = dir.resolve("many.kmz").toFile();
+        try (KMZWriter writer = new KMZWriter(kmz, 1, 2)) {
+            for (int i = 0; i < count; i++) {
+                writer.writeEntry("files/" + i + ".txt", Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        try (ZipFile zip = new ZipFile(kmz)) {
+            assertEquals(count, zip.size());
+            for (int i : new int[]{0, 65_534, 65_535, 65_536, count - 1}) {
+                ZipEntry entry = zip.getEntry("files/" + i + ".txt");
+                assertNotNull(entry, "entry " + i);
+                try (InputStream in = zip.getInputStream(entry)) {
+                    assertEquals(Integer.toString(i), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    @Test
+    void failedEntryKeepsPreviousArchive() throws IOException {
+        File kmz = dir.resolve("out.kmz").toFile();
+        Files.write(kmz.toPath(), "previous".getBytes(StandardCharsets.UTF_8));
+
+        KMZWriter writer = new KMZWriter(kmz, 6, 2);
+        // The failure surfaces on whichever later call finds the entry done, and again on close
+        assertThrows(IOException.class, () -> {
+            writer.writeEntry("doc.kml", new byte[]{1, 2, 3});
+            writer.writeEntry("files/broken.png", out -> {
+                throw new IOException("encoder failed");
+            });
+            for (int i = 0; i < 100; i++) {
+                writer.writeEntry("files/" + i + ".txt", new byte[]{(byte) i});
+            }
+        });
+        assertThrows(IOException.class, writer::close);
+
+        assertEquals("previous", Files.readString(kmz.toPath()));
+        assertEquals(1, dir.toFile().list().length, "temp file left behind");
+    }
+
+    @Test
+    void abortedArchiveIsNeverPublished() throws IOException {
+        File kmz = dir.resolve("out.kmz").toFile();
+        try (KMZWriter writer = new KMZWriter(kmz, 6, 2)) {
+            writer.writeEntry("doc.kml", new byte[]{1, 2, 3});
+            writer.abort();
+        }
+
+        assertFalse(kmz.exists());
+        assertEquals(0, dir.toFile().list().length, "temp file left behind");
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] repetitiveBytes(int length) {
+        byte[] data = new byte[length];
+        Random random = new Random(3);
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ((i / 7 % 40) + (random.nextInt(16) == 0 ? random.nextInt(4) : 0));
+        }
+        return data;
+    }
+}
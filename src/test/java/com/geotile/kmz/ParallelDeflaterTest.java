@@ -0,0 +1,84 @@
+package com.geotile.kmz;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelDeflaterTest {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Test
+    void chunkedStreamsInflateToTheInput() throws DataFormatException {
+        ParallelDeflater deflater = new ParallelDeflater(6, CHUNK_SIZE);
+        for (int length : new int[]{0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 5 * CHUNK_SIZE + 123}) {
+            byte[] data = imageLikeBytes(length, length);
+            assertArrayEquals(data, inflate(deflater.deflate(data, 0, length)), "length " + length);
+        }
+    }
+
+    @Test
+    void slicesAreCompressedWithoutTheSurroundingBytes() throws DataFormatException {
+        ParallelDeflater deflater = new ParallelDeflater(6, CHUNK_SIZE);
+        byte[] data = imageLikeBytes(4 * CHUNK_SIZE, 7);
+        int offset = 1000;
+        int length = 3 * CHUNK_SIZE - 10;
+        assertArrayEquals(Arrays.copyOfRange(data, offset, offset + length),
+            inflate(deflater.deflate(data, offset, length)));
+    }
+
+    @Test
+    void everyLevelRoundTrips() throws DataFormatException {
+        byte[] data = imageLikeBytes(3 * CHUNK_SIZE, 11);
+        for (int level = Deflater.NO_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++) {
+            byte[] deflated = new ParallelDeflater(level, CHUNK_SIZE).deflate(data, 0, data.length);
+            assertArrayEquals(data, inflate(deflated), "level " + level);
+        }
+    }
+
+    // The shared dictionary keeps chunked output close to a single serial stream
+    @Test
+    void chunkingCostsLittleCompression() {
+        byte[] data = imageLikeBytes(8 * CHUNK_SIZE, 13);
+        int parallel = new ParallelDeflater(6, CHUNK_SIZE).deflate(data, 0, data.length).length;
+        int serial = new ParallelDeflater(6, data.length).deflate(data, 0, data.length).length;
+        assertTrue(parallel <= serial * 1.02, parallel + " vs " + serial);
+    }
+
+    private static byte[] inflate(byte[] deflated) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(deflated);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && !inflater.finished() && inflater.needsInput()) {
+                    throw new DataFormatException("Truncated deflate stream");
+                }
+                out.write(buffer, 0, count);
+            }
+            assertTrue(inflater.getRemaining() == 0, "trailing bytes after the final block");
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // Smooth gradients with noise, so matches both stay within a chunk and reach back into the previous one
+    private static byte[] imageLikeBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        Random random = new Random(seed);
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ((i % 1024) / 4 + random.nextInt(3));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,130 @@
+package com.geotile.kmz;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+// Encoded tiles are decoded with ImageIO's PNG reader and compared pixel for pixel with the source
+class PngEncoderTest {
+    private static final String[] FILTERS = {
+        PngEncoder.FILTER_NONE, PngEncoder.FILTER_SUB, PngEncoder.FILTER_UP, PngEncoder.FILTER_ADAPTIVE
+    };
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_PALETTE = 3;
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    @Test
+    void translucentTilesRoundTripAsRgba() throws IOException {
+        for (int[] size : new int[][]{{1, 1}, {7, 3}, {256, 256}, {700, 500}}) {
+            BufferedImage image = imagery(size[0], size[1], BufferedImage.TYPE_INT_ARGB, true);
+            assertRoundTrip(image, COLOR_TYPE_RGBA);
+        }
+    }
+
+    @Test
+    void opaqueTilesRoundTripAsRgb() throws IOException {
+        assertRoundTrip(imagery(300, 200, BufferedImage.TYPE_INT_ARGB, false), COLOR_TYPE_RGB);
+        assertRoundTrip(imagery(301, 199, BufferedImage.TYPE_INT_RGB, false), COLOR_TYPE_RGB);
+        assertRoundTrip(imagery(64, 64, BufferedImage.TYPE_3BYTE_BGR, false), COLOR_TYPE_RGB);
+    }
+
+    // Crops share their parent's pixel array, so they take the getRGB path
+    @Test
+    void subimagesRoundTrip() throws IOException {
+        BufferedImage parent = imagery(400, 300, BufferedImage.TYPE_INT_ARGB, true);
+        assertRoundTrip(parent.getSubimage(13, 29, 250, 170), COLOR_TYPE_RGBA);
+    }
+
+    @Test
+    void palettesRoundTripAtEveryBitDepth() throws IOException {
+        Random random = new Random(5);
+        for (int bits : new int[]{1, 2, 4, 8}) {
+            int colors = 1 << bits;
+            byte[] r = new byte[colors];
+            byte[] g = new byte[colors];
+            byte[] b = new byte[colors];
+            byte[] a = new byte[colors];
+            random.nextBytes(r);
+            random.nextBytes(g);
+            random.nextBytes(b);
+            for (int i = 0; i < colors; i++) {
+                a[i] = (byte) (i == 0 ? 0 : i % 3 == 0 ? 128 : 255);
+            }
+            IndexColorModel model = new IndexColorModel(bits, colors, r, g, b, a);
+            int type = bits == 8 ? BufferedImage.TYPE_BYTE_INDEXED : BufferedImage.TYPE_BYTE_BINARY;
+            // Odd widths leave a partial byte at the end of each packed row
+            BufferedImage image = new BufferedImage(37, 23, type, model);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.getRaster().setSample(x, y, 0, random.nextInt(colors));
+                }
+            }
+            assertRoundTrip(image, COLOR_TYPE_PALETTE);
+        }
+    }
+
+    @Test
+    void everyLevelRoundTrips() throws IOException {
+        BufferedImage image = imagery(120, 90, BufferedImage.TYPE_INT_ARGB, true);
+        for (int level = 0; level <= 9; level++) {
+            byte[] png = new PngEncoder(level, PngEncoder.FILTER_ADAPTIVE, false).encode(image);
+            assertSamePixels(image, png, "level " + level);
+        }
+    }
+
+    private static void assertRoundTrip(BufferedImage image, int colorType) throws IOException {
+        for (String filter : FILTERS) {
+            for (boolean parallel : new boolean[]{false, true}) {
+                String name = image.getWidth() + "x" + image.getHeight() + " " + filter + (parallel ? " parallel" : "");
+                byte[] png = new PngEncoder(6, filter, parallel).encode(image);
+                assertEquals(colorType, png[25], name + ": color type"); // IHDR data starts at byte 16
+                assertSamePixels(image, png, name);
+            }
+        }
+    }
+
+    private static void assertSamePixels(BufferedImage expected, byte[] png, String name) throws IOException {
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png));
+        assertNotNull(decoded, name);
+        assertEquals(expected.getWidth(), decoded.getWidth(), name);
+        assertEquals(expected.getHeight(), decoded.getHeight(), name);
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int want = expected.getRGB(x, y);
+                int got = decoded.getRGB(x, y);
+                // Fully transparent pixels may come back with any colour
+                if (want != got && ((want | got) >>> 24) != 0) {
+                    throw new AssertionError(name + ": pixel " + x + "," + y + " expected "
+                        + Integer.toHexString(want) + " but was " + Integer.toHexString(got));
+                }
+            }
+        }
+    }
+
+    // Gradients with noise and a few flat areas, so the adaptive filter picks every filter type somewhere
+    private static BufferedImage imagery(int width, int height, int type, boolean transparency) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(width * 31L + height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = (x * 255 / Math.max(1, width - 1) + random.nextInt(8)) & 0xFF;
+                int green = (y * 255 / Math.max(1, height - 1)) & 0xFF;
+                int blue = (x / 16 + y / 16) % 2 == 0 ? 40 : random.nextInt(256);
+                int alpha = 0xFF;
+                if (transparency) {
+                    alpha = x < (width + 7) / 8 ? 0 : y < height / 8 ? 128 + (x & 0x7F) : 0xFF;
+                }
+                image.setRGB(x, y, (alpha << 24) | (red << 16) | (green << 8) | blue);
+            }
+        }
+        return image;
+    }
+}
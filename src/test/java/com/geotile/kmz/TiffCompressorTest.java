@@ -0,0 +1,195 @@
+package com.geotile.kmz;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+// Each strip is wrapped in a minimal TIFF and decoded by the JDK's TIFF reader, an independent LZW and Predictor 2
+// implementation. That reader stops at the end of the data, so LZW strips are also checked by a strict decoder
+// that expects every code, END_CODE included, at exactly the width the TIFF spec gives it.
+class TiffCompressorTest {
+    private static final int CLEAR_CODE = 256;
+    private static final int END_CODE = 257;
+
+    @Test
+    void lzwRgbaNoiseRoundTrips() throws IOException {
+        // Noise adds a code per byte or two, so the table fills and clears many times
+        assertRoundTrip("LZW", randomSamples(96 * 80 * 4, 1), 96, 80, 4);
+    }
+
+    @Test
+    void lzwSmoothRgbRoundTrips() throws IOException {
+        int width = 300;
+        int height = 200;
+        byte[] samples = new byte[width * height * 3];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = (y * width + x) * 3;
+                samples[i] = (byte) x;
+                samples[i + 1] = (byte) (y * 2);
+                samples[i + 2] = (byte) (x + y);
+            }
+        }
+        assertRoundTrip("LZW", samples, width, height, 3);
+    }
+
+    @Test
+    void lzwSingleValueRoundTrips() throws IOException {
+        // Long runs build codes for ever longer strings of the same byte
+        assertRoundTrip("LZW", new byte[512 * 512], 512, 512, 1);
+    }
+
+    // Every length up to past the first ClearCode, so the last code and the END_CODE after it land on each
+    // 9/10/11/12-bit width switch and on the table reset
+    @Test
+    void lzwCodeWidthRollover() throws IOException {
+        byte[] noise = randomSamples(5000, 2);
+        for (int length = 1; length <= noise.length; length++) {
+            byte[] samples = new byte[length];
+            System.arraycopy(noise, 0, samples, 0, length);
+            assertRoundTrip("LZW", samples, length, 1, 1);
+        }
+    }
+
+    @Test
+    void deflateRoundTrips() throws IOException {
+        assertRoundTrip("DEFLATE", randomSamples(64 * 48 * 4, 3), 64, 48, 4);
+    }
+
+    @Test
+    void uncompressedRoundTrips() throws IOException {
+        assertRoundTrip("NONE", randomSamples(33 * 17 * 3, 4), 33, 17, 3);
+    }
+
+    private static void assertRoundTrip(String type, byte[] samples, int width, int height, int samplesPerPixel)
+            throws IOException {
+        TiffCompressor compressor = new TiffCompressor(type, 6);
+        byte[] expected = samples.clone();
+        byte[] strip = compressor.compress(samples, width, height, samplesPerPixel);
+        if (compressor.getCompression() == TiffCompressor.COMPRESSION_LZW) {
+            // compress() left the predictor's differences in samples
+            String name = width + "x" + height + "x" + samplesPerPixel;
+            assertArrayEquals(samples, strictLzwDecode(strip, name), name);
+        }
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(
+            tiff(strip, width, height, samplesPerPixel, compressor)));
+        assertNotNull(image, type + " " + width + "x" + height);
+        Raster raster = image.getRaster();
+        assertEquals(samplesPerPixel, raster.getNumBands());
+        int[] decoded = raster.getPixels(0, 0, width, height, (int[]) null);
+        assertEquals(expected.length, decoded.length);
+        for (int i = 0; i < expected.length; i++) {
+            if ((expected[i] & 0xFF) != decoded[i]) {
+                throw new AssertionError(type + " " + width + "x" + height + "x" + samplesPerPixel
+                    + ": sample " + i + " expected " + (expected[i] & 0xFF) + " but was " + decoded[i]);
+            }
+        }
+    }
+
+    private static byte[] tiff(byte[] strip, int width, int height, int samplesPerPixel, TiffCompressor compressor) {
+        long[] bits = new long[samplesPerPixel];
+        Arrays.fill(bits, 8);
+        TiffDirectory directory = new TiffDirectory();
+        directory.addLongs(TiffDirectory.IMAGE_WIDTH, width);
+        directory.addLongs(TiffDirectory.IMAGE_LENGTH, height);
+        directory.addShorts(TiffDirectory.BITS_PER_SAMPLE, bits);
+        directory.addShorts(TiffDirectory.COMPRESSION, compressor.getCompression());
+        directory.addShorts(TiffDirectory.PHOTOMETRIC, samplesPerPixel >= 3 ? 2 : 1); // RGB or BlackIsZero
+        directory.addShorts(TiffDirectory.SAMPLES_PER_PIXEL, samplesPerPixel);
+        directory.addLongs(TiffDirectory.ROWS_PER_STRIP, height);
+        directory.addShorts(TiffDirectory.PLANAR_CONFIGURATION, 1);
+        directory.addShorts(TiffDirectory.PREDICTOR, compressor.getPredictor());
+        if (samplesPerPixel == 4) {
+            directory.addShorts(TiffDirectory.EXTRA_SAMPLES, 2); // unassociated alpha
+        }
+        directory.addOffsets(TiffDirectory.STRIP_OFFSETS, 0);
+        directory.addLongs(TiffDirectory.STRIP_BYTE_COUNTS, strip.length);
+        long stripOffset = TiffDirectory.headerSize(false) + directory.size(false);
+        directory.setValues(TiffDirectory.STRIP_OFFSETS, stripOffset);
+
+        ByteBuffer file = ByteBuffer.allocate((int) stripOffset + strip.length).order(ByteOrder.LITTLE_ENDIAN);
+        TiffDirectory.writeHeader(file, TiffDirectory.headerSize(false), false);
+        directory.write(file, TiffDirectory.headerSize(false), 0, false);
+        file.position((int) stripOffset);
+        file.put(strip);
+        return file.array();
+    }
+
+    // MSB-first codes, 9 bits after each ClearCode and one bit wider as soon as the table reaches 511, 1023 and
+    // 2047 entries ("early change"). Fails on a code of the wrong width, a missing END_CODE or data after it.
+    private static byte[] strictLzwDecode(byte[] strip, String name) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[][] table = new byte[4096][];
+        for (int i = 0; i < 256; i++) {
+            table[i] = new byte[]{(byte) i};
+        }
+        long bitPosition = 0;
+        int width = 9;
+        int next = 258;
+        byte[] previous = null;
+        while (true) {
+            if (bitPosition + width > strip.length * 8L) {
+                throw new AssertionError(name + ": no END_CODE");
+            }
+            int code = 0;
+            for (int i = 0; i < width; i++, bitPosition++) {
+                int bit = (strip[(int) (bitPosition >> 3)] >> (7 - (bitPosition & 7))) & 1;
+                code = (code << 1) | bit;
+            }
+            if (code == END_CODE) {
+                break;
+            }
+            if (code == CLEAR_CODE) {
+                width = 9;
+                next = 258;
+                previous = null;
+                continue;
+            }
+
+            byte[] entry;
+            if (code < next && table[code] != null) {
+                entry = table[code];
+            } else if (code == next && previous != null) {
+                entry = Arrays.copyOf(previous, previous.length + 1);
+                entry[previous.length] = previous[0];
+            } else {
+                throw new AssertionError(name + ": code " + code + " with " + next + " table entries");
+            }
+            out.write(entry, 0, entry.length);
+            if (previous != null) {
+                if (next == 4094) {
+                    throw new AssertionError(name + ": table full without a ClearCode");
+                }
+                byte[] added = Arrays.copyOf(previous, previous.length + 1);
+                added[previous.length] = entry[0];
+                table[next++] = added;
+                if (next >= (1 << width) - 1 && width < 12) {
+                    width++;
+                }
+            }
+            previous = entry;
+        }
+        assertEquals((bitPosition + 7) / 8, strip.length, name + ": data after END_CODE");
+        return out.toByteArray();
+    }
+
+    private static byte[] randomSamples(int length, long seed) {
+        byte[] samples = new byte[length];
+        new Random(seed).nextBytes(samples);
+        return samples;
+    }
+}